@@ -0,0 +1,95 @@
+//
+// React - a library for functional-reactive-like programming
+// Copyright (c) 2013, Three Rings Design, Inc. - All rights reserved.
+// http://github.com/threerings/react/blob/master/LICENSE
+
+package react.bench;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import react.RFuture;
+import react.RPromise;
+
+/**
+ * Measures {@link RFuture#sequence} and {@link RFuture#collect} over large fan-ins.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FanInBenchmark
+{
+    @Param({"10000"})
+    public int count;
+
+    @Benchmark public List<Integer> sequencePending () {
+        List<RPromise<Integer>> promises = promises();
+        RFuture<List<Integer>> seq = RFuture.sequence(promises);
+        for (int ii = 0; ii < count; ii++) promises.get(ii).succeed(ii);
+        return seq.result().get();
+    }
+
+    @Benchmark public List<Integer> sequenceComplete () {
+        List<RFuture<Integer>> futures = new ArrayList<RFuture<Integer>>(count);
+        for (int ii = 0; ii < count; ii++) futures.add(RFuture.success(ii));
+        return RFuture.sequence(futures).result().get();
+    }
+
+    @Benchmark public Collection<Integer> collectPending () {
+        List<RPromise<Integer>> promises = promises();
+        RFuture<Collection<Integer>> coll = RFuture.collect(promises);
+        for (int ii = 0; ii < count; ii++) {
+            if (ii % 10 == 0) promises.get(ii).fail(FAILURE);
+            else promises.get(ii).succeed(ii);
+        }
+        return coll.result().get();
+    }
+
+    @Benchmark public List<Integer> sequenceConcurrent () throws Exception {
+        final List<RPromise<Integer>> promises = promises();
+        RFuture<List<Integer>> seq = RFuture.sequence(promises);
+        // complete the promises from several threads at once
+        final int chunk = count / THREADS;
+        final CountDownLatch done = new CountDownLatch(THREADS);
+        for (int tt = 0; tt < THREADS; tt++) {
+            final int start = tt * chunk, end = (tt == THREADS-1) ? count : start + chunk;
+            _exec.execute(new Runnable() {
+                public void run () {
+                    for (int ii = start; ii < end; ii++) promises.get(ii).succeed(ii);
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        return seq.result().get();
+    }
+
+    @Setup public void createExecutor () {
+        _exec = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @TearDown public void shutdownExecutor () {
+        _exec.shutdown();
+    }
+
+    protected List<RPromise<Integer>> promises () {
+        List<RPromise<Integer>> promises = new ArrayList<RPromise<Integer>>(count);
+        for (int ii = 0; ii < count; ii++) promises.add(RPromise.<Integer>create());
+        return promises;
+    }
+
+    protected ExecutorService _exec;
+
+    protected static final int THREADS = 4;
+    protected static final Exception FAILURE = new Exception("Failed");
+}
@@ -0,0 +1,154 @@
+//
+// React - a library for functional-reactive-like programming
+// Copyright (c) 2015, Three Rings Design, Inc. - All rights reserved.
+// http://github.com/threerings/react/blob/master/LICENSE
+
+package react.jdk8;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+
+import react.Closeable;
+import react.MultiFailureException;
+import react.RFuture;
+import react.RPromise;
+import react.SignalView;
+import react.Try;
+
+/**
+ * Converts between {@link RFuture}s and {@link CompletionStage}s. The conversions add no thread
+ * hops: results are passed along on whichever thread completes the original. Nor do they add
+ * intermediate futures: a converted future is itself the listener which completes it, futures
+ * which are already complete are converted without listening at all, and converting a future
+ * back to the type whence it came returns the original.
+ *
+ * <p>Failures are passed along as is, so a {@link MultiFailureException} from {@link
+ * RFuture#sequence} arrives intact at {@link CompletableFuture#exceptionally} and the like, and
+ * the {@link CompletionException}s with which stages wrap their failures are unwrapped on the way
+ * to an {@code RFuture}. Cancellation is also passed along: a {@link CancellationException}
+ * cancels a stage, and cancelling a future made from a stage cancels the stage.</p>
+ */
+public class CompletionStages
+{
+    /**
+     * Returns a stage which completes with the result of {@code future}. See {@link
+     * #toCompletableFuture}.
+     */
+    public static <T> CompletionStage<T> toCompletionStage (RFuture<T> future) {
+        return toCompletableFuture(future);
+    }
+
+    /**
+     * Returns a completable future which completes with the result of {@code future}. Cancelling
+     * the returned future disconnects it from {@code future}, which is thereby cancelled if it was
+     * derived (via {@link RFuture#map} and the like) and has no other listeners, as described in
+     * {@link RFuture}.
+     */
+    public static <T> CompletableFuture<T> toCompletableFuture (RFuture<T> future) {
+        if (future instanceof PromiseBridge<?>) {
+            CompletionStage<T> stage = ((PromiseBridge<T>)future)._stage;
+            if (stage instanceof CompletableFuture<?>) return (CompletableFuture<T>)stage;
+        }
+        Try<T> result = future.result();
+        if (result != null) {
+            CompletableFuture<T> done = new CompletableFuture<T>();
+            settle(done, result);
+            return done;
+        }
+        StageBridge<T> bridge = new StageBridge<T>(future);
+        bridge.connect();
+        return bridge;
+    }
+
+    /**
+     * Returns a future which completes with the result of {@code stage}. Cancelling the returned
+     * future cancels {@code stage}, if it is a {@link Future}.
+     */
+    public static <T> RFuture<T> fromCompletionStage (CompletionStage<T> stage) {
+        if (stage instanceof StageBridge<?>) return ((StageBridge<T>)stage)._source;
+        if (stage instanceof CompletableFuture<?>) {
+            CompletableFuture<T> cf = (CompletableFuture<T>)stage;
+            // join won't block as the future is done
+            if (cf.isDone()) try {
+                return RFuture.success(cf.join());
+            } catch (CancellationException | CompletionException ex) {
+                return RFuture.failure(unwrap(ex));
+            }
+        }
+        PromiseBridge<T> bridge = new PromiseBridge<T>(stage);
+        stage.whenComplete(bridge);
+        return bridge;
+    }
+
+    /** A completable future which is also the listener via which its source completes it. */
+    protected static final class StageBridge<T> extends CompletableFuture<T>
+        implements SignalView.Listener<Try<T>> {
+
+        public StageBridge (RFuture<T> source) {
+            _source = source;
+        }
+
+        public void connect () {
+            _conn = _source.listen(this);
+            // if we were cancelled while connecting, the cancellation missed our connection
+            if (isCancelled()) disconnect();
+        }
+
+        // from interface SignalView.Listener
+        public void onEmit (Try<T> result) {
+            settle(this, result);
+        }
+
+        @Override public boolean cancel (boolean mayInterruptIfRunning) {
+            if (!super.cancel(mayInterruptIfRunning)) return false;
+            disconnect();
+            return true;
+        }
+
+        protected void disconnect () {
+            Closeable conn = _conn;
+            if (conn != null) conn.close();
+        }
+
+        protected final RFuture<T> _source;
+        protected volatile Closeable _conn;
+    }
+
+    /** A promise which is also the callback via which its stage completes it. */
+    protected static final class PromiseBridge<T> extends RPromise<T>
+        implements BiConsumer<T,Throwable> {
+
+        public PromiseBridge (CompletionStage<T> stage) {
+            _stage = stage;
+        }
+
+        // from interface BiConsumer
+        public void accept (T value, Throwable cause) {
+            tryComplete(cause == null ? Try.success(value) : Try.<T>failure(unwrap(cause)));
+        }
+
+        @Override protected void cancelled () {
+            if (_stage instanceof Future<?>) ((Future<?>)_stage).cancel(false);
+        }
+
+        protected final CompletionStage<T> _stage;
+    }
+
+    protected static <T> void settle (CompletableFuture<T> future, Try<T> result) {
+        if (result.isSuccess()) future.complete(result.get());
+        else future.completeExceptionally(result.getFailure());
+    }
+
+    protected static Throwable unwrap (Throwable cause) {
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) &&
+               cause.getCause() != null) cause = cause.getCause();
+        return cause;
+    }
+
+    private CompletionStages () {} // no constructski
+}
@@ -0,0 +1,119 @@
+//
+// React - a library for functional-reactive-like programming
+// Copyright (c) 2015, Three Rings Design, Inc. - All rights reserved.
+// http://github.com/threerings/react/blob/master/LICENSE
+
+package react.jdk8;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+
+import react.MultiFailureException;
+import react.RFuture;
+import react.RPromise;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link CompletionStages} class.
+ */
+public class CompletionStagesTest
+{
+    @Test public void testToStage () {
+        RPromise<String> promise = RPromise.create();
+        CompletableFuture<String> cf = CompletionStages.toCompletableFuture(promise);
+        assertFalse(cf.isDone());
+        promise.succeed("Yay!");
+        assertEquals("Yay!", cf.getNow(null));
+
+        CompletableFuture<String> done = CompletionStages.toCompletableFuture(
+            RFuture.<String>failure(new Exception("Boo!")));
+        assertTrue(done.isCompletedExceptionally());
+        assertEquals("Boo!", failure(done).getMessage());
+    }
+
+    @Test public void testFromStage () {
+        CompletableFuture<String> cf = new CompletableFuture<String>();
+        RFuture<String> future = CompletionStages.fromCompletionStage(cf);
+        assertFalse(future.isCompleteNow());
+        cf.completeExceptionally(new CompletionException(new Exception("Boo!")));
+        assertEquals("Boo!", future.result().getFailure().getMessage());
+
+        CompletionStage<Integer> mapped = CompletableFuture.completedFuture(2).thenApply(v -> v*2);
+        assertEquals(4, CompletionStages.fromCompletionStage(mapped).result().get().intValue());
+    }
+
+    @Test public void testRoundTrip () {
+        RPromise<String> promise = RPromise.create();
+        assertSame(promise, CompletionStages.fromCompletionStage(
+            CompletionStages.toCompletionStage(promise)));
+        CompletableFuture<String> cf = new CompletableFuture<String>();
+        assertSame(cf, CompletionStages.toCompletableFuture(
+            CompletionStages.fromCompletionStage(cf)));
+    }
+
+    @Test public void testMultiFailure () {
+        RPromise<String> a = RPromise.create(), b = RPromise.create();
+        List<RPromise<String>> both = Arrays.asList(a, b);
+        CompletableFuture<List<String>> cf = CompletionStages.toCompletableFuture(
+            RFuture.sequence(both));
+        a.fail(new Exception("one"));
+        b.fail(new Exception("two"));
+        Throwable cause = failure(cf);
+        assertTrue(cause instanceof MultiFailureException);
+        int count = 0;
+        for (Throwable t : ((MultiFailureException)cause).failures()) count++;
+        assertEquals(2, count);
+
+        // and it survives the trip back
+        RFuture<List<String>> back = CompletionStages.fromCompletionStage(cf.thenApply(l -> l));
+        assertTrue(back.result().getFailure() instanceof MultiFailureException);
+    }
+
+    @Test public void testCancel () {
+        // cancelling a stage made from a derived future disconnects it, and so cancels that future,
+        // which has no other listeners, but not the promise from which it derives
+        RPromise<String> root = RPromise.create();
+        RFuture<Integer> length = root.map(s -> s.length());
+        CompletableFuture<Integer> cf = CompletionStages.toCompletableFuture(length);
+        assertTrue(cf.cancel(false));
+        assertTrue(length.isCancelled());
+        assertFalse(root.hasConnections());
+        assertFalse(root.isCompleteNow());
+
+        // a derived future with other listeners is merely disconnected
+        RFuture<Integer> shared = root.map(s -> s.length());
+        shared.onSuccess(v -> {});
+        assertTrue(CompletionStages.toCompletableFuture(shared).cancel(false));
+        root.succeed("Yay!");
+        assertEquals(4, shared.result().get().intValue());
+
+        // cancelling a future made from a stage cancels the stage
+        CompletableFuture<String> stage = new CompletableFuture<String>();
+        RFuture<String> future = CompletionStages.fromCompletionStage(stage);
+        assertTrue(future.cancel());
+        assertTrue(stage.isCancelled());
+
+        // and a cancelled stage cancels its future
+        CompletableFuture<String> stage2 = new CompletableFuture<String>();
+        RFuture<String> future2 = CompletionStages.fromCompletionStage(stage2);
+        stage2.cancel(false);
+        assertTrue(future2.isCancelled());
+        assertTrue(future2.result().getFailure() instanceof CancellationException);
+    }
+
+    protected static Throwable failure (CompletableFuture<?> cf) {
+        try {
+            cf.join();
+            fail();
+            return null;
+        } catch (CompletionException ce) {
+            return ce.getCause();
+        }
+    }
+}
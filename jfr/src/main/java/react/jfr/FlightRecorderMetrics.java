@@ -0,0 +1,150 @@
+//
+// React - a library for functional-reactive-like programming
+// Copyright (c) 2015, Three Rings Design, Inc. - All rights reserved.
+// http://github.com/threerings/react/blob/master/LICENSE
+
+package react.jfr;
+
+import java.util.ArrayDeque;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+import react.RFuture;
+import react.Reactor;
+import react.ValueView;
+
+/**
+ * {@link Reactor.Metrics} which record the dispatch of events by reactors as Java Flight Recorder
+ * events. Install them via {@link #install}; thereafter, any flight recording which enables the
+ * {@code react.*} events will include them. For example:
+ *
+ * <pre>{@code
+ * java -XX:StartFlightRecording:settings=default,react.ValueChange#threshold=1ms ...
+ * }</pre>
+ *
+ * <p>Each kind of dispatch has its own event type: value changes, promise completions, and the
+ * emissions of signals and everything else. Each event records the dispatching reactor, the
+ * number of listeners notified, the number of deferred operations drained at the end of the
+ * dispatch, and the number of exceptions thrown. By default only dispatches which take at least
+ * {@value #DEFAULT_THRESHOLD} are recorded; recordings may change the threshold of each type.</p>
+ *
+ * <p>While a recording has an event type disabled, dispatches of that kind cost only a check that
+ * this is so.</p>
+ */
+public class FlightRecorderMetrics implements Reactor.Metrics
+{
+    /** The default threshold below which dispatches are not recorded. */
+    public static final String DEFAULT_THRESHOLD = "10 ms";
+
+    /** The fields common to all dispatch events. */
+    @Category("React")
+    @StackTrace(false)
+    public static abstract class DispatchEvent extends Event {
+        @Label("Reactor")
+        @Description("The class and identity hash code of the dispatching reactor.")
+        public String reactor;
+
+        @Label("Listeners")
+        @Description("The number of listeners notified.")
+        public int listeners;
+
+        @Label("Deferred Operations")
+        @Description("The number of connections, disconnections and events deferred until the " +
+                     "end of the dispatch, and then drained.")
+        public int deferred;
+
+        @Label("Failures")
+        @Description("The number of exceptions thrown by listeners and deferred operations.")
+        public int failures;
+
+        /** The reactor which began this event, used to keep our stack in order. */
+        transient Reactor source;
+    }
+
+    /** Records the emission of an event by a signal or reactive collection. */
+    @Name("react.SignalEmit")
+    @Label("Signal Emit")
+    @Threshold(DEFAULT_THRESHOLD)
+    public static final class SignalEmitEvent extends DispatchEvent {}
+
+    /** Records the change of a reactive value. */
+    @Name("react.ValueChange")
+    @Label("Value Change")
+    @Threshold(DEFAULT_THRESHOLD)
+    public static final class ValueChangeEvent extends DispatchEvent {}
+
+    /** Records the completion of a future. */
+    @Name("react.PromiseComplete")
+    @Label("Promise Complete")
+    @Threshold(DEFAULT_THRESHOLD)
+    public static final class PromiseCompleteEvent extends DispatchEvent {}
+
+    /**
+     * Creates metrics and installs them via {@link Reactor#setMetrics}, replacing any previously
+     * installed metrics.
+     */
+    public static FlightRecorderMetrics install () {
+        FlightRecorderMetrics metrics = new FlightRecorderMetrics();
+        Reactor.setMetrics(metrics);
+        return metrics;
+    }
+
+    // from interface Reactor.Metrics
+    public long dispatching (Reactor reactor) {
+        DispatchEvent event;
+        if (reactor instanceof ValueView<?>) {
+            if (!VALUE_CHANGE.isEnabled()) return 0;
+            event = new ValueChangeEvent();
+        } else if (reactor instanceof RFuture<?>) {
+            if (!PROMISE_COMPLETE.isEnabled()) return 0;
+            event = new PromiseCompleteEvent();
+        } else {
+            if (!SIGNAL_EMIT.isEnabled()) return 0;
+            event = new SignalEmitEvent();
+        }
+        event.source = reactor;
+        _events.get().push(event);
+        event.begin();
+        return 1;
+    }
+
+    // from interface Reactor.Metrics
+    public void dispatched (Reactor reactor, long started, int listeners, int deferred,
+                            int failures) {
+        if (started == 0) return;
+        // dispatches nest, so our event is normally on top of the stack, but a dispatch aborted by
+        // an Error will have left its event there, which we discard
+        ArrayDeque<DispatchEvent> events = _events.get();
+        DispatchEvent event;
+        do event = events.poll();
+        while (event != null && event.source != reactor);
+        if (event == null) return;
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.reactor = reactor.getClass().getName() + "@" +
+                Integer.toHexString(System.identityHashCode(reactor));
+            event.listeners = listeners;
+            event.deferred = deferred;
+            event.failures = failures;
+            event.commit();
+        }
+        event.source = null;
+    }
+
+    /** The events of the dispatches in progress on each thread, innermost first. */
+    protected final ThreadLocal<ArrayDeque<DispatchEvent>> _events =
+        ThreadLocal.withInitial(ArrayDeque::new);
+
+    protected static final EventType SIGNAL_EMIT = EventType.getEventType(SignalEmitEvent.class);
+    protected static final EventType VALUE_CHANGE = EventType.getEventType(ValueChangeEvent.class);
+    protected static final EventType PROMISE_COMPLETE =
+        EventType.getEventType(PromiseCompleteEvent.class);
+}
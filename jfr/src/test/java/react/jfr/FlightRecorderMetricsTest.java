@@ -0,0 +1,84 @@
+//
+// React - a library for functional-reactive-like programming
+// Copyright (c) 2015, Three Rings Design, Inc. - All rights reserved.
+// http://github.com/threerings/react/blob/master/LICENSE
+
+package react.jfr;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import react.RPromise;
+import react.Reactor;
+import react.Signal;
+import react.Slots;
+import react.Value;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link FlightRecorderMetrics} class.
+ */
+public class FlightRecorderMetricsTest
+{
+    @After public void uninstall () {
+        Reactor.setMetrics(null);
+    }
+
+    @Test public void testEvents () throws Exception {
+        FlightRecorderMetrics.install();
+        Signal<Integer> signal = Signal.create();
+        Value<Integer> value = Value.create(0);
+        RPromise<String> promise = RPromise.create();
+        signal.connect(Slots.NOOP);
+        value.connect(Slots.NOOP);
+        // nest a value change in a signal emission
+        signal.connect(value.slot());
+        promise.onSuccess(Slots.NOOP);
+
+        List<RecordedEvent> events;
+        try (Recording recording = new Recording()) {
+            recording.enable("react.SignalEmit").withThreshold(Duration.ZERO);
+            recording.enable("react.ValueChange").withThreshold(Duration.ZERO);
+            // leave promise completions at their default threshold, which they won't reach
+            recording.enable("react.PromiseComplete");
+            recording.start();
+            signal.emit(1);
+            promise.succeed("Yay!");
+            recording.stop();
+            Path file = Files.createTempFile("react", ".jfr");
+            try {
+                recording.dump(file);
+                events = RecordingFile.readAllEvents(file);
+            } finally {
+                Files.delete(file);
+            }
+        }
+
+        assertEquals(2, events.size());
+        RecordedEvent change = find(events, "react.ValueChange");
+        assertEquals(1, change.getInt("listeners"));
+        assertTrue(change.getString("reactor").startsWith("react.Value@"));
+        RecordedEvent emit = find(events, "react.SignalEmit");
+        assertEquals(2, emit.getInt("listeners"));
+        assertEquals(0, emit.getInt("failures"));
+        // the signal's event encloses the value's
+        assertFalse(change.getStartTime().isBefore(emit.getStartTime()));
+        assertFalse(change.getEndTime().isAfter(emit.getEndTime()));
+    }
+
+    protected static RecordedEvent find (List<RecordedEvent> events, String name) {
+        for (RecordedEvent event : events) {
+            if (event.getEventType().getName().equals(name)) return event;
+        }
+        fail("No " + name + " event in " + events);
+        return null;
+    }
+}
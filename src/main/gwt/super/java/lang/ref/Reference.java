@@ -0,0 +1,31 @@
+//
+// React - a library for functional-reactive-like programming
+// Copyright (c) 2015, Three Rings Design, Inc. - All rights reserved.
+// http://github.com/threerings/react/blob/master/LICENSE
+
+package java.lang.ref;
+
+/**
+ * A reference which is never cleared by the garbage collector, as GWT does not support weak
+ * references. See {@link WeakReference}.
+ */
+public abstract class Reference<T>
+{
+    public T get () {
+        return _value;
+    }
+
+    public void clear () {
+        _value = null;
+    }
+
+    public boolean enqueue () {
+        return false;
+    }
+
+    Reference (T value) {
+        _value = value;
+    }
+
+    private T _value;
+}
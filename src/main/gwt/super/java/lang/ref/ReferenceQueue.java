@@ -0,0 +1,17 @@
+//
+// React - a library for functional-reactive-like programming
+// Copyright (c) 2015, Three Rings Design, Inc. - All rights reserved.
+// http://github.com/threerings/react/blob/master/LICENSE
+
+package java.lang.ref;
+
+/**
+ * A reference queue which is always empty, as the references with which it is registered are
+ * never cleared by the garbage collector. See {@link WeakReference}.
+ */
+public class ReferenceQueue<T>
+{
+    public Reference<? extends T> poll () {
+        return null;
+    }
+}
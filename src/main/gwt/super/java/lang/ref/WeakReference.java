@@ -10,15 +10,13 @@ package java.lang.ref;
  * to keep GWT from choking when using react in a GWT app. Weak references are not supported in
  * GWT. Someday JavaScript may get WeakReferences, at which point we can use 'em.
  */
-public class WeakReference<T>
+public class WeakReference<T> extends Reference<T>
 {
     public WeakReference (T value) {
-        _value = value;
+        super(value);
     }
 
-    public T get () {
-        return _value;
+    public WeakReference (T value, ReferenceQueue<? super T> queue) {
+        super(value);
     }
-
-    protected final T _value;
 }
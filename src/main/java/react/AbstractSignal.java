@@ -12,48 +12,21 @@ package react;
  */
 public class AbstractSignal<T> extends Reactor implements SignalView<T>
 {
+    @SuppressWarnings("unchecked")
     @Override public <M> SignalView<M> map (final Function<? super T, M> func) {
-        final AbstractSignal<T> outer = this;
-        return new MappedSignal<M>() {
-            @Override protected Connection connect () {
-                return outer.connect(new Listener<T>() {
-                    @Override public void onEmit (T value) {
-                        notifyEmit(func.apply(value));
-                    }
-                });
-            }
-        };
+        return new FusedSignal<M>(this, null, FusedSignal.mapStage((Function<Object,M>)func));
     }
 
+    @SuppressWarnings("unchecked")
     @Override public SignalView<T> filter (final Function<? super T, Boolean> pred) {
-        final AbstractSignal<T> outer = this;
-        return new MappedSignal<T>() {
-            @Override protected Connection connect () {
-                return outer.connect(new Listener<T>() {
-                    @Override public void onEmit (T value) {
-                        if (pred.apply(value)) {
-                            notifyEmit(value);
-                        }
-                    }
-                });
-            }
-        };
+        return new FusedSignal<T>(
+            this, null, FusedSignal.filterStage((Function<Object,Boolean>)pred));
     }
 
+    @SuppressWarnings("unchecked")
     @Override public <M> SignalView<M> collect (final Function<? super T, M> collector) {
-        final AbstractSignal<T> outer = this;
-        return new MappedSignal<M>() {
-            @Override protected Connection connect () {
-                return outer.connect(new Listener<T>() {
-                    @Override public void onEmit (T value) {
-                        M mapped = collector.apply(value);
-                        if (mapped != null) {
-                            notifyEmit(mapped);
-                        }
-                    }
-                });
-            }
-        };
+        return new FusedSignal<M>(
+            this, null, FusedSignal.collectStage((Function<Object,M>)collector));
     }
 
     @Override public RFuture<T> next () {
@@ -49,6 +49,7 @@ public abstract class AbstractValue<T> extends Reactor implements ValueView<T>
                 conn = mapped.connect(new UnitSlot() {
                     public void onEmit () { reconnect(); }
                 });
+                Cons.derive(conn, this);
                 return mapped.get().connect(new Listener<M>() {
                     @Override public void onChange (M value, M ovalue) {
                         notifyChange(value, ovalue);
@@ -0,0 +1,346 @@
+//
+// React - a library for functional-reactive-like programming
+// Copyright (c) 2015, Three Rings Design, Inc. - All rights reserved.
+// http://github.com/threerings/react/blob/master/LICENSE
+
+package react;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A reactive queue with a fixed capacity, backed by a ring buffer (so offering and polling do not
+ * allocate). What happens when an element is offered to a full queue is determined by the
+ * queue's {@link Overflow} policy. In all cases, {@link #overflowed} is emitted, to allow
+ * producers to back off.
+ *
+ * <p>Mutations of a bounded queue are guarded by a private lock, which allows producers using
+ * the {@link Overflow#BLOCK} policy to wait on other threads that poll the queue. Listeners are
+ * notified after the lock is released, so a slow listener holds up only its own thread, but the
+ * notifications for mutations made concurrently by several threads may arrive in a different
+ * order than the mutations were made. Reads take the lock too, and {@link #iterator} iterates
+ * over a snapshot of the queue, so a bounded queue may be read and iterated while other threads
+ * mutate it. {@link #connectNotify} likewise notifies the listener of a snapshot, but elements
+ * offered or polled while it connects may be missed, or notified twice. Null elements are not
+ * permitted.</p>
+ */
+public class BoundedRQueue<E> extends RQueue<E>
+{
+    /** Determines how a bounded queue handles an element offered when it is full. */
+    public enum Overflow {
+        /** The offered element is rejected: {@link #offer} returns false, and {@link #add} throws
+          * {@link IllegalStateException}. {@link #overflowed} is emitted with the rejected
+          * element. */
+        REJECT,
+
+        /** The oldest element in the queue is polled to make room for the offered element.
+          * {@link #overflowed} is emitted with the dropped element. */
+        DROP_OLDEST,
+
+        /** The offering thread waits until another thread polls the queue. {@link #overflowed} is
+          * emitted with the offered element, before waiting. If the offering thread is
+          * interrupted while waiting, the element is rejected and the thread's interrupt status
+          * is restored. */
+        BLOCK
+    }
+
+    /**
+     * Creates a bounded reactive queue with the specified capacity, which rejects elements
+     * offered when it is full.
+     */
+    public static <E> BoundedRQueue<E> create (int capacity) {
+        return create(capacity, Overflow.REJECT);
+    }
+
+    /**
+     * Creates a bounded reactive queue with the specified capacity and overflow policy.
+     */
+    public static <E> BoundedRQueue<E> create (int capacity, Overflow overflow) {
+        return new BoundedRQueue<E>(capacity, overflow);
+    }
+
+    /**
+     * Creates a bounded reactive queue with the specified capacity and overflow policy.
+     */
+    public BoundedRQueue (int capacity, Overflow overflow) {
+        super(new RingBuffer<E>(capacity));
+        if (overflow == null) throw new NullPointerException("Must supply non-null 'overflow'.");
+        _ring = (RingBuffer<E>)_impl;
+        _overflow = overflow;
+    }
+
+    /**
+     * Returns the maximum number of elements this queue may contain.
+     */
+    public int capacity () {
+        return _ring.capacity();
+    }
+
+    /**
+     * Returns the number of elements that may be added to this queue before it is full.
+     */
+    public int remainingCapacity () {
+        _lock.lock();
+        try {
+            return _ring.capacity() - _ring.size();
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the policy that governs offers to this queue when it is full.
+     */
+    public Overflow overflow () {
+        return _overflow;
+    }
+
+    /**
+     * Returns a signal emitted when an element is offered to this queue while it is full. The
+     * emitted element is the rejected, dropped or blocked element, per our {@link Overflow}
+     * policy.
+     */
+    public SignalView<E> overflowed () {
+        return _overflowed;
+    }
+
+    /**
+     * Returns a reactive value which is true when this queue is full, false otherwise.
+     */
+    public synchronized ValueView<Boolean> fullView () {
+        if (_fullView == null) _fullView = sizeView().map(Functions.greaterThanEqual(capacity()));
+        return _fullView;
+    }
+
+    /**
+     * Returns a reactive value which models {@link #remainingCapacity}.
+     */
+    public synchronized ValueView<Integer> remainingCapacityView () {
+        if (_remainingView == null) {
+            _remainingView = sizeView().map(new Function<Integer,Integer>() {
+                public Integer apply (Integer size) {
+                    return capacity() - size;
+                }
+            });
+        }
+        return _remainingView;
+    }
+
+    @Override public boolean offer (E elem) {
+        checkMutate();
+        if (elem == null) throw new NullPointerException("Must supply non-null 'elem'.");
+        E dropped = null;
+        boolean rejected = false;
+        _lock.lock();
+        try {
+            if (_ring.isFull()) {
+                switch (_overflow) {
+                case REJECT:
+                    rejected = true;
+                    break;
+
+                case DROP_OLDEST:
+                    dropped = _ring.poll();
+                    break;
+
+                case BLOCK:
+                    _lock.unlock();
+                    try {
+                        _overflowed.emit(elem);
+                    } finally {
+                        _lock.lock();
+                    }
+                    try {
+                        while (_ring.isFull()) _notFull.await();
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        return false;
+                    }
+                    break;
+                }
+            }
+            if (!rejected) _ring.offer(elem);
+        } finally {
+            _lock.unlock();
+        }
+
+        if (rejected) {
+            _overflowed.emit(elem);
+            return false;
+        }
+        if (dropped != null) {
+            emitPoll(dropped);
+            _overflowed.emit(dropped);
+        }
+        emitOffer(elem);
+        return true;
+    }
+
+    @Override public boolean add (E elem) {
+        if (!offer(elem)) throw new IllegalStateException("Queue full");
+        return true;
+    }
+
+    @Override public E poll () {
+        checkMutate();
+        E elem;
+        _lock.lock();
+        try {
+            elem = _ring.poll();
+            if (elem != null && _overflow == Overflow.BLOCK) _notFull.signal();
+        } finally {
+            _lock.unlock();
+        }
+        if (elem != null) emitPoll(elem);
+        return elem;
+    }
+
+    @Override public E remove () {
+        checkMutate();
+        E elem;
+        _lock.lock();
+        try {
+            elem = _ring.remove(); // throws on empty
+            if (_overflow == Overflow.BLOCK) _notFull.signal();
+        } finally {
+            _lock.unlock();
+        }
+        emitPoll(elem);
+        return elem;
+    }
+
+    @Override public void clear () {
+        // poll rather than remove, as another thread may empty the queue before we do
+        while (poll() != null) {}
+    }
+
+    @Override public int size () {
+        _lock.lock();
+        try {
+            return _ring.size();
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    @Override public boolean isEmpty () {
+        return size() == 0;
+    }
+
+    @Override public E peek () {
+        _lock.lock();
+        try {
+            return _ring.peek();
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    @Override public E element () {
+        _lock.lock();
+        try {
+            return _ring.element();
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    @Override public Connection connectNotify (RQueue.Listener<? super E> listener) {
+        // we can't connect while holding our lock, lest we deadlock with sizeView, which takes our
+        // monitor and then our lock
+        for (E elem : snapshot()) listener.onOffer(elem);
+        return connect(listener);
+    }
+
+    @Override public Iterator<E> iterator () {
+        return Arrays.asList(snapshot()).iterator();
+    }
+
+    @Override public boolean contains (Object object) {
+        _lock.lock();
+        try {
+            return _ring.contains(object);
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    @Override public boolean containsAll (Collection<?> collection) {
+        _lock.lock();
+        try {
+            return _ring.containsAll(collection);
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    @Override public Object[] toArray () {
+        _lock.lock();
+        try {
+            return _ring.toArray();
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    @Override public <T> T[] toArray (T[] array) {
+        _lock.lock();
+        try {
+            return _ring.toArray(array);
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    @Override public int hashCode () {
+        _lock.lock();
+        try {
+            return _ring.hashCode();
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    @Override public boolean equals (Object other) {
+        if (other == this) return true;
+        _lock.lock();
+        try {
+            return _ring.equals(other);
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    @Override public String toString () {
+        _lock.lock();
+        try {
+            return "BoundedRQueue(" + _ring + ")";
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /** Returns a copy of our elements, from head to tail. */
+    protected E[] snapshot () {
+        _lock.lock();
+        try {
+            @SuppressWarnings("unchecked") E[] elems = (E[])_ring.toArray();
+            return elems;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    protected final RingBuffer<E> _ring;
+    protected final Overflow _overflow;
+    /** Guards our ring buffer, separately from our listeners, which are guarded by our monitor. */
+    protected final ReentrantLock _lock = new ReentrantLock();
+    /** Signalled when an element is polled, for producers waiting per {@link Overflow#BLOCK}. */
+    protected final Condition _notFull = _lock.newCondition();
+    protected final Signal<E> _overflowed = Signal.create();
+    protected ValueView<Boolean> _fullView;
+    protected ValueView<Integer> _remainingView;
+}
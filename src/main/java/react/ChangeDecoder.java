@@ -0,0 +1,157 @@
+//
+// React - a library for functional-reactive-like programming in Java
+// Copyright (c) 2011, Three Rings Design, Inc. - All rights reserved.
+// http://github.com/threerings/react/blob/master/LICENSE
+
+package react;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Applies the changes encoded by a {@link ChangeEncoder} to mirror collections and values. Each
+ * mirror must be attached on the same channel id as its source was attached to the encoder, and
+ * will emit the same events as its source (less those coalesced by the encoder). Mirrors should
+ * be empty when attached, and every batch written by the encoder must be applied, in order.
+ */
+public class ChangeDecoder
+{
+    /**
+     * Attaches {@code map} to this decoder on channel {@code id}.
+     * @return this decoder, for call chaining.
+     */
+    public <K,V> ChangeDecoder attach (int id, final RMap<K,V> map, final Codec<K> keys,
+                                       final Codec<V> values) {
+        return attach(id, new Channel() {
+            public void apply (int op, DataInput in) throws IOException {
+                switch (op) {
+                case ChangeEncoder.PUT: map.put(readKey(in, false), values.read(in)); break;
+                case ChangeEncoder.REMOVE: map.remove(readKey(in, true)); break;
+                default: throw badOp(op);
+                }
+            }
+            protected K readKey (DataInput in, boolean removed) throws IOException {
+                int tag = Codecs.readVarint(in);
+                if (tag >= ChangeEncoder.KEY_REF) {
+                    int index = tag - ChangeEncoder.KEY_REF;
+                    Object key = (index < _dict.size()) ? _dict.get(index) : FREED;
+                    if (key == FREED) throw new IOException("Unknown key ref " + index);
+                    // a removed key's index is freed, as the encoder freed it
+                    if (removed) {
+                        _dict.set(index, FREED);
+                        _free.add(index);
+                    }
+                    @SuppressWarnings("unchecked") K k = (K)key;
+                    return k;
+                }
+                K key = keys.read(in);
+                if (tag == ChangeEncoder.KEY_DEFINE) {
+                    if (_free.isEmpty()) _dict.add(key);
+                    else _dict.set(_free.remove(_free.size()-1), key);
+                }
+                return key;
+            }
+            protected final List<Object> _dict = new ArrayList<Object>();
+            protected final List<Integer> _free = new ArrayList<Integer>();
+        });
+    }
+
+    /**
+     * Attaches {@code list} to this decoder on channel {@code id}.
+     * @return this decoder, for call chaining.
+     */
+    public <E> ChangeDecoder attach (int id, final RList<E> list, final Codec<E> elems) {
+        return attach(id, new Channel() {
+            public void begin () {
+                _last = 0;
+            }
+            public void apply (int op, DataInput in) throws IOException {
+                int index = (_last += Codecs.unzigzag(Codecs.readVarint(in)));
+                switch (op) {
+                case ChangeEncoder.ADD: list.add(index, elems.read(in)); break;
+                case ChangeEncoder.PUT: list.set(index, elems.read(in)); break;
+                case ChangeEncoder.REMOVE: list.remove(index); break;
+                default: throw badOp(op);
+                }
+            }
+            protected int _last;
+        });
+    }
+
+    /**
+     * Attaches {@code set} to this decoder on channel {@code id}.
+     * @return this decoder, for call chaining.
+     */
+    public <E> ChangeDecoder attach (int id, final RSet<E> set, final Codec<E> elems) {
+        return attach(id, new Channel() {
+            public void apply (int op, DataInput in) throws IOException {
+                switch (op) {
+                case ChangeEncoder.ADD: set.add(elems.read(in)); break;
+                case ChangeEncoder.REMOVE: set.remove(elems.read(in)); break;
+                default: throw badOp(op);
+                }
+            }
+        });
+    }
+
+    /**
+     * Attaches {@code value} to this decoder on channel {@code id}.
+     * @return this decoder, for call chaining.
+     */
+    public <T> ChangeDecoder attach (int id, final Value<T> value, final Codec<T> codec) {
+        return attach(id, new Channel() {
+            public void apply (int op, DataInput in) throws IOException {
+                if (op != ChangeEncoder.PUT) throw badOp(op);
+                value.update(codec.read(in));
+            }
+        });
+    }
+
+    /**
+     * Reads a single batch of changes from {@code in} and applies them to the attached mirrors.
+     * @return the number of changes applied.
+     * @throws IOException if the batch cannot be read, or it contains changes for a channel which
+     * has not been attached.
+     */
+    public int apply (DataInput in) throws IOException {
+        int total = 0;
+        for (int id; (id = Codecs.readVarint(in)) != 0; ) {
+            Channel channel = _channels.get(id - 1);
+            if (channel == null) throw new IOException("No channel attached with id " + (id-1));
+            channel.begin();
+            for (int ii = 0, count = Codecs.readVarint(in); ii < count; ii++) {
+                channel.apply(in.readByte(), in);
+                total++;
+            }
+        }
+        return total;
+    }
+
+    /** Applies the changes for a single collection or value. */
+    protected static abstract class Channel {
+        /** Called before the changes from a batch are applied. */
+        public void begin () {}
+        /** Reads the arguments for a change with opcode {@code op} and applies it. */
+        public abstract void apply (int op, DataInput in) throws IOException;
+    }
+
+    protected ChangeDecoder attach (int id, Channel channel) {
+        if (_channels.containsKey(id)) throw new IllegalArgumentException(
+            "Channel " + id + " already attached.");
+        _channels.put(id, channel);
+        return this;
+    }
+
+    protected static IOException badOp (int op) {
+        return new IOException("Unknown change opcode " + op);
+    }
+
+    /** Marks a freed key dictionary slot; null can't, as it is a legitimate map key. */
+    protected static final Object FREED = new Object();
+
+    protected final Map<Integer,Channel> _channels = new HashMap<Integer,Channel>();
+}
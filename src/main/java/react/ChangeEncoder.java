@@ -0,0 +1,351 @@
+//
+// React - a library for functional-reactive-like programming in Java
+// Copyright (c) 2011, Three Rings Design, Inc. - All rights reserved.
+// http://github.com/threerings/react/blob/master/LICENSE
+
+package react;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes the changes made to a set of reactive collections and values into a compact binary
+ * stream, which a {@link ChangeDecoder} applies to mirrors of those collections and values. For
+ * example:
+ *
+ * <pre>{@code
+ * ChangeEncoder enc = new ChangeEncoder();
+ * enc.attach(1, players, Codecs.STRING, PlayerCodec.INSTANCE);
+ * enc.attach(2, score, Codecs.INT);
+ * // ... once per tick
+ * if (enc.hasChanges()) enc.flush(clientOut);
+ * }</pre>
+ *
+ * <p>Changes are accumulated between calls to {@link #flush}, and those which are superseded by
+ * a later change in the same batch are dropped: only the final put or removal of a given map key,
+ * the final addition or removal of a given set element and the final value of a value are
+ * encoded. Consecutive sets of the same list index are likewise coalesced. Integers are encoded
+ * as varints, list indices are delta encoded relative to the previous index in the batch, and map
+ * keys are encoded in full only the first time they are put, thereafter being referenced by
+ * their index in a per-map dictionary until they are removed, whereupon their index is freed for
+ * reuse by later keys. Because of this dictionary, every batch must be applied, in order, by a
+ * single decoder.</p>
+ *
+ * <p>When a collection or value is attached, its current contents are encoded as changes, so
+ * that mirrors may start out empty. An encoder is not thread safe.</p>
+ */
+public class ChangeEncoder implements Closeable
+{
+    /**
+     * Attaches {@code map} to this encoder on channel {@code id}.
+     * @return this encoder, for call chaining.
+     */
+    public <K,V> ChangeEncoder attach (int id, RMap<K,V> map, Codec<K> keys, Codec<V> values) {
+        MapChannel<K,V> channel = new MapChannel<K,V>(id, keys, values);
+        add(channel);
+        channel.conn = map.connectNotify(channel.listener);
+        return this;
+    }
+
+    /**
+     * Attaches {@code list} to this encoder on channel {@code id}.
+     * @return this encoder, for call chaining.
+     */
+    public <E> ChangeEncoder attach (int id, RList<E> list, Codec<E> elems) {
+        ListChannel<E> channel = new ListChannel<E>(id, elems);
+        add(channel);
+        channel.conn = list.connectNotify(channel.listener);
+        return this;
+    }
+
+    /**
+     * Attaches {@code set} to this encoder on channel {@code id}.
+     * @return this encoder, for call chaining.
+     */
+    public <E> ChangeEncoder attach (int id, RSet<E> set, Codec<E> elems) {
+        SetChannel<E> channel = new SetChannel<E>(id, elems);
+        add(channel);
+        channel.conn = set.connectNotify(channel.listener);
+        return this;
+    }
+
+    /**
+     * Attaches {@code value} to this encoder on channel {@code id}.
+     * @return this encoder, for call chaining.
+     */
+    public <T> ChangeEncoder attach (int id, ValueView<T> value, Codec<T> codec) {
+        ValueChannel<T> channel = new ValueChannel<T>(id, codec);
+        add(channel);
+        channel.conn = value.connectNotify(channel);
+        return this;
+    }
+
+    /**
+     * Returns true if changes have been made since the last call to {@link #flush}.
+     */
+    public boolean hasChanges () {
+        return !_dirty.isEmpty();
+    }
+
+    /**
+     * Writes a batch containing all changes made since the last call to this method to {@code
+     * out}. A batch is written even if there are no changes.
+     * @return the number of changes written.
+     */
+    public int flush (DataOutput out) throws IOException {
+        int count = 0;
+        for (Channel channel : _dirty) {
+            Codecs.writeVarint(out, channel.id + 1);
+            count += channel.write(out);
+            channel.dirty = false;
+        }
+        _dirty.clear();
+        Codecs.writeVarint(out, 0);
+        return count;
+    }
+
+    /**
+     * Disconnects this encoder from all of its attached collections and values.
+     */
+    @Override public void close () {
+        for (Channel channel : _channels.values()) channel.conn.close();
+        _channels.clear();
+        _dirty.clear();
+    }
+
+    /** Accumulates the changes to a single collection or value. */
+    protected abstract class Channel {
+        public final int id;
+        public Connection conn;
+        public boolean dirty;
+
+        public Channel (int id) {
+            this.id = id;
+        }
+
+        /** Writes the count of our pending changes, then the changes themselves, to {@code out},
+          * and clears them. Returns the number of changes written. */
+        public abstract int write (DataOutput out) throws IOException;
+
+        protected void changed () {
+            if (!dirty) {
+                dirty = true;
+                _dirty.add(this);
+            }
+        }
+    }
+
+    protected class MapChannel<K,V> extends Channel {
+        public final RMap.Listener<K,V> listener = new RMap.Listener<K,V>() {
+            @Override public void onPut (K key, V value) {
+                _pending.put(key, value);
+                changed();
+            }
+            @Override public void onRemove (K key) {
+                _pending.put(key, REMOVED);
+                changed();
+            }
+        };
+
+        public MapChannel (int id, Codec<K> keys, Codec<V> values) {
+            super(id);
+            _keys = keys;
+            _values = values;
+        }
+
+        @Override public int write (DataOutput out) throws IOException {
+            int count = _pending.size();
+            Codecs.writeVarint(out, count);
+            for (Map.Entry<K,Object> entry : _pending.entrySet()) {
+                Object value = entry.getValue();
+                if (value == REMOVED) {
+                    out.writeByte(REMOVE);
+                    writeRemovedKey(out, entry.getKey());
+                } else {
+                    out.writeByte(PUT);
+                    writeKey(out, entry.getKey());
+                    @SuppressWarnings("unchecked") V v = (V)value;
+                    _values.write(out, v);
+                }
+            }
+            _pending.clear();
+            return count;
+        }
+
+        protected void writeKey (DataOutput out, K key) throws IOException {
+            Integer index = _dict.get(key);
+            if (index != null) Codecs.writeVarint(out, index + KEY_REF);
+            else {
+                if (_dict.size() < MAX_KEYS) {
+                    // the decoder allocates indices in the same way, so it needn't be told this one
+                    _dict.put(key, _free.isEmpty() ? _dict.size() : _free.remove(_free.size()-1));
+                    Codecs.writeVarint(out, KEY_DEFINE);
+                } else Codecs.writeVarint(out, KEY_LITERAL);
+                _keys.write(out, key);
+            }
+        }
+
+        /** Writes a removed key, and frees its dictionary index, if it has one. */
+        protected void writeRemovedKey (DataOutput out, K key) throws IOException {
+            Integer index = _dict.remove(key);
+            if (index != null) {
+                Codecs.writeVarint(out, index + KEY_REF);
+                _free.add(index);
+            } else {
+                Codecs.writeVarint(out, KEY_LITERAL);
+                _keys.write(out, key);
+            }
+        }
+
+        protected final Codec<K> _keys;
+        protected final Codec<V> _values;
+        protected final Map<K,Object> _pending = new LinkedHashMap<K,Object>();
+        protected final Map<K,Integer> _dict = new HashMap<K,Integer>();
+        // the indices freed by removed keys, reused most recently freed first
+        protected final List<Integer> _free = new ArrayList<Integer>();
+    }
+
+    protected class ListChannel<E> extends Channel {
+        public final RList.Listener<E> listener = new RList.Listener<E>() {
+            @Override public void onAdd (int index, E elem) {
+                _sets.clear();
+                _pending.add(new Change<E>(ADD, index, elem));
+                changed();
+            }
+            @Override public void onSet (int index, E elem) {
+                Change<E> set = _sets.get(index);
+                if (set != null) set.elem = elem;
+                else {
+                    set = new Change<E>(PUT, index, elem);
+                    _sets.put(index, set);
+                    _pending.add(set);
+                }
+                changed();
+            }
+            @Override public void onRemove (int index, E elem) {
+                _sets.clear();
+                _pending.add(new Change<E>(REMOVE, index, null));
+                changed();
+            }
+        };
+
+        public ListChannel (int id, Codec<E> elems) {
+            super(id);
+            _elems = elems;
+        }
+
+        @Override public int write (DataOutput out) throws IOException {
+            int count = _pending.size(), last = 0;
+            Codecs.writeVarint(out, count);
+            for (Change<E> change : _pending) {
+                out.writeByte(change.op);
+                Codecs.writeVarint(out, Codecs.zigzag(change.index - last));
+                last = change.index;
+                if (change.op != REMOVE) _elems.write(out, change.elem);
+            }
+            _pending.clear();
+            _sets.clear();
+            return count;
+        }
+
+        protected final Codec<E> _elems;
+        protected final List<Change<E>> _pending = new ArrayList<Change<E>>();
+        // the sets made since the last structural change, by index
+        protected final Map<Integer,Change<E>> _sets = new HashMap<Integer,Change<E>>();
+    }
+
+    protected class SetChannel<E> extends Channel {
+        public final RSet.Listener<E> listener = new RSet.Listener<E>() {
+            @Override public void onAdd (E elem) {
+                _pending.put(elem, Boolean.TRUE);
+                changed();
+            }
+            @Override public void onRemove (E elem) {
+                _pending.put(elem, Boolean.FALSE);
+                changed();
+            }
+        };
+
+        public SetChannel (int id, Codec<E> elems) {
+            super(id);
+            _elems = elems;
+        }
+
+        @Override public int write (DataOutput out) throws IOException {
+            int count = _pending.size();
+            Codecs.writeVarint(out, count);
+            for (Map.Entry<E,Boolean> entry : _pending.entrySet()) {
+                out.writeByte(entry.getValue() ? ADD : REMOVE);
+                _elems.write(out, entry.getKey());
+            }
+            _pending.clear();
+            return count;
+        }
+
+        protected final Codec<E> _elems;
+        protected final Map<E,Boolean> _pending = new LinkedHashMap<E,Boolean>();
+    }
+
+    protected class ValueChannel<T> extends Channel implements ValueView.Listener<T> {
+        public ValueChannel (int id, Codec<T> codec) {
+            super(id);
+            _codec = codec;
+        }
+
+        public void onChange (T value, T ovalue) {
+            _pending = value;
+            changed();
+        }
+
+        @Override public int write (DataOutput out) throws IOException {
+            Codecs.writeVarint(out, 1);
+            out.writeByte(PUT);
+            _codec.write(out, _pending);
+            _pending = null;
+            return 1;
+        }
+
+        protected final Codec<T> _codec;
+        protected T _pending;
+    }
+
+    /** A pending list change. */
+    protected static class Change<E> {
+        public final int op, index;
+        public E elem;
+
+        public Change (int op, int index, E elem) {
+            this.op = op;
+            this.index = index;
+            this.elem = elem;
+        }
+    }
+
+    protected void add (Channel channel) {
+        if (_channels.containsKey(channel.id)) throw new IllegalArgumentException(
+            "Channel " + channel.id + " already attached.");
+        if (channel.id < 0) throw new IllegalArgumentException("Channel ids must be >= 0.");
+        _channels.put(channel.id, channel);
+    }
+
+    protected final Map<Integer,Channel> _channels = new HashMap<Integer,Channel>();
+    protected final List<Channel> _dirty = new ArrayList<Channel>();
+
+    /** The maximum number of keys in a map's key dictionary. Keys put while the dictionary is full
+      * are encoded in full until they are removed. */
+    protected static final int MAX_KEYS = 1 << 16;
+
+    // change opcodes
+    static final int PUT = 1, REMOVE = 2, ADD = 3;
+
+    // key reference tags: a key is encoded in full without (LITERAL) or with (DEFINE) being added
+    // to the dictionary, or by its dictionary index plus REF; a removed key's index is freed
+    static final int KEY_LITERAL = 0, KEY_DEFINE = 1, KEY_REF = 2;
+
+    protected static final Object REMOVED = new Object();
+}
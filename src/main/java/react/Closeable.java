@@ -5,7 +5,12 @@
 
 package react;
 
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * An extension of {@link AutoCloseable} chiefly to eliminate the checked exception thrown by
@@ -14,38 +19,108 @@ import java.util.HashSet;
  */
 public interface Closeable extends AutoCloseable {
 
-    /** Maintains a set of closeables to allow mass operations on them. */
+    /** Maintains a set of closeables to allow mass operations on them. Connections to reactors
+      * are closed in batches, one batch per reactor, which is much cheaper than closing them one
+      * at a time when a set holds many connections to the same reactors. As with a {@link
+      * java.util.HashSet}, closeables are compared via {@link Object#equals}, and adding a
+      * closeable which is already in the set has no effect. */
     class Set implements Closeable {
 
         /** Closes all connections in this set and empties it. */
         @Override public void close () {
-            if (_set != null) {
-                MultiFailureException error = null;
-                for (AutoCloseable c : _set) try {
-                    c.close();
-                } catch (Exception e) {
-                    if (error == null) error = new MultiFailureException();
-                    error.addSuppressed(e);
-                }
-                _set.clear();
-                if (error != null) throw error;
+            if (_size == 0) return;
+            AutoCloseable[] items = _items;
+            int size = _size;
+            _items = null;
+            _index = null;
+            _size = 0;
+
+            MultiFailureException error = null;
+            Map<Reactor,List<Cons>> batches = new IdentityHashMap<>();
+            for (int ii = 0; ii < size; ii++) {
+                error = closeOrBatch(items[ii], batches, error);
             }
+            for (Map.Entry<Reactor,List<Cons>> batch : batches.entrySet()) try {
+                Cons.closeAll(batch.getKey(), batch.getValue());
+            } catch (Exception e) {
+                if (error == null) error = new MultiFailureException();
+                error.addSuppressed(e);
+            }
+            if (error != null) throw error;
         }
 
-        /** Adds the supplied connection to this set.
+        /** Adds the supplied connection to this set, unless it is already in the set.
           * @return the supplied connection.*/
         public <T extends AutoCloseable> T add (T c) {
-            if (_set == null) _set = new HashSet<>();
-            _set.add(c);
+            if (indexOf(c) >= 0) return c;
+            if (_items == null) _items = new AutoCloseable[8];
+            else if (_size == _items.length) _items = Arrays.copyOf(_items, _size * 2);
+            if (_index != null) _index.put(c, _size);
+            else if (_size == INDEX_SIZE) {
+                // we've outgrown linear search, so index our items
+                _index = new HashMap<>();
+                for (int ii = 0; ii < _size; ii++) _index.put(_items[ii], ii);
+                _index.put(c, _size);
+            }
+            _items[_size++] = c;
             return c;
         }
 
         /** Removes a closeable from this set while leaving its status unchanged. */
         public void remove (AutoCloseable c) {
-            if (_set != null) _set.remove(c);
+            int idx = indexOf(c);
+            if (idx < 0) return;
+            // move our last item into the vacated slot
+            AutoCloseable last = _items[--_size];
+            _items[idx] = last;
+            _items[_size] = null;
+            if (_index != null) {
+                _index.remove(c);
+                if (idx < _size) _index.put(last, idx);
+            }
         }
 
-        protected HashSet<AutoCloseable> _set; // lazily created
+        /** Returns the index of {@code c} in {@link #_items}, or -1 if it is not in this set. */
+        protected int indexOf (Object c) {
+            if (_index != null) {
+                Integer idx = _index.get(c);
+                return (idx == null) ? -1 : idx;
+            }
+            for (int ii = 0; ii < _size; ii++) {
+                if (c == null ? _items[ii] == null : c.equals(_items[ii])) return ii;
+            }
+            return -1;
+        }
+
+        protected static MultiFailureException closeOrBatch (
+            AutoCloseable c, Map<Reactor,List<Cons>> batches, MultiFailureException error) {
+            if (c instanceof Cons) {
+                Cons cons = (Cons)c;
+                Reactor owner = cons.owner();
+                if (owner != null) {
+                    List<Cons> batch = batches.get(owner);
+                    if (batch == null) batches.put(owner, batch = new ArrayList<>());
+                    batch.add(cons);
+                }
+            } else if (c instanceof Connection.Joined) {
+                for (Connection jc : ((Connection.Joined)c).conns) {
+                    error = closeOrBatch(jc, batches, error);
+                }
+            } else if (c != null) try {
+                c.close();
+            } catch (Exception e) {
+                if (error == null) error = new MultiFailureException();
+                error.addSuppressed(e);
+            }
+            return error;
+        }
+
+        protected AutoCloseable[] _items; // lazily created
+        protected Map<AutoCloseable,Integer> _index; // created once we reach INDEX_SIZE items
+        protected int _size;
+
+        /** The size beyond which items are found via {@link #_index} rather than a search. */
+        protected static final int INDEX_SIZE = 16;
     }
 
     /** Provides some {@link Closeable}-related utilities. */
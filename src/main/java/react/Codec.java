@@ -0,0 +1,24 @@
+//
+// React - a library for functional-reactive-like programming in Java
+// Copyright (c) 2011, Three Rings Design, Inc. - All rights reserved.
+// http://github.com/threerings/react/blob/master/LICENSE
+
+package react;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Encodes values of a particular type to, and decodes them from, a binary stream. Used to
+ * persist and replicate the contents of reactive collections. See {@link Codecs} for codecs for
+ * common types.
+ */
+public interface Codec<T>
+{
+    /** Writes {@code value} to {@code out}. */
+    void write (DataOutput out, T value) throws IOException;
+
+    /** Reads a value, previously written by {@link #write}, from {@code in}. */
+    T read (DataInput in) throws IOException;
+}
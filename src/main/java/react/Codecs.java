@@ -0,0 +1,165 @@
+//
+// React - a library for functional-reactive-like programming in Java
+// Copyright (c) 2011, Three Rings Design, Inc. - All rights reserved.
+// http://github.com/threerings/react/blob/master/LICENSE
+
+package react;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Provides {@link Codec}s for common types, and utility methods for variable length integers.
+ */
+public class Codecs
+{
+    /** Encodes booleans as a single byte. */
+    public static final Codec<Boolean> BOOLEAN = new Codec<Boolean>() {
+        public void write (DataOutput out, Boolean value) throws IOException {
+            out.writeBoolean(value);
+        }
+        public Boolean read (DataInput in) throws IOException {
+            return in.readBoolean();
+        }
+    };
+
+    /** Encodes ints as zigzag varints, so that small magnitude values use few bytes. */
+    public static final Codec<Integer> INT = new Codec<Integer>() {
+        public void write (DataOutput out, Integer value) throws IOException {
+            writeVarint(out, zigzag(value));
+        }
+        public Integer read (DataInput in) throws IOException {
+            return unzigzag(readVarint(in));
+        }
+    };
+
+    /** Encodes longs as zigzag varlongs, so that small magnitude values use few bytes. */
+    public static final Codec<Long> LONG = new Codec<Long>() {
+        public void write (DataOutput out, Long value) throws IOException {
+            writeVarlong(out, zigzag(value));
+        }
+        public Long read (DataInput in) throws IOException {
+            return unzigzag(readVarlong(in));
+        }
+    };
+
+    /** Encodes floats in four bytes. */
+    public static final Codec<Float> FLOAT = new Codec<Float>() {
+        public void write (DataOutput out, Float value) throws IOException {
+            out.writeFloat(value);
+        }
+        public Float read (DataInput in) throws IOException {
+            return in.readFloat();
+        }
+    };
+
+    /** Encodes doubles in eight bytes. */
+    public static final Codec<Double> DOUBLE = new Codec<Double>() {
+        public void write (DataOutput out, Double value) throws IOException {
+            out.writeDouble(value);
+        }
+        public Double read (DataInput in) throws IOException {
+            return in.readDouble();
+        }
+    };
+
+    /** Encodes strings as a varint byte length followed by their UTF-8 bytes. */
+    public static final Codec<String> STRING = new Codec<String>() {
+        public void write (DataOutput out, String value) throws IOException {
+            byte[] bytes = value.getBytes(UTF8);
+            writeVarint(out, bytes.length);
+            out.write(bytes);
+        }
+        public String read (DataInput in) throws IOException {
+            byte[] bytes = new byte[readVarint(in)];
+            in.readFully(bytes);
+            return new String(bytes, UTF8);
+        }
+    };
+
+    /**
+     * Returns a codec which supports null values by preceding each value encoded by {@code codec}
+     * with a presence byte.
+     */
+    public static <T> Codec<T> nullable (final Codec<T> codec) {
+        return new Codec<T>() {
+            public void write (DataOutput out, T value) throws IOException {
+                out.writeBoolean(value != null);
+                if (value != null) codec.write(out, value);
+            }
+            public T read (DataInput in) throws IOException {
+                return in.readBoolean() ? codec.read(in) : null;
+            }
+        };
+    }
+
+    /**
+     * Writes {@code value} to {@code out} as an unsigned varint: seven bits per byte, least
+     * significant group first, with the high bit set on all but the last byte. Values less than
+     * 128 thus require a single byte. Negative values require five bytes; see {@link #zigzag}.
+     */
+    public static void writeVarint (DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /** Reads a varint written by {@link #writeVarint}. */
+    public static int readVarint (DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed varint.");
+    }
+
+    /** Writes {@code value} to {@code out} as an unsigned varlong. See {@link #writeVarint}. */
+    public static void writeVarlong (DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int)(value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int)value);
+    }
+
+    /** Reads a varlong written by {@link #writeVarlong}. */
+    public static long readVarlong (DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readByte();
+            value |= (long)(b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed varlong.");
+    }
+
+    /** Maps signed ints to unsigned ints such that small magnitude values remain small. */
+    public static int zigzag (int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    /** Reverses {@link #zigzag(int)}. */
+    public static int unzigzag (int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /** Maps signed longs to unsigned longs such that small magnitude values remain small. */
+    public static long zigzag (long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /** Reverses {@link #zigzag(long)}. */
+    public static long unzigzag (long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    protected static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private Codecs () {} // no constructski
+}
@@ -0,0 +1,189 @@
+//
+// React - a library for functional-reactive-like programming
+// Copyright (c) 2015, Three Rings Design, Inc. - All rights reserved.
+// http://github.com/threerings/react/blob/master/LICENSE
+
+package react;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Emits the results of a collection of futures in the order in which they complete, rather than
+ * waiting for all of them as {@link RFuture#sequence} does. For example:
+ *
+ * <pre>{@code
+ * Completions<Hit> hits = Completions.of(shardQueries);
+ * hits.connect(new Slot<Try<Hit>>() {
+ *     public void onEmit (Try<Hit> hit) { if (hit.isSuccess()) client.send(hit.get()); }
+ * });
+ * hits.progress().connect(progressBar.slot());
+ * }</pre>
+ *
+ * <p>Results of futures which complete before anything is connected to this signal (including
+ * those which were complete when it was created) are held and emitted, in the order in which they
+ * completed, to the first listener when it connects. Thereafter results are emitted as they
+ * arrive, on the thread that completes their future. Notifications are serialized: a listener is
+ * never notified of two results at once. They are also made without holding this signal's lock,
+ * so a listener may do as it pleases, including blocking on another thread which connects to
+ * this signal or completes one of its futures. If results arrive while another thread is
+ * emitting, that thread emits them too.</p>
+ */
+public class Completions<T> extends AbstractSignal<Try<T>> implements Closeable
+{
+    /**
+     * Creates a signal which emits the results of {@code futures} as they complete.
+     */
+    public static <T> Completions<T> of (Collection<? extends RFuture<T>> futures) {
+        Completions<T> comps = new Completions<T>(futures.size());
+        int idx = 0;
+        for (RFuture<T> future : futures) {
+            // listen without holding our lock, as completed futures emit their results immediately
+            Closeable conn = future.listen(comps._input);
+            synchronized (comps) { comps._conns[idx++] = conn; }
+        }
+        return comps;
+    }
+
+    /**
+     * Returns the number of futures whose results this signal emits.
+     */
+    public int total () {
+        return _conns.length;
+    }
+
+    /**
+     * Returns a view of the number of futures which have completed so far. This is updated after
+     * the result of a future is emitted (or held, if nothing is yet connected).
+     */
+    public ValueView<Integer> completedView () {
+        return _completed;
+    }
+
+    /**
+     * Returns a view of the fraction of futures which have completed so far, from zero to one. If
+     * there are no futures, this is one from the start.
+     */
+    public ValueView<Float> progress () {
+        final int total = total();
+        return _completed.map(new Function<Integer,Float>() {
+            public Float apply (Integer completed) {
+                return total == 0 ? 1f : completed / (float)total;
+            }
+        });
+    }
+
+    /**
+     * Returns true if every future has completed and had its result emitted or held.
+     */
+    public boolean isDone () {
+        return _completed.get() == total();
+    }
+
+    /**
+     * Disconnects this signal from the futures which have yet to complete. Their results will not
+     * be emitted, nor counted as progress.
+     */
+    @Override public void close () {
+        Closeable[] conns;
+        synchronized (this) {
+            if (_closed) return;
+            _closed = true;
+            conns = _conns.clone();
+        }
+        for (Closeable conn : conns) if (conn != null) conn.close();
+    }
+
+    protected Completions (int total) {
+        _conns = new Closeable[total];
+    }
+
+    protected void onResult (Try<T> result) {
+        synchronized (this) {
+            if (_closed) return;
+            if (_held != null) _held.add(result);
+            else post(emit(result));
+            final int completed = ++_completedCount;
+            post(new Runnable() {
+                public void run () { _completed.update(completed); }
+            });
+        }
+        flush();
+    }
+
+    @Override protected Cons addConnection (RListener listener) {
+        Cons cons = super.addConnection(listener);
+        // emit any held results released by connectionAdded, now that we're not holding our lock
+        flush();
+        return cons;
+    }
+
+    @Override protected void connectionAdded () {
+        // this is called while holding our lock, so we post our held results rather than emit them
+        super.connectionAdded();
+        List<Try<T>> held = _held;
+        _held = null;
+        if (held != null) for (Try<T> result : held) post(emit(result));
+    }
+
+    /** Returns an action which emits {@code result}. */
+    protected Runnable emit (final Try<T> result) {
+        return new Runnable() {
+            public void run () { notifyEmit(result); }
+        };
+    }
+
+    /** Queues {@code action} to be run by {@link #flush}. Must be called while holding our lock. */
+    protected void post (Runnable action) {
+        _posted.add(action);
+    }
+
+    /**
+     * Runs the actions posted while our lock was held, unless another thread is already doing so,
+     * in which case it will run them. Must be called while not holding our lock.
+     */
+    protected void flush () {
+        RuntimeException exn = null;
+        while (true) {
+            Runnable action;
+            synchronized (this) {
+                if (_flushing || _posted.isEmpty()) break;
+                action = _posted.poll();
+                _flushing = true;
+            }
+            try {
+                action.run();
+            } catch (RuntimeException re) {
+                if (exn != null) exn.addSuppressed(re);
+                else exn = re;
+            } finally {
+                synchronized (this) { _flushing = false; }
+            }
+        }
+        if (exn != null) throw exn;
+    }
+
+    /** Receives the results of our futures. */
+    protected final SignalView.Listener<Try<T>> _input = new SignalView.Listener<Try<T>>() {
+        public void onEmit (Try<T> result) {
+            onResult(result);
+        }
+    };
+
+    /** The handles of our listeners on our futures, used to disconnect them. */
+    protected final Closeable[] _conns;
+
+    protected final Value<Integer> _completed = Value.create(0);
+    protected int _completedCount;
+
+    /** Emissions and progress updates which have yet to be made, and whether a thread is making
+      * them. */
+    protected final ArrayDeque<Runnable> _posted = new ArrayDeque<Runnable>();
+    protected boolean _flushing;
+
+    /** Results which have yet to be emitted, or null once something has been connected. */
+    protected List<Try<T>> _held = new ArrayList<Try<T>>();
+    protected boolean _closed;
+}
@@ -0,0 +1,336 @@
+//
+// React - a library for functional-reactive-like programming in Java
+// Copyright (c) 2011, Three Rings Design, Inc. - All rights reserved.
+// http://github.com/threerings/react/blob/master/LICENSE
+
+package react;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A reactive map which may be safely mutated from multiple threads. Mutations to different keys
+ * proceed in parallel, and notifications for a given key are delivered in the same order as the
+ * mutations that triggered them.
+ *
+ * <p>Keys are partitioned into stripes. A mutation and the queueing of its notification happen
+ * atomically with respect to other mutations of the same stripe. Notifications for a stripe are
+ * dispatched by whichever thread is not already dispatching for that stripe, without holding any
+ * lock, so listeners may freely mutate the map (or anything else) without risking deadlock. As
+ * with {@link Reactor#notify}, this means a notification may be dispatched on a different thread
+ * than the one that performed the mutation, and that a mutation made by a listener will be
+ * dispatched only after the current notification has been delivered to all listeners.</p>
+ *
+ * <p>Like {@link ConcurrentHashMap}, this map does not support {@code null} keys or values.
+ * Mutations made via {@link #keySet}, {@link #values} or {@link #entrySet} are notified in order
+ * but are not atomic with respect to their notification. The {@link #sizeView} is updated after
+ * each batch of notifications and may briefly lag the true size under concurrent mutation.</p>
+ */
+public class ConcurrentRMap<K,V> extends RMap<K,V> implements ConcurrentMap<K,V>
+{
+    /**
+     * Creates a concurrent reactive map with a default number of stripes.
+     */
+    public static <K,V> ConcurrentRMap<K,V> create () {
+        return new ConcurrentRMap<K,V>(DEFAULT_STRIPES);
+    }
+
+    /**
+     * Creates a concurrent reactive map with (at least) the specified number of stripes.
+     */
+    public static <K,V> ConcurrentRMap<K,V> create (int stripes) {
+        return new ConcurrentRMap<K,V>(stripes);
+    }
+
+    /**
+     * Creates a concurrent reactive map with (at least) the specified number of stripes. The
+     * number of stripes bounds the number of threads that may dispatch notifications in parallel.
+     */
+    public ConcurrentRMap (int stripes) {
+        super(new ConcurrentHashMap<K,V>());
+        if (stripes <= 0) throw new IllegalArgumentException("Stripes must be > 0: " + stripes);
+        int count = 1;
+        while (count < stripes) count <<= 1;
+        _stripes = new Stripe[count];
+        for (int ii = 0; ii < count; ii++) _stripes[ii] = new Stripe();
+    }
+
+    @Override public V put (K key, V value) {
+        Stripe stripe = stripe(key);
+        V ovalue;
+        synchronized (stripe) {
+            stripe.mutating++;
+            try {
+                ovalue = super.put(key, value);
+            } finally {
+                stripe.mutating--;
+            }
+        }
+        dispatch(stripe);
+        return ovalue;
+    }
+
+    @Override public V putForce (K key, V value) {
+        Stripe stripe = stripe(key);
+        V ovalue;
+        synchronized (stripe) {
+            stripe.mutating++;
+            try {
+                ovalue = super.putForce(key, value);
+            } finally {
+                stripe.mutating--;
+            }
+        }
+        dispatch(stripe);
+        return ovalue;
+    }
+
+    @Override public V remove (Object key) {
+        Stripe stripe = stripe(key);
+        V ovalue;
+        synchronized (stripe) {
+            stripe.mutating++;
+            try {
+                ovalue = super.remove(key);
+            } finally {
+                stripe.mutating--;
+            }
+        }
+        dispatch(stripe);
+        return ovalue;
+    }
+
+    @Override public V removeForce (K key) {
+        Stripe stripe = stripe(key);
+        V ovalue;
+        synchronized (stripe) {
+            stripe.mutating++;
+            try {
+                ovalue = super.removeForce(key);
+            } finally {
+                stripe.mutating--;
+            }
+        }
+        dispatch(stripe);
+        return ovalue;
+    }
+
+    @Override public void clear () {
+        checkMutate();
+        // remove each key individually so that each removal is ordered with respect to other
+        // mutations of the same key
+        for (K key : new ArrayList<K>(_impl.keySet())) remove(key);
+    }
+
+    // from interface ConcurrentMap<K,V>
+    public V putIfAbsent (K key, V value) {
+        checkMutate();
+        Stripe stripe = stripe(key);
+        V ovalue;
+        synchronized (stripe) {
+            ovalue = impl().putIfAbsent(key, value);
+            if (ovalue == null) stripe.append(new Event(PUT, key, value, null));
+        }
+        dispatch(stripe);
+        return ovalue;
+    }
+
+    // from interface ConcurrentMap<K,V>
+    public boolean remove (Object key, Object value) {
+        checkMutate();
+        Stripe stripe = stripe(key);
+        synchronized (stripe) {
+            if (!impl().remove(key, value)) return false;
+            stripe.append(new Event(REMOVE, key, value, null));
+        }
+        dispatch(stripe);
+        return true;
+    }
+
+    // from interface ConcurrentMap<K,V>
+    public boolean replace (K key, V oldValue, V newValue) {
+        checkMutate();
+        Stripe stripe = stripe(key);
+        synchronized (stripe) {
+            if (!impl().replace(key, oldValue, newValue)) return false;
+            if (!areEqual(newValue, oldValue)) {
+                stripe.append(new Event(PUT, key, newValue, oldValue));
+            }
+        }
+        dispatch(stripe);
+        return true;
+    }
+
+    // from interface ConcurrentMap<K,V>
+    public V replace (K key, V value) {
+        checkMutate();
+        Stripe stripe = stripe(key);
+        V ovalue;
+        synchronized (stripe) {
+            ovalue = impl().replace(key, value);
+            if (ovalue != null && !areEqual(value, ovalue)) {
+                stripe.append(new Event(PUT, key, value, ovalue));
+            }
+        }
+        dispatch(stripe);
+        return ovalue;
+    }
+
+    @Override public String toString () {
+        return "ConcurrentRMap" + _impl;
+    }
+
+    @Override protected void notify (Notifier notifier, Object key, Object a2, Object a3) {
+        Stripe stripe = stripe(key);
+        boolean deferred;
+        synchronized (stripe) {
+            stripe.append(new Event(notifier, key, a2, a3));
+            // if we're inside one of our mutators, it will dispatch once it releases the lock
+            deferred = (stripe.mutating > 0);
+        }
+        if (!deferred) dispatch(stripe);
+    }
+
+    /**
+     * Dispatches the events pending on {@code stripe}, unless another thread (or a listener
+     * further up our own call stack) is already doing so, in which case it will dispatch them once
+     * it's done with those before them.
+     */
+    protected void dispatch (Stripe stripe) {
+        synchronized (stripe) {
+            if (stripe.dispatching || stripe.isEmpty()) return;
+            stripe.dispatching = true;
+        }
+
+        RuntimeException exn = null;
+        boolean drained = false;
+        try {
+            Event event;
+            while ((event = stripe.next()) != null) {
+                Metrics metrics = metrics();
+                long started = (metrics == null) ? 0 : metrics.dispatching(this);
+                Watchdog watchdog = watchdog();
+                Cons[] lners = listeners();
+                int failures = 0;
+                for (Cons cons : lners) {
+                    try {
+                        if (watchdog == null) {
+                            event.notifier.notify(cons.listener(), event.a1, event.a2, event.a3);
+                        } else watch(watchdog, event.notifier, cons, event.a1, event.a2, event.a3);
+                    } catch (RuntimeException ex) {
+                        failures++;
+                        if (exn != null) exn.addSuppressed(ex);
+                        else exn = ex;
+                    }
+                    if (cons.oneShot()) cons.close();
+                }
+                if (metrics != null) metrics.dispatched(this, started, lners.length, 0, failures);
+            }
+            drained = true;
+        } finally {
+            // if an error aborted our dispatch, leave any remaining events for the next dispatcher
+            if (!drained) stripe.abort();
+            updateSize();
+        }
+
+        // finally throw any exception(s) that occurred during dispatch
+        if (exn != null) throw exn;
+    }
+
+    @Override protected void connectionAdded () {
+        super.connectionAdded();
+        _snapshot = null;
+    }
+
+    @Override protected void connectionRemoved () {
+        super.connectionRemoved();
+        _snapshot = null;
+    }
+
+    /** Returns a snapshot of our listeners which is safe to iterate from any thread. The snapshot
+      * is rebuilt lazily after our connections change. */
+    protected Cons[] listeners () {
+        Cons[] lners = _snapshot;
+        if (lners == null) {
+            synchronized (this) {
+                lners = _snapshot;
+                if (lners == null) {
+                    List<Cons> list = new ArrayList<Cons>();
+                    for (Cons cons = _listeners; cons != null; cons = cons.next) list.add(cons);
+                    _snapshot = lners = list.toArray(new Cons[list.size()]);
+                }
+            }
+        }
+        return lners;
+    }
+
+    protected Stripe stripe (Object key) {
+        // spread the hash bits so that keys with poor low-order bits are still distributed
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return _stripes[hash & (_stripes.length-1)];
+    }
+
+    protected ConcurrentMap<K,V> impl () {
+        return (ConcurrentMap<K,V>)_impl;
+    }
+
+    /** Orders the notifications for a subset of our keys. */
+    protected static class Stripe {
+        /** Whether a thread is currently dispatching our events. */
+        public boolean dispatching;
+
+        /** The number of mutators in progress on the thread which holds our lock. */
+        public int mutating;
+
+        public boolean isEmpty () {
+            return _head == null;
+        }
+
+        public void append (Event event) {
+            if (_tail == null) _head = event;
+            else _tail.next = event;
+            _tail = event;
+        }
+
+        /** Returns the next event to dispatch, or null (and clears {@link #dispatching}) if there
+          * are no more events pending. */
+        public synchronized Event next () {
+            Event event = _head;
+            if (event == null) {
+                dispatching = false;
+                return null;
+            }
+            _head = event.next;
+            if (_head == null) _tail = null;
+            return event;
+        }
+
+        public synchronized void abort () {
+            dispatching = false;
+        }
+
+        protected Event _head, _tail;
+    }
+
+    /** A notification awaiting dispatch. */
+    protected static class Event {
+        public final Notifier notifier;
+        public final Object a1, a2, a3;
+        public Event next;
+
+        public Event (Notifier notifier, Object a1, Object a2, Object a3) {
+            this.notifier = notifier;
+            this.a1 = a1;
+            this.a2 = a2;
+            this.a3 = a3;
+        }
+    }
+
+    protected final Stripe[] _stripes;
+    protected volatile Cons[] _snapshot;
+
+    protected static final int DEFAULT_STRIPES = 16;
+}
@@ -17,23 +17,7 @@ public abstract class Connection implements Closeable
      * changed the underlying connections' priorities are changed. Etc.
      */
     public static Connection join (final Connection... conns) {
-        return new Connection() {
-            @Override public void close () {
-                for (Connection c : conns) c.close();
-            }
-            @Override public Connection once () {
-                for (Connection c : conns) c.once();
-                return this;
-            }
-            @Override public Connection atPrio (int priority) {
-                for (Connection c : conns) c.atPrio(priority);
-                return this;
-            }
-            @Override public Connection holdWeakly () {
-                for (Connection c : conns) c.holdWeakly();
-                return this;
-            }
-        };
+        return new Joined(conns);
     }
 
     /**
@@ -105,4 +89,27 @@ public abstract class Connection implements Closeable
      * @return this connection instance for convenient chaining.
      */
     public abstract Connection holdWeakly ();
+
+    /** The connection returned by {@link #join}. */
+    static final class Joined extends Connection {
+        public final Connection[] conns;
+        public Joined (Connection[] conns) {
+            this.conns = conns;
+        }
+        @Override public void close () {
+            for (Connection c : conns) c.close();
+        }
+        @Override public Connection once () {
+            for (Connection c : conns) c.once();
+            return this;
+        }
+        @Override public Connection atPrio (int priority) {
+            for (Connection c : conns) c.atPrio(priority);
+            return this;
+        }
+        @Override public Connection holdWeakly () {
+            for (Connection c : conns) c.holdWeakly();
+            return this;
+        }
+    }
 }
@@ -5,7 +5,11 @@
 
 package react;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
 
 import react.Reactor.RListener;
 
@@ -14,23 +18,46 @@ import react.Reactor.RListener;
  */
 class Cons extends Connection
 {
-    /** The next connection in our chain. */
-    public Cons next;
+    /** The next and previous connections in our chain. */
+    public Cons next, prev;
+
+    /** Whether this connection is in its reactor's chain. */
+    public boolean linked;
 
     /** Indicates whether this connection is one-shot or persistent. */
     public final boolean oneShot () { return _oneShot; }
 
+    /** Returns whether this connection holds its listener weakly. */
+    public final boolean isWeak () { return _ref.isWeak(); }
+
+    /** Returns the priority of this connection. */
+    public final int priority () { return _priority; }
+
+    /** Returns false if this connection has been closed. */
+    public final boolean isOpen () { return _owner != null; }
+
+    /** Returns the reactor to which this connection is connected, or null if it's closed. */
+    public final Reactor owner () { return _owner; }
+
+    /** Returns the reactor which made this connection to derive its own events from those of
+      * our owner, or null. See {@link #derive}. */
+    public Reactor downstream () {
+        return (_ref instanceof DerivedRef) ? ((DerivedRef)_ref).downstream : null;
+    }
+
     /** Returns the listener for this cons cell. */
     public RListener listener () {
-        return _ref.get(this);
+        return _ref.listener(this);
     }
 
     @Override public void close () {
         // multiple disconnects are OK, we just NOOP after the first one
-        if (_owner != null) {
-            _ref.defang(_owner.placeholderListener());
-            _owner.disconnect(this);
+        Reactor owner = _owner;
+        if (owner != null) {
             _owner = null;
+            // our owner may look up our listener while disconnecting us, so defang us after
+            owner.disconnect(this);
+            _ref.defang(owner.placeholderListener());
         }
     }
 
@@ -42,17 +69,19 @@ class Cons extends Connection
     @Override public Connection atPrio (int priority) {
         if (_owner == null) throw new IllegalStateException(
             "Cannot change priority of disconnected connection.");
-        _owner.disconnect(this);
-        next = null;
-        _priority = priority;
-        _owner.addCons(this);
+        _owner.reprioritize(this, priority);
         return this;
     }
 
     @Override public Connection holdWeakly () {
         if (_owner == null) throw new IllegalStateException(
             "Cannot change disconnected connection to weak.");
-        if (!_ref.isWeak()) _ref = new WeakRef(_ref.get(this));
+        if (!_ref.isWeak()) {
+            Reactor owner = _owner;
+            RListener listener = _ref.listener(this);
+            _ref = new WeakRef(this, listener, owner.collectedQueue());
+            owner.weakened(this, listener);
+        }
         return this;
     }
 
@@ -66,79 +95,114 @@ class Cons extends Connection
         _ref = new StrongRef(listener);
     }
 
-    private static abstract class ListenerRef {
-        abstract boolean isWeak ();
-        abstract void defang (RListener noop);
-        abstract RListener get (Cons cons);
+    /**
+     * Closes {@code cells}, all of which are connected to {@code owner}, in a single batch.
+     */
+    static void closeAll (Reactor owner, List<Cons> cells) {
+        List<Cons> open = new ArrayList<Cons>(cells.size());
+        for (Cons cons : cells) {
+            if (cons._owner == owner) {
+                cons._owner = null;
+                open.add(cons);
+            }
+        }
+        owner.disconnectAll(open);
+        RListener noop = owner.placeholderListener();
+        for (Cons cons : open) cons._ref.defang(noop);
     }
 
-    private static class StrongRef extends ListenerRef {
-        private RListener _lner;
-        public StrongRef (RListener lner) { _lner = lner; }
-        public boolean isWeak () { return false; }
-        public void defang (RListener noop) { _lner = noop; }
-        public RListener get (Cons cons) { return _lner; }
+    /**
+     * Changes the priority of this connection. Only called by our owner, while we're unlinked.
+     */
+    void setPriority (int priority) {
+        _priority = priority;
     }
 
-    private static class WeakRef extends ListenerRef {
-        private WeakReference<RListener> _wref;
-        private RListener _noop;
-        public WeakRef (RListener lner) { _wref = new WeakReference<RListener>(lner); }
-        public boolean isWeak () { return true; }
-        public void defang (RListener noop) { _noop = noop; _wref = null; }
-        public RListener get (Cons cons) {
-            if (_wref != null) {
-                RListener listener = _wref.get();
-                if (listener != null) return listener;
-                cons.close(); // close will defang() us
+    /**
+     * Notes that {@code conn} (a connection, or a {@link Connection#join} of connections) was
+     * made by {@code downstream} in order to derive its events, so that the graph of derived
+     * reactors may be walked. Weakly held connections are not noted.
+     */
+    static void derive (Connection conn, Reactor downstream) {
+        if (conn instanceof Cons) {
+            Cons cons = (Cons)conn;
+            if (cons._ref instanceof StrongRef) {
+                cons._ref = new DerivedRef(cons._ref.listener(cons), downstream);
             }
-            return _noop;
+        } else if (conn instanceof Connection.Joined) {
+            for (Connection c : ((Connection.Joined)conn).conns) derive(c, downstream);
         }
     }
 
-    static Cons insert (Cons head, Cons cons) {
-        if (head == null) {
-            return cons;
-        }
-        if (cons._priority > head._priority) {
-            cons.next = head;
-            return cons;
-        }
-        for (Cons curs = head; ; curs = curs.next) {
-            if (curs.next == null) {
-                curs.next = cons;
-                return head;
-            }
-            if (cons._priority > curs.next._priority) {
-                cons.next = curs.next;
-                curs.next = cons;
-                return head;
-            }
+    /**
+     * Returns the connection whose weakly held listener was referenced by {@code ref}, which its
+     * reactor polled from its queue of collected listeners, or null if the connection has since
+     * been closed.
+     */
+    static Cons collected (Reference<? extends RListener> ref) {
+        return ((WeakRef)ref)._cons;
+    }
+
+    /**
+     * Clears and enqueues this connection's weak reference to its listener, as the garbage
+     * collector does once the listener is collected. Used for testing.
+     */
+    void simulateCollection () {
+        if (_ref instanceof WeakRef) {
+            WeakRef ref = (WeakRef)_ref;
+            ref.clear();
+            ref.enqueue();
         }
     }
 
-    static Cons remove (Cons head, Cons cons) {
-        if (head == null) return head;
-        if (head == cons) return head.next;
-        for (Cons curs = head; curs != null; curs = curs.next) {
-            if (curs.next == cons) {
-                curs.next = cons.next;
-                break;
-            }
+    private interface ListenerRef {
+        boolean isWeak ();
+        void defang (RListener noop);
+        RListener listener (Cons cons);
+    }
+
+    private static class StrongRef implements ListenerRef {
+        private RListener _lner;
+        public StrongRef (RListener lner) { _lner = lner; }
+        public boolean isWeak () { return false; }
+        public void defang (RListener noop) { _lner = noop; }
+        public RListener listener (Cons cons) { return _lner; }
+    }
+
+    /** A listener held on behalf of a derived reactor. */
+    private static class DerivedRef extends StrongRef {
+        public Reactor downstream;
+        public DerivedRef (RListener lner, Reactor downstream) {
+            super(lner);
+            this.downstream = downstream;
+        }
+        @Override public void defang (RListener noop) {
+            super.defang(noop);
+            downstream = null;
         }
-        return head;
     }
 
-    static Cons removeAll (Cons head, RListener listener) {
-        if (head == null) return null;
-        for (Cons curs = head; curs.next != null; ) {
-            if (curs.next.listener() == listener) {
-                curs.next = curs.next.next;
-            } else {
-                curs = curs.next;
-            }
+    /** A weak reference to a listener, which is enqueued on its reactor's queue of collected
+      * listeners once the listener is collected. See {@link Reactor#collectedQueue}. */
+    private static class WeakRef extends WeakReference<RListener> implements ListenerRef {
+        private Cons _cons;
+        private RListener _noop;
+        public WeakRef (Cons cons, RListener lner, ReferenceQueue<RListener> queue) {
+            super(lner, queue);
+            _cons = cons;
+        }
+        public boolean isWeak () { return true; }
+        public void defang (RListener noop) {
+            _noop = noop;
+            _cons = null;
+            clear();
+        }
+        public RListener listener (Cons cons) {
+            RListener listener = get();
+            if (listener != null) return listener;
+            if (_cons != null) cons.close(); // close will defang() us
+            return _noop;
         }
-        return head.listener() == listener ? head.next : head;
     }
 
     private Reactor _owner;
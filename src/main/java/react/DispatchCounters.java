@@ -0,0 +1,182 @@
+//
+// React - a library for functional-reactive-like programming
+// Copyright (c) 2015, Three Rings Design, Inc. - All rights reserved.
+// http://github.com/threerings/react/blob/master/LICENSE
+
+package react;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * {@link Reactor.Metrics} which accumulate plain counters, a histogram of dispatch durations, and
+ * the number and total duration of the dispatches of each reactor. For example:
+ *
+ * <pre>{@code
+ * DispatchCounters counters = new DispatchCounters();
+ * Reactor.setMetrics(counters);
+ * ...
+ * for (DispatchCounters.Tally tally : counters.top(10)) log.info(tally);
+ * counters.reset();
+ * }</pre>
+ *
+ * <p>The per-reactor tallies reference their reactors until they are {@link #reset}, so counters
+ * which are left installed should be reported and reset periodically. The counters are thread
+ * safe, but the per-reactor tallies are guarded by a single lock, so they add some contention to
+ * heavily concurrent dispatch.</p>
+ */
+public class DispatchCounters implements Reactor.Metrics
+{
+    /** The number and total duration of the dispatches of a single reactor. */
+    public static final class Tally {
+        /** The reactor in question. */
+        public final Reactor reactor;
+
+        public Tally (Reactor reactor) {
+            this.reactor = reactor;
+        }
+
+        /** Returns the number of events dispatched by the reactor. */
+        public synchronized long dispatches () { return _dispatches; }
+
+        /** Returns the number of listener notifications made by the reactor. */
+        public synchronized long listeners () { return _listeners; }
+
+        /** Returns the total time, in nanoseconds, spent dispatching events by the reactor. */
+        public synchronized long nanos () { return _nanos; }
+
+        @Override public String toString () {
+            return reactor.getClass().getName() + "@" +
+                Integer.toHexString(System.identityHashCode(reactor)) + " [dispatches=" +
+                dispatches() + ", listeners=" + listeners() + ", nanos=" + nanos() + "]";
+        }
+
+        protected synchronized void add (int listeners, long nanos) {
+            _dispatches++;
+            _listeners += listeners;
+            _nanos += nanos;
+        }
+
+        protected long _dispatches, _listeners, _nanos;
+    }
+
+    /** The number of buckets in our duration histogram. */
+    public static final int BUCKETS = 64;
+
+    /** Returns the number of events dispatched. */
+    public long dispatches () { return _dispatches.get(); }
+
+    /** Returns the number of listener notifications made. */
+    public long listeners () { return _listeners.get(); }
+
+    /** Returns the number of operations deferred until the end of a dispatch. */
+    public long deferred () { return _deferred.get(); }
+
+    /** Returns the number of exceptions thrown by listeners and deferred operations. */
+    public long failures () { return _failures.get(); }
+
+    /** Returns the total time, in nanoseconds, spent dispatching events. */
+    public long nanos () { return _nanos.get(); }
+
+    /** Returns the time, in nanoseconds, since these counters were created or last reset. */
+    public long elapsed () { return System.nanoTime() - _since; }
+
+    /**
+     * Returns the tally for {@code reactor} since these counters were last reset, or null if it
+     * has dispatched no events.
+     */
+    public Tally tally (Reactor reactor) {
+        synchronized (_tallies) {
+            return _tallies.get(reactor);
+        }
+    }
+
+    /**
+     * Returns a histogram of dispatch durations. Bucket zero counts dispatches which took no
+     * measurable time, and bucket {@code n} counts those which took at least {@code 2^(n-1)} and
+     * less than {@code 2^n} nanoseconds.
+     */
+    public long[] histogram () {
+        long[] histo = new long[BUCKETS];
+        for (int ii = 0; ii < BUCKETS; ii++) histo[ii] = _histogram.get(ii);
+        return histo;
+    }
+
+    /**
+     * Returns the tallies of the (at most) {@code count} reactors which have spent the most time
+     * dispatching since these counters were last reset, in order of decreasing time.
+     */
+    public List<Tally> top (int count) {
+        List<Tally> tallies;
+        synchronized (_tallies) {
+            tallies = new ArrayList<Tally>(_tallies.values());
+        }
+        Collections.sort(tallies, BY_NANOS);
+        return (tallies.size() > count) ?
+            new ArrayList<Tally>(tallies.subList(0, count)) : tallies;
+    }
+
+    /**
+     * Zeroes these counters and forgets all per-reactor tallies.
+     */
+    public void reset () {
+        _dispatches.set(0);
+        _listeners.set(0);
+        _deferred.set(0);
+        _failures.set(0);
+        _nanos.set(0);
+        for (int ii = 0; ii < BUCKETS; ii++) _histogram.set(ii, 0);
+        synchronized (_tallies) {
+            _tallies.clear();
+        }
+        _since = System.nanoTime();
+    }
+
+    // from interface Reactor.Metrics
+    public long dispatching (Reactor reactor) {
+        return System.nanoTime();
+    }
+
+    // from interface Reactor.Metrics
+    public void dispatched (Reactor reactor, long started, int listeners, int deferred,
+                            int failures) {
+        long nanos = Math.max(System.nanoTime() - started, 0);
+        _dispatches.incrementAndGet();
+        _listeners.addAndGet(listeners);
+        if (deferred > 0) _deferred.addAndGet(deferred);
+        if (failures > 0) _failures.addAndGet(failures);
+        _nanos.addAndGet(nanos);
+        _histogram.incrementAndGet(64 - Long.numberOfLeadingZeros(nanos));
+
+        Tally tally;
+        synchronized (_tallies) {
+            tally = _tallies.get(reactor);
+            if (tally == null) _tallies.put(reactor, tally = new Tally(reactor));
+        }
+        tally.add(listeners, nanos);
+    }
+
+    protected final AtomicLong _dispatches = new AtomicLong();
+    protected final AtomicLong _listeners = new AtomicLong();
+    protected final AtomicLong _deferred = new AtomicLong();
+    protected final AtomicLong _failures = new AtomicLong();
+    protected final AtomicLong _nanos = new AtomicLong();
+    protected final AtomicLongArray _histogram = new AtomicLongArray(BUCKETS);
+    protected volatile long _since = System.nanoTime();
+
+    /** Our per-reactor tallies. Reactors are keyed by identity, as some reactive collections
+      * define equality by their contents. */
+    protected final Map<Reactor,Tally> _tallies = new IdentityHashMap<Reactor,Tally>();
+
+    protected static final Comparator<Tally> BY_NANOS = new Comparator<Tally>() {
+        public int compare (Tally a, Tally b) {
+            return Long.compare(b.nanos(), a.nanos());
+        }
+    };
+}
@@ -0,0 +1,192 @@
+//
+// React - a library for functional-reactive-like programming
+// Copyright (c) 2015, Three Rings Design, Inc. - All rights reserved.
+// http://github.com/threerings/react/blob/master/LICENSE
+
+package react;
+
+import java.util.Arrays;
+
+/**
+ * Implements {@link SignalView#map}, {@link SignalView#filter} and {@link SignalView#collect}, and
+ * fuses chains thereof. Each signal in a chain knows the whole pipeline of operations from the
+ * chain's source. When it is connected to, it connects with a single listener, which applies the
+ * operations in between, to the nearest signal up the chain which has more than one subscriber:
+ * listeners of its own, or more than one live signal derived from it. A derived signal is live
+ * while it is connected to, or a signal derived from it is live, so derived signals which are
+ * never connected to, or are no longer, don't prevent fusion. Thus a linear chain of operations
+ * costs one dispatch per event, rather than one per operation, and each operation is applied
+ * exactly once per event, as it would be without fusion.
+ *
+ * <p>A signal in the middle of a chain which gains a subscriber, while a signal further down the
+ * chain is fused through it, causes the latter to reconnect to it. The state of each signal in a
+ * chain is only updated under that signal's monitor, so a chain may be connected to from any
+ * thread.</p>
+ */
+class FusedSignal<T> extends MappedSignal<T>
+{
+    /** An operation in a pipeline. */
+    static abstract class Stage {
+        /** Returns the result of applying this operation to {@code value}, or {@link #DROP} if the
+          * value is to be dropped. */
+        public abstract Object apply (Object value);
+    }
+
+    /** Returned by a {@link Stage} to drop a value. */
+    static final Object DROP = new Object();
+
+    static Stage mapStage (final Function<Object,?> func) {
+        return new Stage() {
+            public Object apply (Object value) { return func.apply(value); }
+        };
+    }
+
+    static Stage filterStage (final Function<Object,Boolean> pred) {
+        return new Stage() {
+            public Object apply (Object value) { return pred.apply(value) ? value : DROP; }
+        };
+    }
+
+    static Stage collectStage (final Function<Object,?> collector) {
+        return new Stage() {
+            public Object apply (Object value) {
+                Object mapped = collector.apply(value);
+                return (mapped == null) ? DROP : mapped;
+            }
+        };
+    }
+
+    FusedSignal (AbstractSignal<?> source, FusedSignal<?> parent, Stage stage) {
+        _source = source;
+        _parent = parent;
+        if (parent == null) _stages = new Stage[] { stage };
+        else {
+            _stages = Arrays.copyOf(parent._stages, parent._stages.length + 1);
+            _stages[parent._stages.length] = stage;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override public <M> SignalView<M> map (Function<? super T, M> func) {
+        return new FusedSignal<M>(_source, this, mapStage((Function<Object,M>)func));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override public SignalView<T> filter (Function<? super T, Boolean> pred) {
+        return new FusedSignal<T>(_source, this, filterStage((Function<Object,Boolean>)pred));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override public <M> SignalView<M> collect (Function<? super T, M> collector) {
+        return new FusedSignal<M>(_source, this, collectStage((Function<Object,M>)collector));
+    }
+
+    @Override protected Connection connect () {
+        // we're live now, which our parent must know before we decide where to connect
+        setLive(true);
+        // connect to the nearest signal up our chain with another subscriber, or else to our
+        // source, and note that we're fused through the signals in between
+        FusedSignal<?> from = _parent;
+        while (from != null && from.fuseThrough(this)) from = from._parent;
+        final Stage[] stages = (from == null) ? _stages :
+            Arrays.copyOfRange(_stages, from._stages.length, _stages.length);
+        return ((from == null) ? _source : from).connect(new Listener<Object>() {
+            @Override public void onEmit (Object value) {
+                for (Stage stage : stages) {
+                    value = stage.apply(value);
+                    if (value == DROP) return;
+                }
+                @SuppressWarnings("unchecked") T result = (T)value;
+                notifyEmit(result);
+            }
+        });
+    }
+
+    @Override protected void connectionAdded () {
+        // if a signal further down our chain is fused through us, it must now connect to us
+        FusedSignal<?> fuser;
+        synchronized (this) { fuser = _fuser; }
+        super.connectionAdded();
+        if (fuser != null) fuser.refuse();
+    }
+
+    @Override protected void connectionRemoved () {
+        super.connectionRemoved();
+        if (_conn == null) {
+            unfuse();
+            boolean childless;
+            synchronized (this) { childless = (_children == 0); }
+            if (childless) setLive(false);
+        }
+    }
+
+    /** Notes that a signal derived from this one has become live. */
+    protected void childAdded () {
+        FusedSignal<?> fuser;
+        synchronized (this) { fuser = (++_children == 2) ? _fuser : null; }
+        // if a signal further down our chain is fused through us, it must now connect to us
+        if (fuser != null) fuser.refuse();
+        setLive(true);
+    }
+
+    /** Notes that a signal derived from this one is no longer live. */
+    protected void childRemoved () {
+        boolean dead;
+        synchronized (this) { dead = (--_children == 0 && _conn == null); }
+        if (dead) setLive(false);
+    }
+
+    /** Updates whether we're live, and if that changed, lets our parent know. */
+    protected void setLive (boolean live) {
+        synchronized (this) {
+            if (_live == live) return;
+            _live = live;
+        }
+        if (_parent != null) {
+            if (live) _parent.childAdded();
+            else _parent.childRemoved();
+        }
+    }
+
+    /** Notes that {@code fuser} is fused through us, if it is our only live child and we have no
+      * listeners. Returns whether it is. */
+    protected synchronized boolean fuseThrough (FusedSignal<?> fuser) {
+        if (_children != 1 || hasConnections()) return false;
+        _fuser = fuser;
+        return true;
+    }
+
+    /** Reconnects this signal, as a signal which it is fused through has gained a subscriber. */
+    protected void refuse () {
+        if (_conn == null) return;
+        unfuse();
+        _conn.close();
+        Cons.derive(_conn = connect(), this);
+    }
+
+    /** Clears our marks on the signals we're fused through. */
+    protected void unfuse () {
+        for (FusedSignal<?> sig = _parent; sig != null; sig = sig._parent) {
+            synchronized (sig) {
+                if (sig._fuser != this) return;
+                sig._fuser = null;
+            }
+        }
+    }
+
+    /** The source of our chain, and the signal before us in it, if any. */
+    protected final AbstractSignal<?> _source;
+    protected final FusedSignal<?> _parent;
+
+    /** The operations which comprise our chain, from our source to us. */
+    protected final Stage[] _stages;
+
+    /** The number of live signals derived from this one. */
+    protected int _children;
+
+    /** Whether we're connected to, or a signal derived from us is live. */
+    protected boolean _live;
+
+    /** The signal further down our chain which is fused through us, if any. */
+    protected FusedSignal<?> _fuser;
+}
@@ -0,0 +1,224 @@
+//
+// React - a library for functional-reactive-like programming
+// Copyright (c) 2015, Three Rings Design, Inc. - All rights reserved.
+// http://github.com/threerings/react/blob/master/LICENSE
+
+package react;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * A {@link Timer} which hashes its tasks into the buckets of a wheel, each bucket covering one
+ * tick of time. Scheduling and cancelling a task are constant time and lock-free, regardless of
+ * how many tasks are pending, at the cost of tasks being run up to one tick late. This makes it
+ * well suited to timeouts, most of which are cancelled long before they expire.
+ *
+ * <p>Tasks may be scheduled and cancelled from any thread. They are handed to the wheel via a
+ * queue and expired by {@link #expire}, which is called once per tick by the timer's thread if
+ * it has been {@link #start}ed, and which runs expired actions on the calling thread. Tests may
+ * instead supply a {@link VirtualClock}, advance it manually and call {@link #expire}
+ * themselves.</p>
+ */
+public class HashedWheelTimer implements Timer, Closeable
+{
+    /** Supplies the current time, in milliseconds, to a timer. */
+    public interface Clock {
+        /** Returns the current time in milliseconds. Only differences between times matter. */
+        long millis ();
+    }
+
+    /** A clock which reports the time elapsed according to {@link System#nanoTime}. */
+    public static final Clock SYSTEM_CLOCK = new Clock() {
+        public long millis () { return System.nanoTime() / 1000000L; }
+    };
+
+    /** A clock whose time only changes when it is advanced, for testing. */
+    public static class VirtualClock implements Clock {
+        /** Advances this clock by {@code millis} milliseconds. */
+        public void advance (long millis) {
+            _now += millis;
+        }
+        public long millis () { return _now; }
+        protected volatile long _now;
+    }
+
+    /**
+     * Creates a timer with a ten millisecond tick and 512 buckets, using the system clock.
+     */
+    public HashedWheelTimer () {
+        this(10, 512, SYSTEM_CLOCK);
+    }
+
+    /**
+     * Creates a timer with the specified tick duration and number of buckets (rounded up to a
+     * power of two). Tasks due within {@code tickMillis * wheelSize} milliseconds are expired
+     * without being revisited, those due later are revisited once per turn of the wheel.
+     */
+    public HashedWheelTimer (long tickMillis, int wheelSize, Clock clock) {
+        if (tickMillis <= 0) throw new IllegalArgumentException("tickMillis must be > 0");
+        if (wheelSize <= 0 || wheelSize > (1 << 30)) throw new IllegalArgumentException(
+            "wheelSize must be in (0, 2^30]");
+        int size = Integer.highestOneBit(wheelSize);
+        if (size < wheelSize) size <<= 1;
+        _wheel = new Task[size];
+        _mask = size - 1;
+        _tickMillis = tickMillis;
+        _clock = clock;
+        _start = clock.millis();
+    }
+
+    @Override public Closeable schedule (long delayMillis, Runnable action) {
+        if (action == null) throw new NullPointerException("Must supply non-null 'action'.");
+        Task task = new Task(this, action, _clock.millis() + Math.max(delayMillis, 0));
+        _inbox.offer(task);
+        return task;
+    }
+
+    /**
+     * Starts a daemon thread which calls {@link #expire} once per tick, until this timer is
+     * closed. Exceptions thrown by actions are passed to the thread's uncaught exception handler.
+     * @return this timer, for call chaining.
+     */
+    public synchronized HashedWheelTimer start () {
+        if (_thread != null) throw new IllegalStateException("Timer already started.");
+        _thread = new Thread("HashedWheelTimer") {
+            @Override public void run () {
+                while (!_closed) {
+                    try {
+                        expire();
+                    } catch (RuntimeException re) {
+                        getUncaughtExceptionHandler().uncaughtException(this, re);
+                    }
+                    try {
+                        Thread.sleep(_tickMillis);
+                    } catch (InterruptedException ie) {
+                        return;
+                    }
+                }
+            }
+        };
+        _thread.setDaemon(true);
+        _thread.start();
+        return this;
+    }
+
+    /**
+     * Runs the actions of all tasks which are due according to this timer's clock. If any action
+     * throws an exception, the remaining actions are still run and the first exception is then
+     * rethrown, with any others added to it as suppressed exceptions.
+     * @return the number of actions run.
+     */
+    public synchronized int expire () {
+        long target = (_clock.millis() - _start) / _tickMillis;
+        int count = 0;
+        RuntimeException exn = null;
+        for (; _tick <= target; _tick++) {
+            purgeCancelled();
+            transferScheduled();
+            int bucket = (int)(_tick & _mask);
+            for (Task task = _wheel[bucket], next; task != null; task = next) {
+                next = task.next;
+                if (task.rounds > 0) {
+                    task.rounds--;
+                    continue;
+                }
+                unlink(task);
+                if (!STATE.compareAndSet(task, PENDING, EXPIRED)) continue;
+                count++;
+                try {
+                    task.action.run();
+                } catch (RuntimeException ex) {
+                    if (exn != null) exn.addSuppressed(ex);
+                    else exn = ex;
+                }
+                task.action = null;
+            }
+        }
+        if (exn != null) throw exn;
+        return count;
+    }
+
+    /**
+     * Stops this timer's thread, if it was started. Tasks which have not yet expired will never be
+     * run.
+     */
+    @Override public synchronized void close () {
+        _closed = true;
+        if (_thread != null) _thread.interrupt();
+    }
+
+    /** A scheduled action, which is also the handle used to cancel it. */
+    protected static final class Task implements Closeable {
+        public final long deadline;
+        public Runnable action;
+        public volatile int state;
+
+        // the following are only accessed by the expiring thread
+        public Task prev, next;
+        public int bucket = -1;
+        public long rounds;
+
+        public Task (HashedWheelTimer timer, Runnable action, long deadline) {
+            _timer = timer;
+            this.action = action;
+            this.deadline = deadline;
+        }
+
+        @Override public void close () {
+            // the expiring thread unlinks the task from its bucket on its next tick
+            if (STATE.compareAndSet(this, PENDING, CANCELLED)) _timer._cancelled.offer(this);
+        }
+
+        protected final HashedWheelTimer _timer;
+    }
+
+    protected void transferScheduled () {
+        for (Task task; (task = _inbox.poll()) != null; ) {
+            if (task.state != PENDING) continue;
+            long ticks = Math.max((task.deadline - _start + _tickMillis - 1) / _tickMillis, _tick);
+            task.rounds = (ticks - _tick) / _wheel.length;
+            int bucket = (int)(ticks & _mask);
+            task.bucket = bucket;
+            task.next = _wheel[bucket];
+            if (task.next != null) task.next.prev = task;
+            _wheel[bucket] = task;
+        }
+    }
+
+    protected void purgeCancelled () {
+        for (Task task; (task = _cancelled.poll()) != null; ) {
+            // a task cancelled before it was transferred will be skipped by the transfer
+            if (task.bucket >= 0) unlink(task);
+            task.action = null;
+        }
+    }
+
+    protected void unlink (Task task) {
+        if (task.prev != null) task.prev.next = task.next;
+        else _wheel[task.bucket] = task.next;
+        if (task.next != null) task.next.prev = task.prev;
+        task.prev = task.next = null;
+        task.bucket = -1;
+    }
+
+    protected final Task[] _wheel;
+    protected final int _mask;
+    protected final long _tickMillis;
+    protected final Clock _clock;
+    protected final long _start;
+
+    /** Tasks scheduled since the last tick, and tasks cancelled since the last tick. */
+    protected final ConcurrentLinkedQueue<Task> _inbox = new ConcurrentLinkedQueue<Task>();
+    protected final ConcurrentLinkedQueue<Task> _cancelled = new ConcurrentLinkedQueue<Task>();
+
+    /** The next tick to be expired, counted from {@link #_start}. */
+    protected long _tick;
+
+    protected Thread _thread;
+    protected volatile boolean _closed;
+
+    protected static final int PENDING = 0, CANCELLED = 1, EXPIRED = 2;
+    protected static final AtomicIntegerFieldUpdater<Task> STATE =
+        AtomicIntegerFieldUpdater.newUpdater(Task.class, "state");
+}
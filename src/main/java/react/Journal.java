@@ -0,0 +1,441 @@
+//
+// React - a library for functional-reactive-like programming in Java
+// Copyright (c) 2011, Three Rings Design, Inc. - All rights reserved.
+// http://github.com/threerings/react/blob/master/LICENSE
+
+package react;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records every mutation of a set of reactive collections to an append-only binary log, and
+ * replays that log to rebuild the collections. For example:
+ *
+ * <pre>{@code
+ * Journal journal = new Journal(new File("world.journal"));
+ * journal.attach(1, players, Codecs.STRING, PlayerCodec.INSTANCE);
+ * journal.attach(2, chat, Codecs.STRING);
+ * journal.replay(); // restores players and chat, then starts recording their changes
+ * }</pre>
+ *
+ * <p>Each record contains a channel id, identifying the collection, an opcode and the encoded
+ * arguments of the change. Records are encoded into a reused buffer and copied into the log
+ * through a memory-mapped region of the log file, which is remapped in chunks as the log grows.
+ * Each record is preceded by its length, which is written only after the rest of the record, so
+ * a record that was being written when the process died is simply ignored on replay. A journal
+ * thus survives the death of its process, as the mapped pages belong to the OS, which writes them
+ * back in its own time. It survives an OS crash or power failure only for those records written
+ * before the last call to {@link #sync}, which forces them to the storage device.</p>
+ *
+ * <p>The log grows with every change, so a long-lived journal should be {@link #compact}ed from
+ * time to time, which replaces it with a snapshot of the current contents of its collections.
+ * Chunks the log has grown past are dropped and left to the garbage collector to unmap, as
+ * unmapping a buffer explicitly would crash the JVM were it ever touched again.</p>
+ *
+ * <p>A journal is not thread safe: its collections must be mutated on a single thread (or with
+ * external synchronization).</p>
+ */
+public class Journal implements Closeable
+{
+    /**
+     * Opens (creating if necessary) the journal in {@code file}, mapping it in chunks of a
+     * default size.
+     */
+    public Journal (File file) throws IOException {
+        this(file, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Opens (creating if necessary) the journal in {@code file}, mapping it in chunks of {@code
+     * chunkSize} bytes. A chunk must be at least as large as the largest record, or records which
+     * do not fit will be mapped individually.
+     */
+    public Journal (File file, int chunkSize) throws IOException {
+        if (chunkSize <= 0) throw new IllegalArgumentException("Chunk size must be > 0.");
+        _path = file;
+        _file = new RandomAccessFile(file, "rw");
+        _channel = _file.getChannel();
+        _chunkSize = chunkSize;
+    }
+
+    /**
+     * Registers {@code map} with this journal on channel {@code id}. If the journal has already
+     * been {@link #replay}ed, changes to the map are recorded immediately, otherwise they will be
+     * recorded once it has been replayed.
+     * @return this journal, for call chaining.
+     */
+    public <K,V> Journal attach (int id, final RMap<K,V> map, final Codec<K> keys,
+                                 final Codec<V> values) {
+        return attach(id, new Channel() {
+            public Connection connect (final int id) {
+                return map.connect(new RMap.Listener<K,V>() {
+                    @Override public void onPut (K key, V value) {
+                        try {
+                            keys.write(begin(id, PUT), key);
+                            values.write(_out, value);
+                            commit();
+                        } catch (IOException ioe) { throw failure(ioe); }
+                    }
+                    @Override public void onRemove (K key) {
+                        try {
+                            keys.write(begin(id, REMOVE), key);
+                            commit();
+                        } catch (IOException ioe) { throw failure(ioe); }
+                    }
+                });
+            }
+            public void snapshot (int id) throws IOException {
+                for (Map.Entry<K,V> entry : map.entrySet()) {
+                    keys.write(begin(id, PUT), entry.getKey());
+                    values.write(_out, entry.getValue());
+                    commit();
+                }
+            }
+            public void apply (int op, DataInputStream in) throws IOException {
+                switch (op) {
+                case PUT: map.put(keys.read(in), values.read(in)); break;
+                case REMOVE: map.remove(keys.read(in)); break;
+                default: throw badOp(op);
+                }
+            }
+        });
+    }
+
+    /**
+     * Registers {@code list} with this journal on channel {@code id}. See {@link
+     * #attach(int,RMap,Codec,Codec)}.
+     * @return this journal, for call chaining.
+     */
+    public <E> Journal attach (int id, final RList<E> list, final Codec<E> elems) {
+        return attach(id, new Channel() {
+            public Connection connect (final int id) {
+                return list.connect(new RList.Listener<E>() {
+                    @Override public void onAdd (int index, E elem) {
+                        try {
+                            Codecs.writeVarint(begin(id, ADD), index);
+                            elems.write(_out, elem);
+                            commit();
+                        } catch (IOException ioe) { throw failure(ioe); }
+                    }
+                    @Override public void onSet (int index, E elem) {
+                        try {
+                            Codecs.writeVarint(begin(id, PUT), index);
+                            elems.write(_out, elem);
+                            commit();
+                        } catch (IOException ioe) { throw failure(ioe); }
+                    }
+                    @Override public void onRemove (int index, E elem) {
+                        try {
+                            Codecs.writeVarint(begin(id, REMOVE), index);
+                            commit();
+                        } catch (IOException ioe) { throw failure(ioe); }
+                    }
+                });
+            }
+            public void snapshot (int id) throws IOException {
+                for (int ii = 0, ll = list.size(); ii < ll; ii++) {
+                    Codecs.writeVarint(begin(id, ADD), ii);
+                    elems.write(_out, list.get(ii));
+                    commit();
+                }
+            }
+            public void apply (int op, DataInputStream in) throws IOException {
+                switch (op) {
+                case ADD: list.add(Codecs.readVarint(in), elems.read(in)); break;
+                case PUT: list.set(Codecs.readVarint(in), elems.read(in)); break;
+                case REMOVE: list.remove(Codecs.readVarint(in)); break;
+                default: throw badOp(op);
+                }
+            }
+        });
+    }
+
+    /**
+     * Registers {@code set} with this journal on channel {@code id}. See {@link
+     * #attach(int,RMap,Codec,Codec)}.
+     * @return this journal, for call chaining.
+     */
+    public <E> Journal attach (int id, final RSet<E> set, final Codec<E> elems) {
+        return attach(id, new Channel() {
+            public Connection connect (final int id) {
+                return set.connect(new RSet.Listener<E>() {
+                    @Override public void onAdd (E elem) {
+                        try {
+                            elems.write(begin(id, ADD), elem);
+                            commit();
+                        } catch (IOException ioe) { throw failure(ioe); }
+                    }
+                    @Override public void onRemove (E elem) {
+                        try {
+                            elems.write(begin(id, REMOVE), elem);
+                            commit();
+                        } catch (IOException ioe) { throw failure(ioe); }
+                    }
+                });
+            }
+            public void snapshot (int id) throws IOException {
+                for (E elem : set) {
+                    elems.write(begin(id, ADD), elem);
+                    commit();
+                }
+            }
+            public void apply (int op, DataInputStream in) throws IOException {
+                switch (op) {
+                case ADD: set.add(elems.read(in)); break;
+                case REMOVE: set.remove(elems.read(in)); break;
+                default: throw badOp(op);
+                }
+            }
+        });
+    }
+
+    /**
+     * Replays the records in this journal to the attached collections, and then starts recording
+     * changes to those collections. This must be called (even for a new, empty journal) before
+     * any changes will be recorded. The collections will generally be empty prior to replay.
+     * @return the number of records replayed.
+     * @throws IOException if the journal cannot be read, or it contains records for a channel
+     * which has not been attached. The channels of all records are checked before any record is
+     * applied, so in the latter case the collections are left untouched, and the missing channels
+     * may be attached and the journal replayed again. If a record cannot be decoded, however, the
+     * records which precede it will have been applied.
+     */
+    public int replay () throws IOException {
+        if (_replayed) throw new IllegalStateException("Journal already replayed.");
+        scan(false);
+        int count = scan(true);
+        _replayed = true;
+        for (Map.Entry<Integer,Channel> entry : _channels.entrySet()) {
+            _conns.add(entry.getValue().connect(entry.getKey()));
+        }
+        return count;
+    }
+
+    /**
+     * Reads the complete records in the log and sets the write position to the end of the last
+     * of them. If {@code apply}, applies each record to its channel, otherwise only checks that
+     * each record's channel is attached.
+     * @return the number of records read.
+     */
+    protected int scan (boolean apply) throws IOException {
+        RecordInput rin = new RecordInput();
+        DataInputStream in = new DataInputStream(rin);
+        long pos = 0, size = _channel.size();
+        int count = 0;
+        MappedByteBuffer buf = null;
+        long base = 0;
+        while (pos + 4 <= size) {
+            if (buf == null || pos + 4 > base + buf.capacity()) {
+                base = pos;
+                buf = _channel.map(FileChannel.MapMode.READ_ONLY, base,
+                                   Math.min(_chunkSize, size - base));
+            }
+            int length = buf.getInt((int)(pos - base));
+            // a zero length marks the end of the log (a negative or overlong length indicates a
+            // record whose length was torn mid-write, which we likewise treat as the end)
+            if (length <= 0 || pos + 4 + length > size) break;
+            if (pos + 4 + length > base + buf.capacity()) {
+                base = pos;
+                buf = _channel.map(FileChannel.MapMode.READ_ONLY, base,
+                                   Math.min(Math.max(_chunkSize, 4 + length), size - base));
+            }
+            ((Buffer)buf).position((int)(pos - base) + 4);
+            rin.reset(length);
+            buf.get(rin.buf, 0, length);
+            int id = Codecs.readVarint(in), op = in.readByte();
+            Channel channel = _channels.get(id);
+            if (channel == null) throw new IOException("No channel attached with id " + id);
+            if (apply) channel.apply(op, in);
+            pos += 4 + length;
+            count++;
+        }
+        _wpos = pos;
+        return count;
+    }
+
+    /**
+     * Forces all records written thus far to be written to the storage device.
+     */
+    public void sync () {
+        if (_wbuf != null) _wbuf.force();
+    }
+
+    /**
+     * Replaces the records in this journal with a snapshot of the current contents of the
+     * attached collections, discarding the history of changes which led to them. The snapshot is
+     * written and synced to a temporary file alongside the journal, which then atomically replaces
+     * it, so if the process or OS dies mid-compaction, the journal is left as it was.
+     * @throws IOException if the snapshot cannot be written, in which case the journal is left as
+     * it was and carries on recording changes.
+     */
+    public void compact () throws IOException {
+        if (!_replayed) throw new IllegalStateException("Journal not yet replayed.");
+        RandomAccessFile ofile = _file;
+        FileChannel ochannel = _channel;
+        MappedByteBuffer owbuf = _wbuf;
+        long owbase = _wbase, owpos = _wpos;
+
+        // write the snapshot to the temporary file using our usual record writing machinery
+        File temp = new File(_path.getPath() + ".compact");
+        _file = new RandomAccessFile(temp, "rw");
+        _channel = _file.getChannel();
+        _wbuf = null;
+        _wbase = _wpos = 0;
+        boolean swapped = false;
+        try {
+            _file.setLength(0); // in case a previous compaction died midway
+            for (Map.Entry<Integer,Channel> entry : _channels.entrySet()) {
+                entry.getValue().snapshot(entry.getKey());
+            }
+            sync();
+            Files.move(temp.toPath(), _path.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+            swapped = true;
+        } finally {
+            // close whichever of the old log and the snapshot we're not keeping
+            if (swapped) {
+                ochannel.close();
+                ofile.close();
+            } else {
+                _channel.close();
+                _file.close();
+                temp.delete();
+                _file = ofile;
+                _channel = ochannel;
+                _wbuf = owbuf;
+                _wbase = owbase;
+                _wpos = owpos;
+            }
+        }
+    }
+
+    /**
+     * Stops recording changes, syncs and closes this journal.
+     */
+    @Override public void close () {
+        for (Connection conn : _conns) conn.close();
+        _conns.clear();
+        try {
+            sync();
+            _wbuf = null;
+            _channel.close();
+            _file.close();
+        } catch (IOException ioe) {
+            throw failure(ioe);
+        }
+    }
+
+    /** Manages the encoding and decoding of changes for a single collection. */
+    protected interface Channel {
+        /** Connects a listener that records changes to our collection on channel {@code id}. */
+        Connection connect (int id);
+        /** Records the current contents of our collection on channel {@code id}, as changes which
+          * would recreate it from empty. */
+        void snapshot (int id) throws IOException;
+        /** Applies a record with the supplied opcode, read from {@code in}, to our collection. */
+        void apply (int op, DataInputStream in) throws IOException;
+    }
+
+    /** A reusable output buffer for record encoding. */
+    protected static class RecordOutput extends ByteArrayOutputStream {
+        public byte[] buffer () { return buf; }
+    }
+
+    /** A reusable input buffer for record decoding. */
+    protected static class RecordInput extends InputStream {
+        public byte[] buf = new byte[256];
+
+        public void reset (int length) {
+            if (buf.length < length) buf = new byte[Math.max(length, buf.length*2)];
+            _pos = 0;
+            _length = length;
+        }
+
+        @Override public int read () {
+            return (_pos < _length) ? (buf[_pos++] & 0xFF) : -1;
+        }
+
+        @Override public int read (byte[] b, int off, int len) {
+            if (_pos >= _length) return -1;
+            int count = Math.min(len, _length - _pos);
+            System.arraycopy(buf, _pos, b, off, count);
+            _pos += count;
+            return count;
+        }
+
+        protected int _pos, _length;
+    }
+
+    protected Journal attach (int id, Channel channel) {
+        if (_channels.containsKey(id)) throw new IllegalArgumentException(
+            "Channel " + id + " already attached.");
+        _channels.put(id, channel);
+        if (_replayed) _conns.add(channel.connect(id));
+        return this;
+    }
+
+    /** Starts a new record on channel {@code id} with opcode {@code op}.
+      * @return the stream to which the record's arguments should be written. */
+    protected DataOutputStream begin (int id, int op) throws IOException {
+        _bytes.reset();
+        Codecs.writeVarint(_out, id);
+        _out.writeByte(op);
+        return _out;
+    }
+
+    /** Appends the record encoded since the last call to {@link #begin} to the log. */
+    protected void commit () throws IOException {
+        int length = _bytes.size(), needed = 4 + length;
+        if (_wbuf == null || _wpos + needed > _wbase + _wbuf.capacity()) {
+            if (_wbuf != null) _wbuf.force();
+            _wbase = _wpos;
+            _wbuf = _channel.map(FileChannel.MapMode.READ_WRITE, _wbase,
+                                 Math.max(_chunkSize, needed));
+        }
+        int offset = (int)(_wpos - _wbase);
+        ((Buffer)_wbuf).position(offset + 4);
+        _wbuf.put(_bytes.buffer(), 0, length);
+        // write the length last, which marks the record as complete
+        _wbuf.putInt(offset, length);
+        _wpos += needed;
+    }
+
+    protected static IOException badOp (int op) {
+        return new IOException("Unknown journal opcode " + op);
+    }
+
+    protected static RuntimeException failure (IOException ioe) {
+        return new RuntimeException("Journal I/O failure", ioe);
+    }
+
+    protected final File _path;
+    protected RandomAccessFile _file;
+    protected FileChannel _channel;
+    protected final int _chunkSize;
+    protected final Map<Integer,Channel> _channels = new HashMap<Integer,Channel>();
+    protected final List<Connection> _conns = new ArrayList<Connection>();
+    protected boolean _replayed;
+
+    protected final RecordOutput _bytes = new RecordOutput();
+    protected final DataOutputStream _out = new DataOutputStream(_bytes);
+    protected MappedByteBuffer _wbuf;
+    protected long _wbase, _wpos;
+
+    protected static final int DEFAULT_CHUNK_SIZE = 1 << 24;
+    protected static final int PUT = 1, REMOVE = 2, ADD = 3;
+}
@@ -24,7 +24,7 @@ abstract class MappedSignal<T> extends AbstractSignal<T>
     @Override
     protected void connectionAdded () {
         super.connectionAdded();
-        if (_conn == null) _conn = connect();
+        if (_conn == null) Cons.derive(_conn = connect(), this);
     }
 
     @Override
@@ -30,13 +30,13 @@ abstract class MappedValue<T> extends AbstractValue<T>
 
     protected void reconnect () {
         disconnect();
-        _conn = connect();
+        Cons.derive(_conn = connect(), this);
     }
 
     @Override
     protected void connectionAdded () {
         super.connectionAdded();
-        if (_conn == null) _conn = connect();
+        if (_conn == null) Cons.derive(_conn = connect(), this);
     }
 
     @Override
@@ -0,0 +1,166 @@
+//
+// React - a library for functional-reactive-like programming
+// Copyright (c) 2015, Three Rings Design, Inc. - All rights reserved.
+// http://github.com/threerings/react/blob/master/LICENSE
+
+package react;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A reactive queue to which any number of threads may offer elements, and from which a single
+ * consumer thread drains them in batches. Offering is lock-free: it swaps the new element onto
+ * the end of a linked list and does not notify listeners, except to emit {@link
+ * Listener#onReady} when an element is offered to a queue which has no undrained elements. The
+ * consumer then calls {@link #drainTo} to remove all (or a bounded number of) pending elements,
+ * which emits a single {@link Listener#onDrain} for the whole batch.
+ *
+ * <p>{@link Listener#onReady} is emitted on a producer thread (or, if the queue is dispatching a
+ * notification at the time, on the dispatching thread once it's done). It's a hint that the
+ * consumer should schedule a drain: it will be emitted at least once after an element is offered
+ * to an empty queue, and may occasionally be emitted when there is nothing left to drain.
+ * Elements may not be null.</p>
+ */
+public class MpscRQueue<E> extends Reactor
+{
+    /** Publishes queue events to listeners. */
+    public static abstract class Listener<E> implements Reactor.RListener
+    {
+        /** Notifies listener that elements are ready to be drained. */
+        public void onReady () {} // noop
+
+        /** Notifies listener of a batch of drained elements. The list is only valid for the
+          * duration of this call. */
+        public void onDrain (List<E> elems) {} // noop
+    }
+
+    /**
+     * Creates a multi-producer, single-consumer reactive queue.
+     */
+    public static <E> MpscRQueue<E> create () {
+        return new MpscRQueue<E>();
+    }
+
+    /**
+     * Creates a multi-producer, single-consumer reactive queue.
+     */
+    public MpscRQueue () {
+        Node<E> stub = new Node<E>(null);
+        _head.set(stub);
+        _tail = stub;
+    }
+
+    /**
+     * Connects the supplied listener to this queue, such that it will be notified when elements
+     * are ready and when they are drained.
+     * @return a connection instance which can be used to cancel the connection.
+     */
+    public Connection connect (Listener<? super E> listener) {
+        return addConnection(listener);
+    }
+
+    /**
+     * Disconnects the supplied listener from this queue if listen was called with it.
+     */
+    public void disconnect (Listener<? super E> listener) {
+        removeConnection(listener);
+    }
+
+    /**
+     * Adds {@code elem} to this queue. May be called from any thread.
+     * @return true, as this queue is unbounded.
+     */
+    public boolean offer (E elem) {
+        if (elem == null) throw new NullPointerException("Must supply non-null 'elem'.");
+        Node<E> node = new Node<E>(elem);
+        // the node is reachable by the consumer only once its predecessor is linked to it; until
+        // then, the consumer will see the queue as ending at that predecessor
+        _head.getAndSet(node).set(node);
+        // the consumer clears this flag before draining, so if we see it set, we know the
+        // consumer has yet to drain and will see our node when it does
+        if (!_ready.get() && _ready.compareAndSet(false, true)) notify(READY, null, null, null);
+        return true;
+    }
+
+    /**
+     * Returns true if there are no elements ready to be drained. Must only be called by the
+     * consumer thread.
+     */
+    public boolean isEmpty () {
+        return _tail.get() == null;
+    }
+
+    /**
+     * Removes all ready elements from this queue and appends them to {@code batch}, then emits
+     * {@link Listener#onDrain} with those elements. Must only be called by the consumer thread.
+     * @return the number of elements drained.
+     */
+    public int drainTo (List<E> batch) {
+        return drainTo(batch, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Removes up to {@code max} ready elements from this queue and appends them to {@code batch},
+     * then emits {@link Listener#onDrain} with those elements. If elements remain in the queue,
+     * {@link Listener#onReady} will be emitted again. Must only be called by the consumer thread.
+     * @return the number of elements drained.
+     */
+    public int drainTo (List<E> batch, int max) {
+        _ready.set(false);
+        int start = batch.size(), count = 0;
+        Node<E> tail = _tail, next = null;
+        while (count < max && (next = tail.get()) != null) {
+            batch.add(next.elem);
+            next.elem = null; // the drained node becomes our new stub
+            tail = next;
+            count++;
+        }
+        _tail = tail;
+
+        if (count > 0) notify(DRAIN, batch.subList(start, start + count), null, null);
+        // if we stopped short of draining everything, note that there's more to be had
+        if (tail.get() != null && _ready.compareAndSet(false, true)) {
+            notify(READY, null, null, null);
+        }
+        return count;
+    }
+
+    @Override Listener<E> placeholderListener () {
+        @SuppressWarnings("unchecked") Listener<E> p = (Listener<E>)NOOP;
+        return p;
+    }
+
+    /** A node in our linked list. Its next node is the referent of its atomic reference. */
+    protected static final class Node<E> extends AtomicReference<Node<E>> {
+        public E elem;
+        public Node (E elem) {
+            this.elem = elem;
+        }
+    }
+
+    /** The most recently offered node, to which producers append. */
+    protected final AtomicReference<Node<E>> _head = new AtomicReference<Node<E>>();
+
+    /** Whether onReady has been emitted since the consumer last started a drain. */
+    protected final AtomicBoolean _ready = new AtomicBoolean();
+
+    /** The most recently drained node (or our initial stub), which is accessed only by the
+      * consumer. */
+    protected Node<E> _tail;
+
+    protected static final Listener<Object> NOOP = new Listener<Object>() {};
+
+    @SuppressWarnings("unchecked") protected static final Notifier READY = new Notifier() {
+        public void notify (Object lner, Object ignored0, Object ignored1, Object ignored2) {
+            ((Listener<Object>)lner).onReady();
+        }
+    };
+
+    @SuppressWarnings("unchecked") protected static final Notifier DRAIN = new Notifier() {
+        public void notify (Object lner, Object elems, Object ignored0, Object ignored1) {
+            ((Listener<Object>)lner).onDrain((List<Object>)elems);
+        }
+    };
+}
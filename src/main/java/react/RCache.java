@@ -0,0 +1,438 @@
+//
+// React - a library for functional-reactive-like programming
+// Copyright (c) 2015, Three Rings Design, Inc. - All rights reserved.
+// http://github.com/threerings/react/blob/master/LICENSE
+
+package react;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A cache of values which are loaded asynchronously. For example:
+ *
+ * <pre>{@code
+ * RCache<UserId,Profile> profiles = RCache.create(new Function<UserId,RFuture<Profile>>() {
+ *     public RFuture<Profile> apply (UserId id) { return profileService.load(id); }
+ * }, 10000);
+ * profiles.get(id).onSuccess(...);
+ * }</pre>
+ *
+ * <p>Concurrent requests for a key which is being loaded share that load, rather than starting
+ * their own. Loaded values are retained until the total weight of the cache exceeds its maximum
+ * weight, whereupon the least recently used values are evicted. Loads which fail, or yield null,
+ * are not cached. The number of hits, misses and evictions are exposed as reactive values.</p>
+ *
+ * <p>A cache may be configured to {@link #refreshAfter} a time, whereupon its values are reloaded
+ * in the background once they are stale, and continue to be returned until their reloads
+ * complete.</p>
+ *
+ * <p>A cache may be used from any thread. Its state is guarded by the cache's monitor, which is
+ * released before listeners of its views and counters are notified. Changes are notified in the
+ * order in which they were made, one at a time, by whichever thread is notifying when they are
+ * made.</p>
+ */
+public class RCache<K,V>
+{
+    /** Computes the weight of cache entries. */
+    public interface Weigher<K,V> {
+        /** Returns the weight of the mapping from {@code key} to {@code value}, which must be
+          * non-negative and must not change while the value is cached. */
+        int weigh (K key, V value);
+    }
+
+    /**
+     * Creates a cache which loads values via {@code loader} and retains at most {@code maxSize}
+     * of them.
+     */
+    public static <K,V> RCache<K,V> create (Function<? super K, RFuture<V>> loader, long maxSize) {
+        return new RCache<K,V>(loader, maxSize, null);
+    }
+
+    /**
+     * Creates a cache which loads values via {@code loader} and retains values whose total
+     * weight, as computed by {@code weigher}, is at most {@code maxWeight}.
+     */
+    public static <K,V> RCache<K,V> create (Function<? super K, RFuture<V>> loader, long maxWeight,
+                                            Weigher<? super K, ? super V> weigher) {
+        if (weigher == null) throw new NullPointerException("Must supply non-null 'weigher'.");
+        return new RCache<K,V>(loader, maxWeight, weigher);
+    }
+
+    /**
+     * Creates a cache. See {@link #create}. A null weigher weighs every value as one.
+     */
+    public RCache (Function<? super K, RFuture<V>> loader, long maxWeight,
+                   Weigher<? super K, ? super V> weigher) {
+        if (maxWeight < 0) throw new IllegalArgumentException("maxWeight must be >= 0");
+        _loader = loader;
+        _maxWeight = maxWeight;
+        _weigher = weigher;
+        _weights = (weigher == null) ? null : new HashMap<K,Integer>();
+    }
+
+    /**
+     * Configures this cache to refresh values once they have been cached for {@code millis}
+     * milliseconds, as measured by {@code timer}. A stale value continues to be returned, and
+     * starts a background {@link #refresh} when it is requested via {@link #get}. A stale value
+     * whose {@link #getView} is connected is refreshed as soon as it becomes stale, so that its
+     * view stays fresh. This applies to values loaded after it is called.
+     * @return this cache, for chaining.
+     */
+    public synchronized RCache<K,V> refreshAfter (long millis, Timer timer) {
+        if (millis <= 0) throw new IllegalArgumentException("millis must be > 0");
+        if (timer == null) throw new NullPointerException("Must supply non-null 'timer'.");
+        _refreshAfter = millis;
+        _timer = timer;
+        return this;
+    }
+
+    /**
+     * Returns a future which completes with the value for {@code key}. If the value is cached,
+     * the future is already complete. Otherwise the value is loaded, unless it is already being
+     * loaded, in which case the future completes with the result of that load. Cancelling the
+     * returned future disconnects it from the load, but does not cancel the load, the result of
+     * which is cached as usual.
+     */
+    public RFuture<V> get (K key) {
+        if (key == null) throw new NullPointerException("Must supply non-null 'key'.");
+        V value;
+        RFuture<V> loading = null;
+        synchronized (this) {
+            value = _lru.get(key);
+            if (value != null) {
+                count(_hits, ++_hitCount);
+                // serve a stale value while it's reloaded in the background
+                if (_stale.contains(key) && !_loading.containsKey(key)) load(key);
+            } else {
+                loading = _loading.get(key);
+                if (loading != null) count(_hits, ++_hitCount);
+                else {
+                    count(_misses, ++_missCount);
+                    loading = load(key);
+                }
+            }
+        }
+        flush();
+        if (value != null) return RFuture.success(value);
+        RFuture.Derived<V> result = new RFuture.Derived<V>();
+        result.follow(loading, result);
+        return result;
+    }
+
+    /**
+     * Returns the cached value for {@code key}, or null if it is not cached. This does not load
+     * the value, nor count as a hit or miss.
+     */
+    public synchronized V getIfPresent (K key) {
+        return _lru.get(key);
+    }
+
+    /**
+     * Returns a view of the cached value for {@code key}, which is null until the value has been
+     * loaded. When the view is first connected to, the value is loaded if it is not already cached
+     * or loading. The view reports a change when the value is loaded, {@link #refresh}ed,
+     * evicted or invalidated.
+     */
+    public ValueView<V> getView (final K key) {
+        if (key == null) throw new NullPointerException("Must supply non-null 'key'.");
+        return new MappedValue<V>() {
+            @Override public V get () {
+                return getIfPresent(key);
+            }
+            @Override protected Connection connect () {
+                Connection conn;
+                synchronized (RCache.this) {
+                    conn = _values.connect(new RMap.Listener<K,V>() {
+                        @Override public void onPut (K pkey, V value, V ovalue) {
+                            if (key.equals(pkey)) notifyChange(value, ovalue);
+                        }
+                        @Override public void onRemove (K pkey, V ovalue) {
+                            if (key.equals(pkey)) notifyChange(null, ovalue);
+                        }
+                    });
+                    Integer viewers = _viewers.get(key);
+                    _viewers.put(key, (viewers == null) ? 1 : viewers + 1);
+                    if (!_loading.containsKey(key)) {
+                        if (!_lru.containsKey(key)) {
+                            count(_misses, ++_missCount);
+                            load(key);
+                        } else if (_stale.contains(key)) load(key);
+                    }
+                }
+                flush();
+                return conn;
+            }
+            @Override protected void disconnect () {
+                if (_conn != null) {
+                    synchronized (RCache.this) {
+                        Integer viewers = _viewers.remove(key);
+                        if (viewers != null && viewers > 1) _viewers.put(key, viewers - 1);
+                    }
+                }
+                super.disconnect();
+            }
+        };
+    }
+
+    /**
+     * Reloads the value for {@code key} in the background. Until the reload completes, the
+     * currently cached value (if any) continues to be returned by {@link #get}. If the reload
+     * fails, the cached value is retained. If the value is already being loaded, this returns
+     * that load.
+     */
+    public RFuture<V> refresh (K key) {
+        if (key == null) throw new NullPointerException("Must supply non-null 'key'.");
+        RFuture<V> loading;
+        synchronized (this) {
+            loading = _loading.get(key);
+            if (loading == null) loading = load(key);
+        }
+        flush();
+        return loading;
+    }
+
+    /**
+     * Removes the value for {@code key} from this cache. If it is being loaded, the result of that
+     * load will not be cached.
+     */
+    public void invalidate (K key) {
+        synchronized (this) {
+            _loading.remove(key);
+            if (_lru.containsKey(key)) remove(key);
+        }
+        flush();
+    }
+
+    /**
+     * Removes all values from this cache, and causes any in-progress loads to not be cached.
+     */
+    public void invalidateAll () {
+        synchronized (this) {
+            _loading.clear();
+            while (!_lru.isEmpty()) remove(_lru.keySet().iterator().next());
+        }
+        flush();
+    }
+
+    /** Returns the number of values in this cache. */
+    public synchronized int size () {
+        return _lru.size();
+    }
+
+    /** Returns the total weight of the values in this cache. */
+    public synchronized long weight () {
+        return _weight;
+    }
+
+    /** Returns a view of the number of requests for values which were cached or loading. */
+    public ValueView<Long> hits () {
+        return _hits;
+    }
+
+    /** Returns a view of the number of requests for values which had to be loaded. */
+    public ValueView<Long> misses () {
+        return _misses;
+    }
+
+    /** Returns a view of the number of values evicted to keep this cache within its weight. */
+    public ValueView<Long> evictions () {
+        return _evictions;
+    }
+
+    /** Starts loading the value for {@code key}. Must be called while holding our monitor. */
+    protected RFuture<V> load (final K key) {
+        RFuture<V> future;
+        try {
+            future = _loader.apply(key);
+        } catch (Throwable t) {
+            future = RFuture.failure(t);
+        }
+        final RFuture<V> loading = future;
+        _loading.put(key, loading);
+        // if the load is already complete, our listener is notified immediately, while we hold our
+        // monitor, in which case our caller flushes once it releases our monitor
+        _attaching = true;
+        try {
+            loading.onComplete(new SignalView.Listener<Try<V>>() {
+                public void onEmit (Try<V> result) {
+                    boolean flush;
+                    synchronized (RCache.this) {
+                        loaded(key, loading, result);
+                        flush = !_attaching;
+                    }
+                    if (flush) flush();
+                }
+            });
+        } finally {
+            _attaching = false;
+        }
+        return loading;
+    }
+
+    /** Caches the result of a load. Must be called while holding our monitor. */
+    protected void loaded (K key, RFuture<V> loading, Try<V> result) {
+        // if the load was invalidated (and perhaps restarted) in the meanwhile, ignore it
+        if (_loading.get(key) != loading) return;
+        _loading.remove(key);
+        if (result.isFailure() || result.get() == null) {
+            // if a viewed value failed to refresh, try again once another period has elapsed
+            if (_lru.containsKey(key) && _viewers.containsKey(key)) scheduleRefresh(key);
+            return;
+        }
+
+        V value = result.get();
+        int weight = 1;
+        if (_weigher != null) {
+            weight = _weigher.weigh(key, value);
+            if (weight < 0) throw new IllegalStateException("Negative weight " + weight);
+            Integer oweight = _weights.put(key, weight);
+            if (oweight != null) _weight -= oweight;
+        } else if (_lru.containsKey(key)) _weight -= 1;
+        _weight += weight;
+        put(key, value);
+        _stale.remove(key);
+        scheduleRefresh(key);
+
+        // the least recently used value is first in iteration order
+        while (_weight > _maxWeight && !_lru.isEmpty()) {
+            remove(_lru.keySet().iterator().next());
+            count(_evictions, ++_evictionCount);
+        }
+    }
+
+    /** Schedules the value for {@code key} to become stale, if we refresh values. Must be called
+      * while holding our monitor. */
+    protected void scheduleRefresh (final K key) {
+        if (_timer == null) return;
+        Refresh orefresh = _refreshes.remove(key);
+        if (orefresh != null) orefresh.task.close();
+        Refresh refresh = new Refresh(key);
+        _refreshes.put(key, refresh);
+        refresh.task = _timer.schedule(_refreshAfter, refresh);
+    }
+
+    /** Notes that the value for {@code key} is stale, and refreshes it if it's viewed. */
+    protected void staled (K key, Refresh refresh) {
+        synchronized (this) {
+            if (_refreshes.get(key) != refresh) return;
+            _refreshes.remove(key);
+            _stale.add(key);
+            if (_viewers.containsKey(key) && !_loading.containsKey(key)) load(key);
+        }
+        flush();
+    }
+
+    /** Maps {@code key} to {@code value}, and posts the change. Must be called while holding our
+      * monitor. */
+    protected void put (final K key, final V value) {
+        final V ovalue = _lru.put(key, value);
+        if (!Reactor.areEqual(value, ovalue)) post(new Runnable() {
+            public void run () { _values.emitPut(key, value, ovalue); }
+        });
+    }
+
+    /** Removes the value for {@code key}, and posts the change. Must be called while holding our
+      * monitor. */
+    protected void remove (final K key) {
+        _weight -= (_weights == null) ? 1 : _weights.remove(key);
+        Refresh refresh = _refreshes.remove(key);
+        if (refresh != null) refresh.task.close();
+        _stale.remove(key);
+        final V ovalue = _lru.remove(key);
+        post(new Runnable() {
+            public void run () { _values.emitRemove(key, ovalue); }
+        });
+    }
+
+    /** Posts the update of {@code counter} to {@code count}. Must be called while holding our
+      * monitor. */
+    protected void count (final Value<Long> counter, final long count) {
+        post(new Runnable() {
+            public void run () { counter.update(count); }
+        });
+    }
+
+    /** Posts a change to be notified once our monitor is released. Must be called while holding
+      * our monitor. */
+    protected void post (Runnable change) {
+        _changes.add(change);
+    }
+
+    /**
+     * Notifies the changes posted while our monitor was held, unless another thread is already
+     * doing so, in which case it will notify them. Must be called while not holding our monitor.
+     */
+    protected void flush () {
+        RuntimeException exn = null;
+        while (true) {
+            Runnable change;
+            synchronized (this) {
+                if (_flushing || _changes.isEmpty()) break;
+                change = _changes.poll();
+                _flushing = true;
+            }
+            try {
+                change.run();
+            } catch (RuntimeException re) {
+                if (exn != null) exn.addSuppressed(re);
+                else exn = re;
+            } finally {
+                synchronized (this) { _flushing = false; }
+            }
+        }
+        if (exn != null) throw exn;
+    }
+
+    /** A scheduled refresh of a cached value. */
+    protected final class Refresh implements Runnable {
+        public final K key;
+        public Closeable task;
+
+        public Refresh (K key) {
+            this.key = key;
+        }
+
+        public void run () {
+            staled(key, this);
+        }
+    }
+
+    protected final Function<? super K, RFuture<V>> _loader;
+    protected final long _maxWeight;
+    protected final Weigher<? super K, ? super V> _weigher;
+    protected final Map<K,Integer> _weights;
+
+    /** Our cached values, in least to most recently used order, and a reactive wrapper thereof,
+      * via which all changes are made. */
+    protected final LinkedHashMap<K,V> _lru = new LinkedHashMap<K,V>(16, 0.75f, true);
+    protected final RMap<K,V> _values = RMap.create(_lru);
+    protected long _weight;
+
+    /** The loads in progress, by key. */
+    protected final Map<K,RFuture<V>> _loading = new HashMap<K,RFuture<V>>();
+
+    /** The number of views connected to each key. */
+    protected final Map<K,Integer> _viewers = new HashMap<K,Integer>();
+
+    /** Our refresh policy, if any, the scheduled refreshes of our values, and the keys of our
+      * stale values. */
+    protected long _refreshAfter;
+    protected Timer _timer;
+    protected final Map<K,Refresh> _refreshes = new HashMap<K,Refresh>();
+    protected final Set<K> _stale = new HashSet<K>();
+
+    /** The changes to be notified once our monitor is released, and whether a thread is notifying
+      * them, or attaching to a load. */
+    protected final ArrayDeque<Runnable> _changes = new ArrayDeque<Runnable>();
+    protected boolean _flushing, _attaching;
+
+    protected long _hitCount, _missCount, _evictionCount;
+    protected final Value<Long> _hits = Value.create(0L);
+    protected final Value<Long> _misses = Value.create(0L);
+    protected final Value<Long> _evictions = Value.create(0L);
+}
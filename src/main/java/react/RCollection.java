@@ -28,15 +28,17 @@ public abstract class RCollection<T> extends Reactor {
     /**
      * Returns a reactive value which is true when this collection is empty, false otherwise.
      */
-    public ValueView<Boolean> isEmptyView () {
-        return sizeView().map(Functions.lessThanEqual(0));
+    public synchronized ValueView<Boolean> isEmptyView () {
+        if (_isEmptyView == null) _isEmptyView = sizeView().map(Functions.lessThanEqual(0));
+        return _isEmptyView;
     }
 
     /**
      * Returns a reactive value which is false when this collection is empty, true otherwise.
      */
-    public ValueView<Boolean> isNonEmptyView () {
-        return sizeView().map(Functions.greaterThan(0));
+    public synchronized ValueView<Boolean> isNonEmptyView () {
+        if (_isNonEmptyView == null) _isNonEmptyView = sizeView().map(Functions.greaterThan(0));
+        return _isNonEmptyView;
     }
 
     /**
@@ -47,6 +49,15 @@ public abstract class RCollection<T> extends Reactor {
         if (_sizeView != null) _sizeView.update(size());
     }
 
+    /**
+     * Returns the registry via which this collection shares its derived views, such as {@link
+     * RMap#getView}, among their callers.
+     */
+    synchronized SharedViews sharedViews () {
+        if (_sharedViews == null) _sharedViews = new SharedViews();
+        return _sharedViews;
+    }
+
     @Override protected void notify (Notifier notifier, Object a1, Object a2, Object a3) {
         try {
             super.notify(notifier, a1, a2, a3);
@@ -57,4 +68,8 @@ public abstract class RCollection<T> extends Reactor {
 
     /** Used to expose the size of this set as a value. Initialized lazily. */
     private Value<Integer> _sizeView;
+
+    /** Derived views, shared among their callers. Initialized lazily. */
+    private ValueView<Boolean> _isEmptyView, _isNonEmptyView;
+    private SharedViews _sharedViews;
 }
@@ -9,9 +9,12 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Represents an asynchronous result. Unlike standard Java futures, you cannot block on this
@@ -23,6 +26,15 @@ import java.util.Objects;
  * address of another object, flat map that into a request to subscribe to that object, and finally
  * pass the resulting object to some other code via a slot. Failure can be handled once for all of
  * these operations and you avoid nesting yourself three callbacks deep. </p>
+ *
+ * <p> A future which is no longer of interest may be {@link #cancel}ed. Cancelling a future
+ * derived via {@link #map}, {@link #flatMap}, {@link #transform}, {@link #recover} or {@link
+ * #timeout} disconnects it from the future from which it derives. A derived future which thereby
+ * loses its last listener (or which loses it in any other way before it completes) is cancelled
+ * in turn, so cancelling the end of a chain releases the whole chain. Futures which are not
+ * derived, such as the promise at the head of a chain, are never cancelled in this way, and keep
+ * their other listeners. The results of {@link #sequence}, {@link #collect} and {@link #traverse}
+ * likewise disconnect from their inputs when they are cancelled. </p>
  */
 public abstract class RFuture<T> extends Reactor {
 
@@ -90,7 +102,7 @@ public abstract class RFuture<T> extends Reactor {
 
     /** Returns a future containing a list of all success results from {@code futures} if all of
      * the futures complete successfully, or a {@link MultiFailureException} aggregating all
-     * failures, if any of the futures fails.
+     * failures (in the order of their futures), if any of the futures fails.
      *
      * <p>If {@code futures} is an ordered collection, the resulting list will match the order of
      * the futures. If not, result list is in {@code futures}' iteration order.</p> */
@@ -98,37 +110,59 @@ public abstract class RFuture<T> extends Reactor {
         // if we're passed an empty list of futures, succeed immediately with an empty list
         if (futures.isEmpty()) return RFuture.success(Collections.<T>emptyList());
 
-        final RPromise<List<T>> pseq = RPromise.create();
-        final int count = futures.size();
-        class Sequencer {
-            public synchronized void onResult (int idx, Try<T> result) {
-                if (result.isSuccess()) {
-                    _results[idx] = result.get();
-                } else {
-                    if (_error == null) _error = new MultiFailureException();
-                    _error.addFailure(result.getFailure());
-                }
-                if (--_remain == 0) {
-                    if (_error != null) pseq.fail(_error);
-                    else {
-                        @SuppressWarnings("unchecked") T[] results = (T[])_results;
-                        pseq.succeed(Arrays.asList(results));
+        Sequence<T> seq = new Sequence<T>(futures.size());
+        seq.addAll(futures);
+        return seq;
+    }
+
+    /** Applies {@code func} to each of {@code inputs}, with no more than {@code maxConcurrency} of
+      * the resulting futures incomplete at any one time, and returns a future containing the list
+      * of their results, as {@link #sequence(Collection)}. For example, to decode responses on a
+      * worker pool, at most four at a time:
+      *
+      * <pre>{@code
+      * RFuture.traverse(responses, new Function<Response,RFuture<Doc>>() {
+      *     public RFuture<Doc> apply (Response rsp) {
+      *         return fetch(rsp).mapAsync(DECODE, pool);
+      *     }
+      * }, 4);
+      * }</pre>
+      *
+      * <p>If the returned future is cancelled, no further inputs are passed to {@code func}.</p> */
+    public static <T,R> RFuture<List<R>> traverse (
+        Collection<? extends T> inputs, Function<? super T, RFuture<R>> func, int maxConcurrency) {
+        if (maxConcurrency <= 0) throw new IllegalArgumentException("maxConcurrency must be > 0");
+        if (inputs.isEmpty()) return RFuture.success(Collections.<R>emptyList());
+        Traversal<T,R> trav = new Traversal<T,R>(inputs.toArray(), func);
+        for (int ii = 0, ll = Math.min(maxConcurrency, inputs.size()); ii < ll; ii++) {
+            trav.release();
+        }
+        return trav;
+    }
+
+    /** Applies {@code func} to each of {@code inputs} on {@code exec}, running no more than {@code
+      * maxConcurrency} applications at any one time, and returns a future containing the list of
+      * their results, as {@link #sequence(Collection)}. */
+    public static <T,R> RFuture<List<R>> traverse (Collection<? extends T> inputs,
+                                                   final Function<? super T, R> func,
+                                                   int maxConcurrency, final Executor exec) {
+        return traverse(inputs, new Function<T,RFuture<R>>() {
+            public RFuture<R> apply (final T input) {
+                final RPromise<R> result = RPromise.create();
+                exec.execute(new Runnable() {
+                    public void run () {
+                        Try<R> value;
+                        try {
+                            value = Try.<R>success(func.apply(input));
+                        } catch (Throwable t) {
+                            value = Try.failure(t);
+                        }
+                        result.complete(value);
                     }
-                }
+                });
+                return result;
             }
-            protected final Object[] _results = new Object[count];
-            protected int _remain = count;
-            protected MultiFailureException _error;
-        }
-        final Sequencer seq = new Sequencer();
-        Iterator<? extends RFuture<T>> iter = futures.iterator();
-        for (int ii = 0; iter.hasNext(); ii++) {
-            final int idx = ii;
-            iter.next().onComplete(new SignalView.Listener<Try<T>>() {
-                public void onEmit (Try<T> result) { seq.onResult(idx, result); }
-            });
-        }
-        return pseq;
+        }, maxConcurrency);
     }
 
     /** Returns a future containing the results of {@code a} and {@code b} if both futures complete
@@ -164,24 +198,24 @@ public abstract class RFuture<T> extends Reactor {
     }
 
     /** Returns a future containing a list of all success results from {@code futures}. Any failure
-     * results are simply omitted from the list. The success results are also in no particular
-     * order. If all of {@code futures} fail, the resulting list will be empty. */
+     * results are simply omitted from the list. The success results are in {@code futures}'
+     * iteration order. If all of {@code futures} fail, the resulting list will be empty. */
     public static <T> RFuture<Collection<T>> collect (Collection<? extends RFuture<T>> futures) {
         // if we're passed an empty list of futures, succeed immediately with an empty list
         if (futures.isEmpty()) return RFuture.<Collection<T>>success(Collections.<T>emptyList());
 
-        final RPromise<Collection<T>> pseq = RPromise.create();
-        final int count = futures.size();
-        SignalView.Listener<Try<T>> collector = new SignalView.Listener<Try<T>>() {
-            public synchronized void onEmit (Try<T> result) {
-                if (result.isSuccess()) _results.add(result.get());
-                if (--_remain == 0) pseq.succeed(_results);
+        FanIn<T,Collection<T>> coll = new FanIn<T,Collection<T>>(futures.size()) {
+            @Override protected Try<Collection<T>> finish (Object[] results) {
+                List<T> values = new ArrayList<T>(results.length);
+                for (Object result : results) {
+                    @SuppressWarnings("unchecked") Try<T> tresult = (Try<T>)result;
+                    if (tresult.isSuccess()) values.add(tresult.get());
+                }
+                return Try.<Collection<T>>success(values);
             }
-            protected final List<T> _results = new ArrayList<T>();
-            protected int _remain = count;
         };
-        for (RFuture<T> future : futures) future.onComplete(collector);
-        return pseq;
+        coll.addAll(futures);
+        return coll;
     }
 
     /** Causes {@code slot} to be notified if/when this future is completed with success. If it has
@@ -210,12 +244,26 @@ public abstract class RFuture<T> extends Reactor {
      * completed, the slot will be notified immediately.
      * @return this future for chaining. */
     public RFuture<T> onComplete (final SignalView.Listener<? super Try<T>> slot) {
-        Try<T> result = result();
-        if (result != null) slot.onEmit(result);
-        else addConnection(slot);
+        listen(slot);
         return this;
     }
 
+    /** Cancels this future, if it is not yet complete. See {@link RPromise#cancel}. Futures which
+      * are not promises cannot be cancelled.
+      * @return true if this future was cancelled, false if it was complete or can't be
+      * cancelled. */
+    public boolean cancel () {
+        return false;
+    }
+
+    /** Returns whether this future was cancelled, that is, whether it has failed with a {@link
+      * CancellationException}. */
+    public boolean isCancelled () {
+        Try<T> result = result();
+        return result != null && result.isFailure() &&
+            result.getFailure() instanceof CancellationException;
+    }
+
     /** Returns a value that indicates whether this future has completed. */
     public ValueView<Boolean> isComplete () {
         if (_isCompleteView == null) {
@@ -247,17 +295,17 @@ public abstract class RFuture<T> extends Reactor {
 
     /** Transforms this future by mapping its result upon arrival. */
     public <R> RFuture<R> transform (final Function<Try<? super T>,Try<R>> func) {
-        final RPromise<R> xf = RPromise.create();
-        onComplete(new SignalView.Listener<Try<T>>() {
+        final Derived<R> xf = new Derived<R>();
+        xf.follow(this, new SignalView.Listener<Try<T>>() {
             public void onEmit (Try<T> result) {
                 Try<R> xfResult;
                 try {
                     xfResult = func.apply(result);
                 } catch (Throwable t) {
-                    xf.fail(t);
+                    xf.settle(Try.<R>failure(t));
                     return;
                 }
-                xf.complete(xfResult);
+                xf.settle(xfResult);
             }
         });
         return xf;
@@ -289,25 +337,88 @@ public abstract class RFuture<T> extends Reactor {
      * original result or the mapped result are both dispatched to the mapped result. This is
      * useful for chaining asynchronous actions. It's also known as monadic bind. */
     public <R> RFuture<R> flatMap (final Function<? super T, RFuture<R>> func) {
-        final RPromise<R> mapped = RPromise.create();
-        onComplete(new SignalView.Listener<Try<T>>() {
+        final Derived<R> mapped = new Derived<R>();
+        mapped.follow(this, new SignalView.Listener<Try<T>>() {
             public void onEmit (Try<T> result) {
-                if (result.isFailure()) mapped.fail(result.getFailure());
+                if (result.isFailure()) mapped.settle(Try.<R>failure(result.getFailure()));
                 else {
                     RFuture<R> mappedResult;
                     try {
                         mappedResult = func.apply(result.get());
                     } catch (Throwable t) {
-                        mapped.fail(t);
+                        mapped.settle(Try.<R>failure(t));
                         return;
                     }
-                    mappedResult.onComplete(mapped.completer());
+                    mapped.follow(mappedResult, mapped);
                 }
             }
         });
         return mapped;
     }
 
+    /** Maps the value of a successful result using {@code func}, which is run on {@code exec},
+      * rather than on the thread that completes this future. Failures are passed along without
+      * involving {@code exec}. If the returned future is cancelled before {@code exec} gets around
+      * to running {@code func}, it is not run. */
+    public <R> RFuture<R> mapAsync (final Function<? super T, R> func, final Executor exec) {
+        final Derived<R> mapped = new Derived<R>();
+        mapped.follow(this, new SignalView.Listener<Try<T>>() {
+            public void onEmit (final Try<T> result) {
+                if (result.isFailure()) mapped.settle(Try.<R>failure(result.getFailure()));
+                else mapped.execute(exec, new Runnable() {
+                    public void run () {
+                        if (mapped.isCompleteNow()) return;
+                        Try<R> value;
+                        try {
+                            value = Try.<R>success(func.apply(result.get()));
+                        } catch (Throwable t) {
+                            value = Try.failure(t);
+                        }
+                        mapped.settle(value);
+                    }
+                });
+            }
+        });
+        return mapped;
+    }
+
+    /** Maps a successful result to a new result using {@code func}, which is run on {@code exec},
+      * as {@link #flatMap}. See {@link #mapAsync}. */
+    public <R> RFuture<R> flatMapAsync (final Function<? super T, RFuture<R>> func,
+                                        final Executor exec) {
+        final Derived<R> mapped = new Derived<R>();
+        mapped.follow(this, new SignalView.Listener<Try<T>>() {
+            public void onEmit (final Try<T> result) {
+                if (result.isFailure()) mapped.settle(Try.<R>failure(result.getFailure()));
+                else mapped.execute(exec, new Runnable() {
+                    public void run () {
+                        if (mapped.isCompleteNow()) return;
+                        RFuture<R> mappedResult;
+                        try {
+                            mappedResult = func.apply(result.get());
+                        } catch (Throwable t) {
+                            mapped.settle(Try.<R>failure(t));
+                            return;
+                        }
+                        mapped.follow(mappedResult, mapped);
+                    }
+                });
+            }
+        });
+        return mapped;
+    }
+
+    /** Returns a future which completes with the result of this future, or fails with a {@link
+      * TimeoutException} if this future does not complete within {@code millis} milliseconds, as
+      * measured by {@code timer}. On timing out, the returned future disconnects from this future
+      * as if it had been {@link #cancel}ed. */
+    public RFuture<T> timeout (long millis, Timer timer) {
+        Timeout<T> timed = new Timeout<T>(millis);
+        timed._task = timer.schedule(millis, timed);
+        timed.follow(this, timed);
+        return timed;
+    }
+
     /** Returns the result of this future, or null if it is not yet complete.
       *
       * <p><em>NOTE:</em> don't use this method! You should wire up reactions to the completion of
@@ -320,6 +431,298 @@ public abstract class RFuture<T> extends Reactor {
       */
     public abstract Try<T> result ();
 
+    /** Causes {@code slot} to be notified when this future is completed, as {@link #onComplete}.
+      * @return a handle which disconnects {@code slot}, or a noop if it was notified
+      * immediately. */
+    public Closeable listen (SignalView.Listener<? super Try<T>> slot) {
+        Try<T> result = result();
+        if (result == null) return addConnection(slot);
+        slot.onEmit(result);
+        return Closeable.Util.NOOP;
+    }
+
+    /**
+     * A promise whose result derives from another future, its source. It remembers its source and
+     * the handle of the listener it has added to it, so that if it is cancelled (or otherwise
+     * aborted) before its source completes, it can disconnect that listener. Its source is not
+     * cancelled directly, but if the source is itself derived and that listener was its last, it
+     * is {@link #abandoned} and cancels itself in turn. A derived future which loses its last
+     * listener is likewise cancelled.
+     */
+    protected static class Derived<T> extends RPromise<T> implements SignalView.Listener<Try<T>> {
+
+        /** Connects {@code slot} to {@code source} and makes it our source, replacing any previous
+          * source (which must be complete). {@code slot} must eventually {@link #settle} us. */
+        public <S> void follow (RFuture<S> source, SignalView.Listener<? super Try<S>> slot) {
+            synchronized (this) {
+                _source = source;
+                _upstream = null;
+            }
+            Closeable upstream = source.listen(slot);
+            synchronized (this) {
+                if (_source == source && !isCompleteNow()) {
+                    _upstream = upstream;
+                    return;
+                }
+            }
+            // we were aborted (or moved on to a new source) while connecting, so disconnect
+            upstream.close();
+        }
+
+        /** Completes this future with {@code result}, obtained from its source, unless it has
+          * already been aborted. */
+        public void settle (Try<T> result) {
+            // our source is complete, so release it before our listeners have a chance to throw
+            synchronized (this) {
+                _source = null;
+                _upstream = null;
+            }
+            tryComplete(result);
+        }
+
+        /** Fails this future with {@code cause} and disconnects it from its source, unless it has
+          * already completed. */
+        public void abort (Throwable cause) {
+            if (tryComplete(Try.<T>failure(cause))) detach();
+        }
+
+        /** Runs {@code task} on {@code exec}, failing this future if {@code exec} rejects it. */
+        public void execute (Executor exec, Runnable task) {
+            try {
+                exec.execute(task);
+            } catch (RuntimeException re) {
+                settle(Try.<T>failure(re));
+            }
+        }
+
+        // from interface SignalView.Listener
+        public void onEmit (Try<T> result) {
+            settle(result);
+        }
+
+        @Override protected void cancelled () {
+            detach();
+        }
+
+        @Override protected void abandoned () {
+            cancel();
+        }
+
+        protected void detach () {
+            Closeable upstream;
+            synchronized (this) {
+                upstream = _upstream;
+                _source = null;
+                _upstream = null;
+            }
+            if (upstream != null) upstream.close();
+        }
+
+        protected RFuture<?> _source;
+        protected Closeable _upstream;
+    }
+
+    /** A derived future which fails if its source does not complete in time. It is the action
+      * scheduled with the timer, and closes the timer task once it is complete. */
+    protected static final class Timeout<T> extends Derived<T> implements Runnable {
+        public Timeout (long millis) {
+            _millis = millis;
+        }
+
+        public void run () {
+            abort(new TimeoutException("Timed out after " + _millis + "ms"));
+        }
+
+        @Override public void settle (Try<T> result) {
+            _task.close();
+            super.settle(result);
+        }
+
+        @Override protected void cancelled () {
+            _task.close();
+            super.cancelled();
+        }
+
+        protected final long _millis;
+        protected volatile Closeable _task;
+    }
+
+    /** Computes the result of {@link #sequence(Collection)}. */
+    protected static class Sequence<T> extends FanIn<T,List<T>> {
+        public Sequence (int count) {
+            super(count);
+        }
+
+        @Override protected Try<List<T>> finish (Object[] results) {
+            MultiFailureException error = null;
+            for (int ii = 0; ii < results.length; ii++) {
+                @SuppressWarnings("unchecked") Try<T> result = (Try<T>)results[ii];
+                if (result.isSuccess()) results[ii] = result.get();
+                else {
+                    if (error == null) error = new MultiFailureException();
+                    error.addFailure(result.getFailure());
+                }
+            }
+            if (error != null) return Try.failure(error);
+            @SuppressWarnings("unchecked") T[] values = (T[])results;
+            return Try.success(Arrays.asList(values));
+        }
+    }
+
+    /**
+     * Computes the result of {@link #traverse}. Each completed input releases a permit to start
+     * the next, and permits are consumed in a loop by whichever thread releases one when none are
+     * outstanding, so that inputs which complete immediately don't recurse.
+     */
+    protected static final class Traversal<T,R> extends Sequence<R> {
+        public Traversal (Object[] inputs, Function<? super T, RFuture<R>> func) {
+            super(inputs.length);
+            _inputs = inputs;
+            _func = func;
+        }
+
+        /** Allows one more input to be started. */
+        public void release () {
+            if (_permits.getAndIncrement() > 0) return;
+            do {
+                int idx = _next.getAndIncrement();
+                if (idx < _inputs.length) start(idx);
+            } while (_permits.decrementAndGet() > 0);
+        }
+
+        @Override public void onResult (int idx, Try<R> result) {
+            // release our permit even if recording the result throws, lest we stall
+            try {
+                super.onResult(idx, result);
+            } finally {
+                release();
+            }
+        }
+
+        protected void start (int idx) {
+            @SuppressWarnings("unchecked") T input = (T)_inputs[idx];
+            _inputs[idx] = null;
+            // if we've been cancelled, fail the remaining inputs without starting them
+            if (isCompleteNow()) {
+                onResult(idx, Try.<R>failure(new CancellationException()));
+                return;
+            }
+            RFuture<R> future;
+            try {
+                future = _func.apply(input);
+            } catch (Throwable t) {
+                future = RFuture.failure(t);
+            }
+            awaitInput(idx, future);
+        }
+
+        protected final Object[] _inputs;
+        protected final Function<? super T, RFuture<R>> _func;
+        protected final AtomicInteger _next = new AtomicInteger(), _permits = new AtomicInteger();
+    }
+
+    /**
+     * A promise that completes once all of a fixed number of input futures complete. Results are
+     * recorded in a pre-sized array and counted down atomically, so inputs may complete on any
+     * thread without locking. Inputs that are already complete are handled immediately, and
+     * inputs that are promises are awaited via a waiter which carries the input's index, rather
+     * than via a separate listener. If it is cancelled, it disconnects from the inputs which have
+     * yet to complete.
+     */
+    protected static abstract class FanIn<T,R> extends RPromise<R> {
+        public FanIn (int count) {
+            _results = new Object[count];
+            _waiters = new Closeable[count];
+            _remain = new AtomicInteger(count);
+        }
+
+        /** Awaits the completion of {@code futures}, which must contain exactly as many futures as
+          * this fan-in was created to await. */
+        public void addAll (Collection<? extends RFuture<T>> futures) {
+            int idx = 0;
+            for (RFuture<T> future : futures) awaitInput(idx++, future);
+        }
+
+        /** Records the result of the {@code idx}th input. */
+        public void onResult (int idx, Try<T> result) {
+            _waiters[idx] = null;
+            _results[idx] = result;
+            // the decrement publishes our write to the array to whichever thread decrements last
+            if (_remain.decrementAndGet() == 0) complete(finish(_results));
+        }
+
+        /** Computes our result from the {@link Try} results of our inputs, which are supplied in
+          * order. The array may be reused to hold the result. */
+        protected abstract Try<R> finish (Object[] results);
+
+        /** Awaits the completion of {@code future}, our {@code idx}th input. */
+        protected void awaitInput (int idx, RFuture<T> future) {
+            Try<T> result = future.result();
+            if (result == null) {
+                Input<T> input = new Input<T>(this, idx);
+                Closeable handle = input;
+                if (future instanceof RPromise<?>) {
+                    input.owner = (RPromise<T>)future;
+                    result = input.owner.await(input);
+                } else handle = future.listen(input);
+                if (result == null) {
+                    boolean cancelled;
+                    synchronized (this) {
+                        cancelled = isCompleteNow();
+                        if (!cancelled) _waiters[idx] = handle;
+                    }
+                    // if we were cancelled while awaiting, the cancellation missed this input
+                    if (cancelled) handle.close();
+                }
+            }
+            if (result != null) onResult(idx, result);
+        }
+
+        @Override protected void cancelled () {
+            Closeable[] waiters;
+            synchronized (this) {
+                waiters = _waiters.clone();
+                Arrays.fill(_waiters, null);
+            }
+            for (Closeable waiter : waiters) if (waiter != null) waiter.close();
+        }
+
+        protected final Object[] _results;
+        protected final AtomicInteger _remain;
+        /** The handles of the waiters on our incomplete inputs, used to disconnect them if we're
+          * cancelled. */
+        protected final Closeable[] _waiters;
+    }
+
+    /** Delivers the result of an input future to a {@link FanIn}. It is also the handle via which
+      * it is disconnected from that future, if it is awaiting a promise. */
+    protected static final class Input<T> extends RPromise.Waiter<T>
+        implements SignalView.Listener<Try<T>>, Closeable {
+        /** The promise which we're awaiting, if any. */
+        public RPromise<T> owner;
+
+        public Input (FanIn<T,?> fanIn, int idx) {
+            _fanIn = fanIn;
+            _idx = idx;
+        }
+        @Override public void onComplete (Try<T> result) {
+            if (!_closed) _fanIn.onResult(_idx, result);
+        }
+        @Override public boolean isLive () {
+            return !_closed;
+        }
+        public void onEmit (Try<T> result) {
+            onComplete(result);
+        }
+        public void close () {
+            _closed = true;
+            if (owner != null) owner.prune();
+        }
+        protected volatile boolean _closed;
+        protected final FanIn<T,?> _fanIn;
+        protected final int _idx;
+    }
+
     @Override RListener placeholderListener () {
         /*@SuppressWarnings("unchecked")*/ RListener p = (RListener)Slots.NOOP;
         return p;
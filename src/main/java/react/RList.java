@@ -7,6 +7,7 @@ package react;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
@@ -69,6 +70,19 @@ public class RList<E> extends RCollection<E> implements List<E>
         return new RList<E>(impl);
     }
 
+    /**
+     * Creates a reactive list backed by a persistent vector trie, which supports O(1) {@link
+     * #snapshot}s. Getting, setting and adding or removing at the end of the list are
+     * O(log<sub>32</sub> n). Adding or removing elsewhere rebuilds the trie, so is O(n) with a
+     * larger constant than {@link ArrayList}, and {@link #setAll} or {@link
+     * #addAll(int,Collection)} may then be quadratic. A persistent list thus suits lists which
+     * are appended to and snapshotted; a large list which is edited in the middle is better
+     * created via {@link #create()}, at the cost of copying its snapshots.
+     */
+    public static <E> RList<E> createPersistent () {
+        return create(new TrieList<E>());
+    }
+
     /**
      * Creates a reactive list with the supplied underlying list implementation.
      */
@@ -100,6 +114,17 @@ public class RList<E> extends RCollection<E> implements List<E>
        removeConnection(listener);
    }
 
+    /**
+     * Returns an immutable snapshot of the current contents of this list. If this list was created
+     * via {@link #createPersistent}, this is O(1), and the snapshot may be taken and read on any
+     * thread while this list continues to be mutated. Otherwise the contents are copied, and this
+     * must be called on a thread that may safely read this list.
+     */
+    public List<E> snapshot () {
+        if (_impl instanceof TrieList<?>) return ((TrieList<E>)_impl).snapshot();
+        return Collections.unmodifiableList(new ArrayList<E>(_impl));
+    }
+
    /**
      * Removes the supplied element from the list, forcing a notification to the listeners
      * regardless of whether the element was in the list or not.
@@ -113,6 +138,67 @@ public class RList<E> extends RCollection<E> implements List<E>
         return (index >= 0);
     }
 
+    /**
+     * Replaces the contents of this list with {@code elems}, emitting only the notifications
+     * needed to transform the current contents into the new contents. Elements are compared via
+     * {@link Object#equals}. See {@link #setAll(List,boolean)}.
+     */
+    public void setAll (List<? extends E> elems) {
+        setAll(elems, false);
+    }
+
+    /**
+     * Replaces the contents of this list with {@code elems}, emitting only the notifications
+     * needed to transform the current contents into the new contents. A minimal edit script is
+     * computed (per Myers' O(ND) difference algorithm) and applied via {@link #add(int,Object)},
+     * {@link #remove(int)} and {@link #set(int,Object)}. A removal and an addition at the same
+     * position are coalesced into a single set. Thus replacing a large list with a copy that
+     * differs in three elements results in three notifications, rather than a removal for every
+     * existing element followed by an addition for every new element.
+     *
+     * <p>If the lists differ by more than {@link Diff#MAX_EDITS} edits, the minimal script is not
+     * computed and the lists are instead reconciled element by element.</p>
+     *
+     * @param identity if true, elements are compared by reference rather than via {@link
+     * Object#equals}. Elements which are equal but not identical will then be replaced.
+     */
+    public void setAll (List<? extends E> elems, boolean identity) {
+        checkMutate();
+        Object[] oelems = _impl.toArray(), nelems = elems.toArray();
+
+        // trim the common prefix and suffix, which is generally most of the list
+        int start = 0, oend = oelems.length, nend = nelems.length;
+        while (start < oend && start < nend && same(oelems[start], nelems[start], identity)) {
+            start++;
+        }
+        while (oend > start && nend > start && same(oelems[oend-1], nelems[nend-1], identity)) {
+            oend--;
+            nend--;
+        }
+
+        int[] edits = Diff.compute(oelems, start, oend, nelems, start, nend, identity);
+        if (edits == null) {
+            // too many differences, just reconcile the lists element by element
+            int common = Math.min(oend, nend);
+            for (int ii = start; ii < common; ii++) replace(ii, nelems[ii], identity);
+            for (int ii = oend; ii > common; ii--) remove(common);
+            for (int ii = common; ii < nend; ii++) add(ii, elem(nelems[ii]));
+            return;
+        }
+
+        // each edit run removes the old elements in [ostart, ostart+ocount) and adds the new
+        // elements in [nstart, nstart+ncount); the runs are in ascending order
+        int delta = 0;
+        for (int ii = 0; ii < edits.length; ii += 4) {
+            int ostart = edits[ii], ocount = edits[ii+1], nstart = edits[ii+2];
+            int ncount = edits[ii+3], index = ostart + delta, sets = Math.min(ocount, ncount);
+            for (int jj = 0; jj < sets; jj++) replace(index+jj, nelems[nstart+jj], identity);
+            for (int jj = sets; jj < ocount; jj++) remove(index+sets);
+            for (int jj = sets; jj < ncount; jj++) add(index+jj, elem(nelems[nstart+jj]));
+            delta += ncount - ocount;
+        }
+    }
+
     // List methods that perform reactive functions in addition to calling through
     @Override public boolean add (E element) {
         add(size(), element);
@@ -308,6 +394,95 @@ public class RList<E> extends RCollection<E> implements List<E>
         notify(REMOVE, index, elem, null);
     }
 
+    protected void replace (int index, Object elem, boolean identity) {
+        if (!same(_impl.get(index), elem, identity)) set(index, elem(elem));
+    }
+
+    @SuppressWarnings("unchecked") protected E elem (Object elem) {
+        return (E)elem;
+    }
+
+    protected static boolean same (Object o1, Object o2, boolean identity) {
+        return identity ? o1 == o2 : areEqual(o1, o2);
+    }
+
+    /** Computes minimal edit scripts between two lists using Myers' O(ND) algorithm. */
+    protected static class Diff {
+        /** The maximum number of edits we'll compute before giving up. The trace of the search
+          * requires O(D^2) memory, so we don't want this to get too large. */
+        public static final int MAX_EDITS = 1024;
+
+        /**
+         * Computes the edits needed to transform {@code olds[ostart, oend)} into {@code
+         * news[nstart, nend)}.
+         *
+         * @return the edit runs, in ascending order, as a flattened array of {@code (old start,
+         * old count, new start, new count)} quads, or null if the lists differ by more than {@link
+         * #MAX_EDITS} edits.
+         */
+        public static int[] compute (Object[] olds, int ostart, int oend,
+                                     Object[] news, int nstart, int nend, boolean identity) {
+            int n = oend - ostart, m = nend - nstart, max = Math.min(n + m, MAX_EDITS);
+            // v[off+k] is the furthest x reached on diagonal k (where y = x - k)
+            int off = max + 1;
+            int[] v = new int[2*max + 3];
+            List<int[]> trace = new ArrayList<int[]>();
+            int depth = -1;
+            search: for (int d = 0; d <= max; d++) {
+                // record v as of the end of the previous step, over the diagonals we may consult
+                int[] snap = new int[2*d + 3];
+                System.arraycopy(v, off-d-1, snap, 0, snap.length);
+                trace.add(snap);
+                for (int k = -d; k <= d; k += 2) {
+                    int x;
+                    if (k == -d || (k != d && v[off+k-1] < v[off+k+1])) x = v[off+k+1]; // down
+                    else x = v[off+k-1] + 1; // right
+                    int y = x - k;
+                    while (x < n && y < m &&
+                           same(olds[ostart+x], news[nstart+y], identity)) { x++; y++; }
+                    v[off+k] = x;
+                    if (x >= n && y >= m) {
+                        depth = d;
+                        break search;
+                    }
+                }
+            }
+            if (depth < 0) return null;
+
+            // walk back through the trace, accumulating edit runs (in descending order)
+            List<int[]> runs = new ArrayList<int[]>();
+            int[] run = null;
+            int x = n, y = m;
+            for (int d = depth; d > 0; d--) {
+                int[] snap = trace.get(d);
+                int k = x - y, soff = d + 1;
+                boolean down = (k == -d || (k != d && snap[soff+k-1] < snap[soff+k+1]));
+                int pk = down ? k+1 : k-1, px = snap[soff+pk], py = px - pk;
+                // step d made one edit from (px,py) to (ex,ey) and then followed a snake to (x,y);
+                // if the snake was non-empty, this edit starts a new run
+                int ex = down ? px : px+1, ey = down ? py+1 : py;
+                if (run == null || ex != x || ey != y) {
+                    run = new int[] { ex, 0, ey, 0 };
+                    runs.add(run);
+                }
+                if (down) { run[2] = py; run[3]++; } // added news[py]
+                else      { run[0] = px; run[1]++; } // removed olds[px]
+                x = px;
+                y = py;
+            }
+
+            int[] edits = new int[runs.size()*4];
+            for (int ii = runs.size()-1, jj = 0; ii >= 0; ii--) {
+                int[] r = runs.get(ii);
+                edits[jj++] = ostart + r[0];
+                edits[jj++] = r[1];
+                edits[jj++] = nstart + r[2];
+                edits[jj++] = r[3];
+            }
+            return edits;
+        }
+    }
+
     /** Contains our underlying elements. */
     protected List<E> _impl;
 
@@ -8,9 +8,11 @@ package react;
 import java.util.AbstractCollection;
 import java.util.AbstractSet;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 
@@ -67,6 +69,15 @@ public class RMap<K,V> extends RCollection<Map.Entry<K,V>> implements Map<K,V>
         return new RMap<K,V>(impl);
     }
 
+    /**
+     * Creates a reactive map backed by a persistent hash trie, which supports O(1) {@link
+     * #snapshot}s. Lookups and updates are O(log<sub>32</sub> n) rather than O(1), and iteration
+     * order is unspecified.
+     */
+    public static <K,V> RMap<K,V> createPersistent () {
+        return create(new TrieMap<K,V>());
+    }
+
     /**
      * Creates a reactive map with the supplied underlying map implementation.
      */
@@ -135,15 +146,30 @@ public class RMap<K,V> extends RCollection<Map.Entry<K,V>> implements Map<K,V>
         return ovalue;
     }
 
+    /**
+     * Returns an immutable snapshot of the current contents of this map. If this map was created
+     * via {@link #createPersistent}, this is O(1), and the snapshot may be taken and read on any
+     * thread while this map continues to be mutated. Otherwise the contents are copied, and this
+     * must be called on a thread that may safely read this map.
+     */
+    public Map<K,V> snapshot () {
+        if (_impl instanceof TrieMap<?,?>) return ((TrieMap<K,V>)_impl).snapshot();
+        return Collections.unmodifiableMap(new LinkedHashMap<K,V>(_impl));
+    }
+
     /**
      * Returns a value view that models whether the specified key is contained in this map. The
      * view will report a change when a mapping for the specified key is added or removed. Note:
      * this view only works on maps that <em>do not</em> contain mappings to {@code null}. The view
-     * will retain a connection to this map for as long as it has connections of its own.
+     * will retain a connection to this map for as long as it has connections of its own, and
+     * while it does, it is shared by all callers who request a view of the same key.
      */
     public ValueView<Boolean> containsKeyView (final K key) {
         if (key == null) throw new NullPointerException("Must supply non-null 'key'.");
-        return new MappedValue<Boolean>() {
+        SharedViews views = sharedViews();
+        ValueView<Boolean> view = views.get(CONTAINS_KEY, key);
+        if (view != null) return view;
+        return new SharedViews.View<Boolean>(views, CONTAINS_KEY, key) {
             @Override public Boolean get () {
                 return containsKey(key);
             }
@@ -163,11 +189,15 @@ public class RMap<K,V> extends RCollection<Map.Entry<K,V>> implements Map<K,V>
     /**
      * Returns a value view that models the mapping of the specified key in this map. The view will
      * report a change when the mapping for the specified key is changed or removed. The view will
-     * retain a connection to this map for as long as it has connections of its own.
+     * retain a connection to this map for as long as it has connections of its own, and while it
+     * does, it is shared by all callers who request a view of the same key.
      */
     public ValueView<V> getView (final K key) {
         if (key == null) throw new NullPointerException("Must supply non-null 'key'.");
-        return new MappedValue<V>() {
+        SharedViews views = sharedViews();
+        ValueView<V> view = views.get(GET, key);
+        if (view != null) return view;
+        return new SharedViews.View<V>(views, GET, key) {
             @Override public V get () {
                 return RMap.this.get(key);
             }
@@ -435,6 +465,9 @@ public class RMap<K,V> extends RCollection<Map.Entry<K,V>> implements Map<K,V>
     /** Contains our underlying mappings. */
     protected Map<K, V> _impl;
 
+    /** Distinguishes our kinds of {@link SharedViews}. */
+    protected static final Object CONTAINS_KEY = new Object(), GET = new Object();
+
     protected static final Listener<Object,Object> NOOP = new Listener<Object,Object>() {};
 
     @SuppressWarnings("unchecked") protected static final Notifier PUT = new Notifier() {
@@ -5,6 +5,9 @@
 
 package react;
 
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicReference;
+
 /**
  * Provides a concrete implementation {@link RFuture} that can be updated with a success or failure
  * result when it becomes available.
@@ -14,6 +17,16 @@ package react;
  * further listeners will be retained. This allows the promise to be retained after is has been
  * completed as a useful "box" for its underlying value, without concern that references to long
  * satisfied listeners will be inadvertently retained.</p>
+ *
+ * <p>A promise may be completed, and listeners added to it, from any thread without locking. Its
+ * state is a single atomic reference, which holds either its result or a stack of the listeners
+ * awaiting its result. Completion atomically swaps the result for the listener stack, and then
+ * notifies those listeners, on the completing thread, in the order in which they were added. A
+ * listener added after completion is notified immediately, on the adding thread.</p>
+ *
+ * <p>A promise may also be {@link #cancel}ed, which fails it with a {@link CancellationException}.
+ * The producer of a cancelled promise may check {@link #isCancelled} to abandon its work early,
+ * but need not: the result with which it eventually completes the promise will be ignored.</p>
  */
 public class RPromise<T> extends RFuture<T> {
 
@@ -22,14 +35,12 @@ public class RPromise<T> extends RFuture<T> {
         return new RPromise<T>();
     }
 
-    /** Causes this promise to be completed with {@code result}. */
+    /** Causes this promise to be completed with {@code result}. If this promise has been
+      * cancelled, {@code result} is ignored.
+      * @throws IllegalStateException if this promise has already been completed. */
     public void complete (Try<T> result) {
-        if (_result != null) throw new IllegalStateException("Already completed");
-        _result = result;
-        try {
-            notify(COMPLETE, result, null, null);
-        } finally {
-            clearConnections();
+        if (!tryComplete(result) && !isCancelled()) {
+            throw new IllegalStateException("Already completed");
         }
     }
 
@@ -70,13 +81,272 @@ public class RPromise<T> extends RFuture<T> {
         };
     }
 
+    /**
+     * Fails this promise with a {@link CancellationException}, if it is not yet complete. Its
+     * listeners are notified of the failure as usual.
+     */
+    @Override public boolean cancel () {
+        if (!tryComplete(Try.<T>failure(new CancellationException()))) return false;
+        cancelled();
+        return true;
+    }
+
     @Override public Try<T> result () {
-        return _result;
+        Object state = _state.get();
+        @SuppressWarnings("unchecked") Try<T> result =
+            (state instanceof Try<?>) ? (Try<T>)state : null;
+        return result;
+    }
+
+    @Override public boolean hasConnections () {
+        Object state = _state.get();
+        if (!(state instanceof Waiter<?>)) return false;
+        for (Waiter<?> waiter = (Waiter<?>)state; waiter != null; waiter = waiter.next) {
+            if (waiter.isLive()) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of listeners awaiting the completion of this promise. Promises keep no
+     * {@link #stats}, as their listeners are all disconnected when they complete.
+     */
+    @Override public int listenerCount () {
+        Object state = _state.get();
+        if (!(state instanceof Waiter<?>)) return 0;
+        int count = 0;
+        for (Waiter<?> waiter = (Waiter<?>)state; waiter != null; waiter = waiter.next) {
+            if (waiter.isLive()) count++;
+        }
+        return count;
+    }
+
+    /**
+     * Removes all listeners awaiting the completion of this promise.
+     */
+    @Override public void clearConnections () {
+        Object state;
+        do {
+            state = _state.get();
+            if (!(state instanceof Waiter<?>)) return;
+        } while (!_state.compareAndSet(state, null));
     }
 
-    protected Try<T> _result;
+    @Override public Closeable listen (SignalView.Listener<? super Try<T>> slot) {
+        if (slot == null) throw new NullPointerException("Null listener");
+        Try<T> result = result();
+        if (result == null) {
+            ListenerWaiter<T> waiter = new ListenerWaiter<T>(this, slot);
+            if ((result = await(waiter)) == null) return waiter;
+        }
+        slot.onEmit(result);
+        return Closeable.Util.NOOP;
+    }
+
+    /**
+     * Completes this promise with {@code result}, unless it is already complete.
+     * @return true if this promise was completed, false if it was already complete.
+     */
+    protected boolean tryComplete (Try<T> result) {
+        if (result == null) throw new NullPointerException("Must supply non-null 'result'.");
+        Object state;
+        do {
+            state = _state.get();
+            if (state instanceof Try<?>) return false;
+        } while (!_state.compareAndSet(state, result));
+        _result = result;
+        if (state != null) {
+            @SuppressWarnings("unchecked") Waiter<T> waiters = (Waiter<T>)state;
+            dispatch(waiters, result);
+        }
+        return true;
+    }
+
+    /**
+     * Called after this promise is cancelled and its listeners notified. Promises which derive
+     * their results from other futures use this to disconnect from them.
+     */
+    protected void cancelled () {} // noop
+
+    /**
+     * Called when the last waiter awaiting the completion of this promise is disconnected before
+     * it completes. Promises which derive their results from other futures use this to cancel
+     * themselves, as nothing awaits their result.
+     */
+    protected void abandoned () {} // noop
+
+    /**
+     * Adds {@code waiter} to the stack of waiters to be notified when this promise completes,
+     * unless it is already complete.
+     * @return null if the waiter was added, or this promise's result if it is already complete (in
+     * which case the waiter was not added and the caller must handle the result itself).
+     */
+    protected Try<T> await (Waiter<T> waiter) {
+        while (true) {
+            Object state = _state.get();
+            if (state instanceof Try<?>) {
+                @SuppressWarnings("unchecked") Try<T> result = (Try<T>)state;
+                return result;
+            }
+            @SuppressWarnings("unchecked") Waiter<T> next = (Waiter<T>)state;
+            waiter.next = next;
+            if (_state.compareAndSet(state, waiter)) return null;
+        }
+    }
+
+    /**
+     * Removes dead waiters from the top of our stack, and once enough waiters have died since we
+     * last swept, sweeps those below live waiters as well, so that a long-lived promise which is
+     * repeatedly listened to and closed does not accumulate them. If no live waiters remain, this
+     * promise is {@link #abandoned}.
+     */
+    protected void prune () {
+        Waiter<?> live;
+        while (true) {
+            Object state = _state.get();
+            if (!(state instanceof Waiter<?>)) return;
+            live = (Waiter<?>)state;
+            while (live != null && !live.isLive()) live = live.next;
+            if (live == state || _state.compareAndSet(state, live)) break;
+        }
+        // these counts are racy, which affects only when we sweep, not the sweeping itself
+        if (++_dead >= _sweepAt) sweep();
+        if (live == null) abandoned();
+    }
+
+    /**
+     * Splices every dead waiter out of our stack. Waiters are only ever pushed atop the stack and
+     * never come back to life, so splicing out a run of dead waiters never skips a live one, even
+     * while other threads sweep, push or dispatch.
+     */
+    protected void sweep () {
+        Object state = _state.get();
+        int count = 0;
+        if (state instanceof Waiter<?>) {
+            @SuppressWarnings("unchecked") Waiter<T> top = (Waiter<T>)state;
+            for (Waiter<T> waiter = top; waiter != null; waiter = waiter.next) {
+                count++;
+                Waiter<T> next = waiter.next;
+                while (next != null && !next.isLive()) next = next.next;
+                if (next != waiter.next) waiter.next = next;
+            }
+        }
+        _dead = 0;
+        // sweep again once as many waiters have died as remain, so sweeping is amortized
+        _sweepAt = Math.max(SWEEP_MIN, count);
+    }
+
+    /** Notifies {@code waiters} (which are in reverse order of addition) of {@code result}. */
+    protected void dispatch (Waiter<T> waiters, Try<T> result) {
+        // note the waiters in order of addition, unless there's only one; we don't reverse the
+        // stack in place as it may be concurrently swept, which may also leave gaps in the array
+        Waiter<T>[] order = null;
+        int count = 1;
+        if (waiters.next != null) {
+            count = 0;
+            for (Waiter<T> waiter = waiters; waiter != null; waiter = waiter.next) count++;
+            @SuppressWarnings("unchecked") Waiter<T>[] array = new Waiter[count];
+            int idx = count;
+            for (Waiter<T> waiter = waiters; waiter != null && idx > 0; waiter = waiter.next) {
+                array[--idx] = waiter;
+            }
+            order = array;
+        }
+
+        Metrics metrics = metrics();
+        long started = (metrics == null) ? 0 : metrics.dispatching(this);
+        Watchdog watchdog = watchdog();
+        int notified = 0, failures = 0;
+        RuntimeException exn = null;
+        for (int ii = 0; ii < count; ii++) {
+            Waiter<T> waiter = (order == null) ? waiters : order[ii];
+            if (waiter == null) continue;
+            notified++;
+            try {
+                if (watchdog == null) waiter.onComplete(result);
+                else watch(watchdog, waiter, result);
+            } catch (RuntimeException ex) {
+                failures++;
+                if (exn != null) exn.addSuppressed(ex);
+                else exn = ex;
+            }
+        }
+        if (metrics != null) metrics.dispatched(this, started, notified, 0, failures);
+        if (exn != null) throw exn;
+    }
+
+    /**
+     * Notifies {@code waiter} of our result, reporting it to {@code watchdog} if it's slow.
+     */
+    protected void watch (Watchdog watchdog, Waiter<T> waiter, Try<T> result) {
+        Object listener = waiter.listener();
+        long start = watchdog.now();
+        try {
+            waiter.onComplete(result);
+        } finally {
+            long elapsed = watchdog.now() - start;
+            if (elapsed > watchdog.budget && listener != null) {
+                watchdog.onSlowListener(this, listener, 0, elapsed);
+            }
+        }
+    }
+
+    /** An entry in the stack of things awaiting the completion of a promise. */
+    protected static abstract class Waiter<T> {
+        public Waiter<T> next;
+        public abstract void onComplete (Try<T> result);
+        /** Returns false if this waiter has been disconnected and need not be notified. */
+        public boolean isLive () { return true; }
+        /** Returns the listener notified by this waiter, for reporting by a {@link Watchdog}. */
+        public Object listener () { return this; }
+    }
+
+    /** A waiter that notifies a listener added via {@link #onComplete}. It is also the handle
+      * via which the listener may be disconnected. */
+    protected static final class ListenerWaiter<T> extends Waiter<T> implements Closeable {
+        public volatile SignalView.Listener<? super Try<T>> slot;
+        public ListenerWaiter (RPromise<T> owner, SignalView.Listener<? super Try<T>> slot) {
+            _owner = owner;
+            this.slot = slot;
+        }
+        @Override public void onComplete (Try<T> result) {
+            SignalView.Listener<? super Try<T>> slot = this.slot;
+            if (slot != null) slot.onEmit(result);
+        }
+        @Override public boolean isLive () {
+            return slot != null;
+        }
+        @Override public Object listener () {
+            return slot;
+        }
+        @Override public void close () {
+            slot = null;
+            _owner.prune();
+        }
+        protected final RPromise<T> _owner;
+    }
+
+    /** Either our result (a {@link Try}), the head of the stack of {@link Waiter}s awaiting our
+      * result, or null if we're incomplete and nothing is waiting. */
+    protected final AtomicReference<Object> _state = new AtomicReference<Object>();
+
+    /** Our result, once we're complete, for the benefit of subclasses which predate {@link
+      * #_state}. Writing it has no effect.
+      * @deprecated Use {@link #result}. */
+    @Deprecated protected volatile Try<T> _result;
+
+    /** The number of waiters which have died since we last swept, and the number at which we
+      * next sweep. */
+    protected int _dead, _sweepAt = SWEEP_MIN;
+
+    /** The fewest dead waiters for which we sweep. */
+    protected static final int SWEEP_MIN = 16;
 
-    @SuppressWarnings("unchecked") protected static final Notifier COMPLETE = new Notifier() {
+    /** Notifies a {@link SignalView.Listener} of a result. Promises no longer notify their
+      * listeners via {@link #notify}, but subclasses which predate this may.
+      * @deprecated Notify listeners via {@link #complete}. */
+    @Deprecated @SuppressWarnings("unchecked")
+    protected static final Notifier COMPLETE = new Notifier() {
         public void notify (Object lner, Object value, Object i0, Object i1) {
             ((SignalView.Listener<Try<Object>>)lner).onEmit((Try<Object>)value);
         }
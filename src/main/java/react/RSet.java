@@ -7,8 +7,10 @@ package react;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -49,6 +51,15 @@ public class RSet<E> extends RCollection<E> implements Set<E>
         return new RSet<E>(impl);
     }
 
+    /**
+     * Creates a reactive set backed by a persistent hash trie, which supports O(1) {@link
+     * #snapshot}s. Lookups and updates are O(log<sub>32</sub> n) rather than O(1), and iteration
+     * order is unspecified.
+     */
+    public static <E> RSet<E> createPersistent () {
+        return create(new TrieSet<E>());
+    }
+
     /**
      * Creates a reactive set with the supplied underlying set implementation.
      */
@@ -104,15 +115,30 @@ public class RSet<E> extends RCollection<E> implements Set<E>
         return removed;
     }
 
+    /**
+     * Returns an immutable snapshot of the current contents of this set. If this set was created
+     * via {@link #createPersistent}, this is O(1), and the snapshot may be taken and read on any
+     * thread while this set continues to be mutated. Otherwise the contents are copied, and this
+     * must be called on a thread that may safely read this set.
+     */
+    public Set<E> snapshot () {
+        if (_impl instanceof TrieSet<?>) return ((TrieSet<E>)_impl).snapshot();
+        return Collections.unmodifiableSet(new LinkedHashSet<E>(_impl));
+    }
+
     /**
      * Returns a value that models whether the specified element is contained in this map. The
      * value will report a change when the specified element is added or removed. Note that {@link
      * #addForce} or {@link #removeForce} will cause this view to trigger and incorrectly report
-     * that the element was not or was previously contained in the set. Caveat user.
+     * that the element was not or was previously contained in the set. Caveat user. While the view
+     * has connections, it is shared by all callers who request a view of the same element.
      */
     public ValueView<Boolean> containsView (final E elem) {
         if (elem == null) throw new NullPointerException("Must supply non-null 'elem'.");
-        return new MappedValue<Boolean>() {
+        SharedViews views = sharedViews();
+        ValueView<Boolean> view = views.get(CONTAINS, elem);
+        if (view != null) return view;
+        return new SharedViews.View<Boolean>(views, CONTAINS, elem) {
             @Override public Boolean get () {
                 return contains(elem);
             }
@@ -271,6 +297,9 @@ public class RSet<E> extends RCollection<E> implements Set<E>
     /** Contains our underlying elements. */
     protected Set<E> _impl;
 
+    /** Distinguishes our {@link SharedViews}. */
+    protected static final Object CONTAINS = new Object();
+
     protected static final Listener<Object> NOOP = new Listener<Object>() {};
 
     @SuppressWarnings("unchecked") protected static final Notifier ADD = new Notifier() {
@@ -5,6 +5,15 @@
 
 package react;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
 /**
  * A base class for all reactive classes. This is an implementation detail, but is public so that
  * third parties may use it to create their own reactive classes, if desired.
@@ -14,6 +23,160 @@ public abstract class Reactor
     /** The base class for all reactor listeners. */
     public abstract interface RListener {}
 
+    /**
+     * Is told of reactors as they are instrumented. See {@link #setMonitor}.
+     */
+    public interface Monitor {
+        /** Called when {@code reactor} begins counting its connections, with its monitor held. */
+        void instrumented (Reactor reactor);
+    }
+
+    /**
+     * Records measurements of the dispatch of events by reactors. See {@link #setMetrics}.
+     * Metrics are recorded on the dispatching thread, so they must be thread safe, cheap, and must
+     * not themselves emit events via reactors.
+     */
+    public interface Metrics {
+        /**
+         * Called when {@code reactor} begins to dispatch an event. The returned timestamp, in
+         * whatever units these metrics like, is passed to {@link #dispatched}.
+         */
+        long dispatching (Reactor reactor);
+
+        /**
+         * Called when {@code reactor} has dispatched an event.
+         *
+         * @param started the timestamp returned by {@link #dispatching}.
+         * @param listeners the number of listeners notified of the event.
+         * @param deferred the number of operations (connections, disconnections and further
+         * events) which were deferred until the dispatch completed, and then performed.
+         * @param failures the number of exceptions thrown by listeners and deferred operations.
+         */
+        void dispatched (Reactor reactor, long started, int listeners, int deferred, int failures);
+    }
+
+    /**
+     * Times the notification of each listener, and reports those which exceed a budget. See
+     * {@link #setWatchdog}. A watchdog is told of slow listeners on the dispatching thread, just
+     * after they return, so it must be thread safe and must not emit events via reactors.
+     */
+    public static abstract class Watchdog {
+        /** The time a listener may take to handle an event, in the units of {@link #now}. */
+        public final long budget;
+
+        protected Watchdog (long budget) {
+            this.budget = budget;
+        }
+
+        /**
+         * Returns the current time. Defaults to {@link System#currentTimeMillis}; watchdogs which
+         * need finer budgets may override it (and express their budget) in other units.
+         */
+        public long now () {
+            return System.currentTimeMillis();
+        }
+
+        /**
+         * Called when {@code listener}, connected to {@code reactor} at {@code priority}, took
+         * {@code elapsed} time (more than our budget) to handle an event. Listeners which throw are
+         * also reported, if they are slow to do so.
+         */
+        public abstract void onSlowListener (Reactor reactor, Object listener, int priority,
+                                             long elapsed);
+    }
+
+    /**
+     * A snapshot of the connection counts of an instrumented reactor. See {@link #stats}.
+     */
+    public static final class Stats {
+        /** The number of listeners connected to the reactor. */
+        public final int listeners;
+        /** The largest number of listeners which have been connected to the reactor at once. */
+        public final int highWater;
+        /** The number of connections which have been made to, and removed from, the reactor. */
+        public final long connects, disconnects;
+
+        public Stats (int listeners, int highWater, long connects, long disconnects) {
+            this.listeners = listeners;
+            this.highWater = highWater;
+            this.connects = connects;
+            this.disconnects = disconnects;
+        }
+
+        @Override public String toString () {
+            return "[listeners=" + listeners + ", highWater=" + highWater +
+                ", connects=" + connects + ", disconnects=" + disconnects + "]";
+        }
+    }
+
+    /**
+     * Configures the monitor which is told of reactors as they are instrumented, or null to
+     * instrument no more reactors. While a monitor is configured, every reactor which is connected
+     * to begins counting the connections made to and removed from it, which it continues to do
+     * thereafter. Reactors are not instrumented by default, as the counting (though cheap) costs a
+     * little memory for every reactor.
+     */
+    public static void setMonitor (Monitor monitor) {
+        _monitor = monitor;
+    }
+
+    /**
+     * Configures the metrics which record the dispatch of events by all reactors, or null to
+     * record nothing, which is the default. While no metrics are configured, dispatch pays only
+     * for a check that this is so.
+     */
+    public static void setMetrics (Metrics metrics) {
+        _metrics = metrics;
+    }
+
+    /**
+     * Returns the currently configured metrics, or null.
+     */
+    public static Metrics metrics () {
+        return _metrics;
+    }
+
+    /**
+     * Configures the watchdog which times the notification of listeners by all reactors, or null
+     * to time nothing, which is the default. While no watchdog is configured, dispatch pays only
+     * for a check that this is so.
+     */
+    public static void setWatchdog (Watchdog watchdog) {
+        _watchdog = watchdog;
+    }
+
+    /**
+     * Returns the currently configured watchdog, or null.
+     */
+    public static Watchdog watchdog () {
+        return _watchdog;
+    }
+
+    /**
+     * Returns the currently configured monitor, or null.
+     */
+    public static Monitor monitor () {
+        return _monitor;
+    }
+
+    /**
+     * Returns the number of listeners connected to this reactor. Connections made or removed while
+     * this reactor is dispatching are not counted until the dispatch completes.
+     */
+    public synchronized int listenerCount () {
+        return _count;
+    }
+
+    /**
+     * Returns a snapshot of this reactor's connection counts, or null if it is not instrumented.
+     * See {@link #setMonitor}.
+     */
+    public synchronized Stats stats () {
+        Counts counts = _counts;
+        return (counts == null) ? null :
+            new Stats(_count, counts.highWater, counts.connects, counts.disconnects);
+    }
+
     /**
      * Returns true if this reactor has at least one connection.
      */
@@ -21,10 +184,28 @@ public abstract class Reactor
         return _listeners != null;
     }
 
+    /**
+     * Adds to {@code into} the reactors which derive their events from this one, via connections
+     * to it, such as the views created by {@link SignalView#map}. Duplicates are not removed.
+     *
+     * @return false if this reactor is dispatching, in which case its listeners cannot be
+     * examined and nothing is added.
+     */
+    public synchronized boolean downstream (Collection<? super Reactor> into) {
+        if (isDispatching()) return false;
+        for (Cons cons = _listeners; cons != null; cons = cons.next) {
+            Reactor downstream = cons.downstream();
+            if (downstream != null) into.add(downstream);
+        }
+        return true;
+    }
+
     /**
      * Clears all connections from this reactor. This is not used in normal circumstances, but is
      * made available for libraries which build on react and need a way to forcibly disconnect all
-     * connections to reactive state.
+     * connections to reactive state. Unlike other disconnections, this does not call {@link
+     * #connectionRemoved}, so a derived reactor, such as a mapped view, which is cleared remains
+     * connected to its source. Closing a cleared connection is harmless.
      *
      * @throws IllegalStateException if this reactor is in the middle of dispatching an event.
      */
@@ -32,59 +213,94 @@ public abstract class Reactor
       if (isDispatching()) throw new IllegalStateException(
         "Cannot clear connections while dispatching.");
       assert _pendingRuns == null;
-      _listeners = null;
+      int ocount = _count;
+      for (Cons cons = _listeners; cons != null; cons = cons.next) cons.linked = false;
+      _listeners = _tail = null;
+      _prioTails = null;
+      _index = null;
+      _weakCells = 0;
+      _count = 0;
+      if (_counts != null) _counts.disconnects += ocount;
     }
 
     /** Returns the listener to be used when a weakly held listener is discovered to have been
      * collected while dispatching. This listener should NOOP when signaled. */
     abstract RListener placeholderListener ();
 
-    protected synchronized Cons addConnection (RListener listener) {
+    protected Cons addConnection (RListener listener) {
         if (listener == null) throw new NullPointerException("Null listener");
         return addCons(new Cons(this, listener));
     }
 
     protected synchronized Cons addCons (final Cons cons) {
+        // take the opportunity to clean up after any collected weak listeners
+        sweep();
         if (isDispatching()) {
             _pendingRuns = append(_pendingRuns, new Runs() {
                 public void run () {
-                    _listeners = Cons.insert(_listeners, cons);
-                    connectionAdded();
+                    added(cons);
                 }
             });
-        } else {
-            _listeners = Cons.insert(_listeners, cons);
-            connectionAdded();
-        }
+        } else added(cons);
         return cons;
     }
 
     protected synchronized void disconnect (final Cons cons) {
+        // this is called before cons is defanged, so we can still find it in our index
+        if (_index != null && !cons.isWeak()) deindex(cons, cons.listener());
         if (isDispatching()) {
             _pendingRuns = append(_pendingRuns, new Runs() {
                 public void run () {
-                    _listeners = Cons.remove(_listeners, cons);
-                    connectionRemoved();
+                    if (unlink(cons)) removed(1);
                 }
             });
-        } else {
-            _listeners = Cons.remove(_listeners, cons);
-            connectionRemoved();
+        } else if (unlink(cons)) removed(1);
+    }
+
+    protected synchronized void disconnectAll (final List<Cons> cells) {
+        if (_index != null) {
+            for (Cons cons : cells) if (!cons.isWeak()) deindex(cons, cons.listener());
         }
+        if (isDispatching()) {
+            _pendingRuns = append(_pendingRuns, new Runs() {
+                public void run () {
+                    unlinkAll(cells);
+                }
+            });
+        } else unlinkAll(cells);
     }
 
     protected synchronized void removeConnection (final RListener listener) {
         if (isDispatching()) {
             _pendingRuns = append(_pendingRuns, new Runs() {
                 public void run () {
-                    _listeners = Cons.removeAll(_listeners, listener);
-                    connectionRemoved();
+                    removed(unlinkAll(listener));
                 }
             });
-        } else {
-            _listeners = Cons.removeAll(_listeners, listener);
-            connectionRemoved();
-        }
+        } else removed(unlinkAll(listener));
+    }
+
+    protected synchronized void reprioritize (final Cons cons, final int priority) {
+        if (isDispatching()) {
+            _pendingRuns = append(_pendingRuns, new Runs() {
+                public void run () {
+                    reprioritized(cons, priority);
+                }
+            });
+        } else reprioritized(cons, priority);
+    }
+
+    /** Returns the queue on which the references to our weakly held listeners are enqueued once
+      * the listeners are collected. */
+    synchronized ReferenceQueue<RListener> collectedQueue () {
+        if (_collected == null) _collected = new ReferenceQueue<RListener>();
+        return _collected;
+    }
+
+    /** Called by {@code cons} when it changes to hold {@code listener} weakly. */
+    synchronized void weakened (Cons cons, RListener listener) {
+        if (cons.linked) _weakCells++;
+        if (_index != null) deindex(cons, listener);
     }
 
     /**
@@ -131,13 +347,20 @@ public abstract class Reactor
             _listeners = sentinel;
         }
 
+        Metrics metrics = _metrics;
+        long started = (metrics == null) ? 0 : metrics.dispatching(this);
+        Watchdog watchdog = _watchdog;
+        int notified = 0, deferred = 0, failures = 0;
         RuntimeException exn = null;
         try {
             // perform this dispatch, catching and accumulating any errors
             for (Cons cons = lners; cons != null; cons = cons.next) {
+                notified++;
                 try {
-                    notifier.notify(cons.listener(), a1, a2, a3);
+                    if (watchdog == null) notifier.notify(cons.listener(), a1, a2, a3);
+                    else watch(watchdog, notifier, cons, a1, a2, a3);
                 } catch (RuntimeException ex) {
+                    failures++;
                     if (exn != null) exn.addSuppressed(ex);
                     else exn = ex;
                 }
@@ -151,19 +374,213 @@ public abstract class Reactor
             // perform any operations that were deferred while we were dispatching
             Runs run;
             while ((run = nextRun()) != null) {
+                deferred++;
                 try {
                     run.run();
                 } catch (RuntimeException ex) {
+                    failures++;
                     if (exn != null) exn.addSuppressed(ex);
                     else exn = ex;
                 }
             }
         }
 
+        if (metrics != null) metrics.dispatched(this, started, notified, deferred, failures);
+
         // finally throw any exception(s) that occurred during dispatch
         if (exn != null) throw exn;
     }
 
+    /**
+     * Notifies the listener of {@code cons}, reporting it to {@code watchdog} if it's slow.
+     */
+    protected final void watch (Watchdog watchdog, Notifier notifier, Cons cons,
+                                Object a1, Object a2, Object a3) {
+        RListener listener = cons.listener();
+        long start = watchdog.now();
+        try {
+            notifier.notify(listener, a1, a2, a3);
+        } finally {
+            long elapsed = watchdog.now() - start;
+            if (elapsed > watchdog.budget) {
+                watchdog.onSlowListener(this, listener, cons.priority(), elapsed);
+            }
+        }
+    }
+
+    /** Closes the connections of any of our weakly held listeners which have been collected, so
+      * that they don't linger in our listener list if we seldom dispatch. Only our own monitor is
+      * taken in doing so. */
+    private void sweep () {
+        if (_collected == null) return;
+        Reference<? extends RListener> ref;
+        while ((ref = _collected.poll()) != null) {
+            Cons cons = Cons.collected(ref);
+            if (cons != null) cons.close();
+        }
+    }
+
+    private void added (Cons cons) {
+        link(cons);
+        // a connection closed before its deferred addition is unlinked again momentarily
+        if (_index != null && !cons.isWeak() && cons.isOpen()) index(cons);
+        int count = ++_count;
+        Counts counts = _counts;
+        if (counts == null) {
+            Monitor monitor = _monitor;
+            if (monitor != null) {
+                _counts = counts = new Counts();
+                monitor.instrumented(this);
+            }
+        }
+        if (counts != null) {
+            counts.connects++;
+            if (count > counts.highWater) counts.highWater = count;
+        }
+        connectionAdded();
+    }
+
+    private void removed (int removed) {
+        _count -= removed;
+        if (_counts != null) _counts.disconnects += removed;
+        connectionRemoved();
+    }
+
+    private void reprioritized (Cons cons, int priority) {
+        boolean linked = unlink(cons);
+        cons.setPriority(priority);
+        if (linked) {
+            link(cons);
+            // let subclasses know that our listeners changed, as they did when this was done by
+            // disconnecting and reconnecting
+            connectionRemoved();
+            connectionAdded();
+        }
+    }
+
+    /** Inserts {@code cons} into our listener list, after all listeners of the same or higher
+      * priority. Appending at or below the lowest priority (including the common case of all
+      * listeners having the default priority) takes constant time, and inserting at any other
+      * priority logarithmic time in the number of distinct priorities. */
+    private void link (Cons cons) {
+        int prio = cons.priority();
+        cons.next = cons.prev = null;
+        cons.linked = true;
+        if (cons.isWeak()) _weakCells++;
+        if (_listeners == null) _listeners = _tail = cons;
+        else if (prio <= _tail.priority()) {
+            _tail.next = cons;
+            cons.prev = _tail;
+            _tail = cons;
+        } else {
+            if (_prioTails == null) {
+                _prioTails = new TreeMap<Integer,Cons>();
+                for (Cons curs = _listeners; curs != null; curs = curs.next) {
+                    _prioTails.put(curs.priority(), curs);
+                }
+            }
+            // the last listener of the lowest priority >= ours is the one we follow; there is
+            // always a listener after it, as the last listener's priority is lower than ours
+            Map.Entry<Integer,Cons> prev = _prioTails.ceilingEntry(prio);
+            Cons next = (prev == null) ? _listeners : prev.getValue().next;
+            cons.next = next;
+            cons.prev = next.prev;
+            if (next.prev == null) _listeners = cons;
+            else next.prev.next = cons;
+            next.prev = cons;
+        }
+        if (_prioTails != null) _prioTails.put(prio, cons);
+    }
+
+    /** Removes {@code cons} from our listener list, in constant time. Returns false if it was not
+      * in the list. */
+    private boolean unlink (Cons cons) {
+        if (!cons.linked) return false;
+        cons.linked = false;
+        if (cons.isWeak()) _weakCells--;
+        Cons prev = cons.prev, next = cons.next;
+        if (prev == null) _listeners = next;
+        else prev.next = next;
+        if (next == null) _tail = prev;
+        else next.prev = prev;
+        // we leave cons.next intact, so that anything iterating over our list can proceed
+        cons.prev = null;
+        int prio = cons.priority();
+        if (_prioTails != null && _prioTails.get(prio) == cons) {
+            if (prev != null && prev.priority() == prio) _prioTails.put(prio, prev);
+            else _prioTails.remove(prio);
+        }
+        return true;
+    }
+
+    /** Removes all connections to {@code listener} from our listener list. Returns the number of
+      * connections removed. Strongly held listeners are found via our index, once we have enough
+      * listeners to warrant one, but weakly held listeners must be sought. */
+    private int unlinkAll (RListener listener) {
+        if (_index == null && _count >= INDEX_THRESHOLD) {
+            _index = new IdentityHashMap<RListener,Object>();
+            for (Cons cons = _listeners; cons != null; cons = cons.next) {
+                if (!cons.isWeak()) index(cons);
+            }
+        }
+        if (_index == null) return unlinkAll(listener, false);
+
+        int removed = 0;
+        Object cells = _index.remove(listener);
+        if (cells instanceof Cons) {
+            if (unlink((Cons)cells)) removed++;
+        } else if (cells != null) {
+            @SuppressWarnings("unchecked") List<Cons> list = (List<Cons>)cells;
+            for (Cons cons : list) if (unlink(cons)) removed++;
+        }
+        if (_weakCells > 0) removed += unlinkAll(listener, true);
+        return removed;
+    }
+
+    private void unlinkAll (List<Cons> cells) {
+        int removed = 0;
+        for (Cons cons : cells) if (unlink(cons)) removed++;
+        if (removed > 0) removed(removed);
+    }
+
+    private int unlinkAll (RListener listener, boolean weakOnly) {
+        int removed = 0;
+        // resolving a collected weak listener will unlink its connection, so we note our next
+        // connection before doing so
+        for (Cons cons = _listeners, next; cons != null; cons = next) {
+            next = cons.next;
+            if ((!weakOnly || cons.isWeak()) && cons.listener() == listener && unlink(cons)) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    private void index (Cons cons) {
+        RListener listener = cons.listener();
+        Object cells = _index.get(listener);
+        if (cells == null) _index.put(listener, cons);
+        else if (cells instanceof Cons) {
+            List<Cons> list = new ArrayList<Cons>(2);
+            list.add((Cons)cells);
+            list.add(cons);
+            _index.put(listener, list);
+        } else {
+            @SuppressWarnings("unchecked") List<Cons> list = (List<Cons>)cells;
+            list.add(cons);
+        }
+    }
+
+    private void deindex (Cons cons, RListener listener) {
+        Object cells = _index.get(listener);
+        if (cells == cons) _index.remove(listener);
+        else if (cells instanceof List<?>) {
+            List<?> list = (List<?>)cells;
+            list.remove(cons);
+            if (list.isEmpty()) _index.remove(listener);
+        }
+    }
+
     private synchronized Runs nextRun () {
         Runs run = _pendingRuns;
         if (run != null) _pendingRuns = run.next;
@@ -177,6 +594,19 @@ public abstract class Reactor
 
     protected Cons _listeners;
     protected Runs _pendingRuns;
+    /** The last listener in our list, and the last listener of each priority in our list. The
+      * latter is created only once listeners are inserted before the last listener. */
+    private Cons _tail;
+    private TreeMap<Integer,Cons> _prioTails;
+    /** Our strongly held listeners, mapped to their connection (or list thereof), created when
+      * disconnecting by listener from a reactor with enough listeners. */
+    private IdentityHashMap<RListener,Object> _index;
+    private int _weakCells;
+    /** The queue of our collected weakly held listeners, created when a listener is first held
+      * weakly. */
+    private ReferenceQueue<RListener> _collected;
+    private int _count;
+    private Counts _counts;
 
     /**
      * Returns true if both values are null, reference the same instance, or are
@@ -200,5 +630,17 @@ public abstract class Reactor
         public abstract void notify (Object listener, Object a1, Object a2, Object a3);
     }
 
+    private static final class Counts {
+        public int highWater;
+        public long connects, disconnects;
+    }
+
     protected static final Cons DISPATCHING = new Cons(null, null);
+
+    /** The number of listeners at which we index them, to disconnect by listener quickly. */
+    private static final int INDEX_THRESHOLD = 8;
+
+    private static volatile Monitor _monitor;
+    private static volatile Metrics _metrics;
+    private static volatile Watchdog _watchdog;
 }
@@ -0,0 +1,218 @@
+//
+// React - a library for functional-reactive-like programming
+// Copyright (c) 2015, Three Rings Design, Inc. - All rights reserved.
+// http://github.com/threerings/react/blob/master/LICENSE
+
+package react;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A snapshot of the graph of reactors derived from a set of root reactors, via {@link
+ * SignalView#map}, {@link ValueView#flatMap}, {@link Values#join} and the like, for finding
+ * unexpected fan-out. For example:
+ *
+ * <pre>{@code
+ * String dot = ReactorGraph.walk(model.players, model.score).toDot();
+ * Files.write(Paths.get("model.dot"), dot.getBytes("UTF-8"));
+ * }</pre>
+ *
+ * <p>Derived reactors only connect to their sources while they themselves have connections, so
+ * the graph includes only those which are in use. A reactor which is dispatching while it is
+ * walked is included, but its derived reactors are not reached via it.</p>
+ */
+public class ReactorGraph
+{
+    /** A reactor in the graph. */
+    public static final class Node {
+        /** The index of this node in {@link #nodes}. */
+        public final int id;
+        /** The reactor in question. */
+        public final Reactor reactor;
+        /** The number of listeners connected to the reactor, including derived reactors. */
+        public final int listeners;
+        /** The number of events dispatched by the reactor, if dispatch counts were supplied. */
+        public final long emits;
+        /** The number of events per second dispatched by the reactor, if dispatch counts were
+          * supplied. */
+        public final double emitRate;
+
+        public Node (int id, Reactor reactor, int listeners, long emits, double emitRate) {
+            this.id = id;
+            this.reactor = reactor;
+            this.listeners = listeners;
+            this.emits = emits;
+            this.emitRate = emitRate;
+        }
+
+        /** Returns a name for this node's reactor, its class name and identity hash code. */
+        public String name () {
+            return reactor.getClass().getName() + "@" +
+                Integer.toHexString(System.identityHashCode(reactor));
+        }
+
+        @Override public String toString () {
+            return name() + " [listeners=" + listeners + ", emits=" + emits + "]";
+        }
+    }
+
+    /** A connection via which one reactor derives its events from another. */
+    public static final class Edge {
+        /** The source and derived nodes. */
+        public final Node from, to;
+
+        public Edge (Node from, Node to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override public String toString () {
+            return from.id + " -> " + to.id;
+        }
+    }
+
+    /**
+     * Walks the graph of reactors derived from {@code roots}, which are signals, values and the
+     * like.
+     *
+     * @throws IllegalArgumentException if a root is not a {@link Reactor}.
+     */
+    public static ReactorGraph walk (Object... roots) {
+        return walk(Arrays.asList(roots), null);
+    }
+
+    /**
+     * Walks the graph of reactors derived from {@code roots}, noting their emits from {@code
+     * counters}, if non-null.
+     *
+     * @throws IllegalArgumentException if a root is not a {@link Reactor}.
+     */
+    public static ReactorGraph walk (Collection<?> roots, DispatchCounters counters) {
+        ReactorGraph graph = new ReactorGraph();
+        double secs = (counters == null) ? 0 : counters.elapsed() / 1e9;
+        List<Reactor> downstream = new ArrayList<Reactor>();
+        for (Object root : roots) {
+            if (!(root instanceof Reactor)) throw new IllegalArgumentException(
+                "Not a reactor: " + root);
+            graph.node((Reactor)root, counters, secs);
+        }
+        // nodes are appended as they're discovered, so this walks the graph breadth first
+        for (int ii = 0; ii < graph._nodes.size(); ii++) {
+            Node node = graph._nodes.get(ii);
+            downstream.clear();
+            node.reactor.downstream(downstream);
+            for (Reactor reactor : downstream) {
+                graph._edges.add(new Edge(node, graph.node(reactor, counters, secs)));
+            }
+        }
+        return graph;
+    }
+
+    /** Returns the nodes of this graph, roots first. */
+    public List<Node> nodes () {
+        return Collections.unmodifiableList(_nodes);
+    }
+
+    /** Returns the edges of this graph. */
+    public List<Edge> edges () {
+        return Collections.unmodifiableList(_edges);
+    }
+
+    /** Returns the node for {@code reactor}, or null if it's not in this graph. */
+    public Node node (Object reactor) {
+        return _byReactor.get(reactor);
+    }
+
+    /**
+     * Returns this graph in Graphviz's DOT language.
+     */
+    public String toDot () {
+        StringBuilder buf = new StringBuilder("digraph reactors {\n");
+        for (Node node : _nodes) {
+            buf.append("  n").append(node.id).append(" [label=");
+            String label = node.name() + "\nlisteners=" + node.listeners;
+            if (node.emits > 0) label += String.format(
+                Locale.ROOT, "\nemits=%d (%.1f/s)", node.emits, node.emitRate);
+            quote(buf, label);
+            buf.append("];\n");
+        }
+        for (Edge edge : _edges) {
+            buf.append("  n").append(edge.from.id).append(" -> n").append(edge.to.id);
+            buf.append(";\n");
+        }
+        return buf.append("}\n").toString();
+    }
+
+    /**
+     * Returns this graph as a JSON object, with {@code nodes} and {@code edges} arrays.
+     */
+    public String toJson () {
+        StringBuilder buf = new StringBuilder("{\"nodes\":[");
+        for (Node node : _nodes) {
+            if (node.id > 0) buf.append(',');
+            buf.append("{\"id\":").append(node.id).append(",\"reactor\":");
+            quote(buf, node.name());
+            buf.append(",\"listeners\":").append(node.listeners);
+            buf.append(",\"emits\":").append(node.emits);
+            buf.append(",\"emitRate\":");
+            buf.append(String.format(Locale.ROOT, "%.3f", node.emitRate));
+            buf.append('}');
+        }
+        buf.append("],\"edges\":[");
+        for (int ii = 0; ii < _edges.size(); ii++) {
+            Edge edge = _edges.get(ii);
+            if (ii > 0) buf.append(',');
+            buf.append("{\"from\":").append(edge.from.id);
+            buf.append(",\"to\":").append(edge.to.id).append('}');
+        }
+        return buf.append("]}").toString();
+    }
+
+    @Override public String toString () {
+        return "[nodes=" + _nodes.size() + ", edges=" + _edges.size() + "]";
+    }
+
+    protected Node node (Reactor reactor, DispatchCounters counters, double secs) {
+        Node node = _byReactor.get(reactor);
+        if (node == null) {
+            DispatchCounters.Tally tally = (counters == null) ? null : counters.tally(reactor);
+            long emits = (tally == null) ? 0 : tally.dispatches();
+            node = new Node(_nodes.size(), reactor, reactor.listenerCount(), emits,
+                            (secs > 0) ? emits / secs : 0);
+            _nodes.add(node);
+            _byReactor.put(reactor, node);
+        }
+        return node;
+    }
+
+    /** Appends {@code text} to {@code buf} as a double quoted string, escaped for both DOT and
+      * JSON. */
+    protected static void quote (StringBuilder buf, String text) {
+        buf.append('"');
+        for (int ii = 0; ii < text.length(); ii++) {
+            char c = text.charAt(ii);
+            switch (c) {
+            case '"': buf.append("\\\""); break;
+            case '\\': buf.append("\\\\"); break;
+            case '\n': buf.append("\\n"); break;
+            default:
+                if (c < ' ') buf.append(String.format(Locale.ROOT, "\\u%04x", (int)c));
+                else buf.append(c);
+            }
+        }
+        buf.append('"');
+    }
+
+    protected final List<Node> _nodes = new ArrayList<Node>();
+    protected final List<Edge> _edges = new ArrayList<Edge>();
+    /** Our nodes, by reactor. Reactors are keyed by identity, as some reactive collections define
+      * equality by their contents. */
+    protected final Map<Reactor,Node> _byReactor = new IdentityHashMap<Reactor,Node>();
+}
@@ -0,0 +1,136 @@
+//
+// React - a library for functional-reactive-like programming
+// Copyright (c) 2015, Three Rings Design, Inc. - All rights reserved.
+// http://github.com/threerings/react/blob/master/LICENSE
+
+package react;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Keeps track of instrumented reactors, and reports those with the most listeners, which is
+ * handy for locating connection leaks in a running process. For example:
+ *
+ * <pre>{@code
+ * ReactorMonitor monitor = ReactorMonitor.install();
+ * ...
+ * for (ReactorMonitor.Sample sample : monitor.top(10)) log.info(sample);
+ * }</pre>
+ *
+ * <p>Only reactors which are connected to while the monitor is installed are tracked (see {@link
+ * Reactor#setMonitor}). Reactors are held weakly, so tracking them does not prevent their
+ * collection.</p>
+ */
+public class ReactorMonitor implements Reactor.Monitor, Closeable
+{
+    /** A report on the connections of a single reactor. */
+    public static final class Sample {
+        /** The reactor in question. */
+        public final Reactor reactor;
+        /** The reactor's connection counts when it was sampled. */
+        public final Reactor.Stats stats;
+        /** The number of connections per second made to, and removed from, the reactor since the
+          * previous report, or since it was instrumented if this is its first report. */
+        public final double connectRate, disconnectRate;
+
+        public Sample (Reactor reactor, Reactor.Stats stats, double connectRate,
+                       double disconnectRate) {
+            this.reactor = reactor;
+            this.stats = stats;
+            this.connectRate = connectRate;
+            this.disconnectRate = disconnectRate;
+        }
+
+        @Override public String toString () {
+            return reactor.getClass().getName() + "@" +
+                Integer.toHexString(System.identityHashCode(reactor)) + " " + stats +
+                String.format(" %.1f/%.1f conn/disconn per sec", connectRate, disconnectRate);
+        }
+    }
+
+    /**
+     * Creates a monitor and installs it via {@link Reactor#setMonitor}, replacing any previously
+     * installed monitor.
+     */
+    public static ReactorMonitor install () {
+        ReactorMonitor monitor = new ReactorMonitor();
+        Reactor.setMonitor(monitor);
+        return monitor;
+    }
+
+    /**
+     * Returns the number of live reactors being tracked by this monitor.
+     */
+    public int size () {
+        int size = 0;
+        for (Entry entry : _entries) if (entry.get() != null) size++;
+        return size;
+    }
+
+    /**
+     * Returns reports on the (at most) {@code count} tracked reactors with the most listeners, in
+     * order of decreasing listener count. This also forgets any reactors which have been collected.
+     * Computing the report takes the monitor of every tracked reactor in turn, so it should not be
+     * done too frequently in a process with many reactors.
+     */
+    public List<Sample> top (int count) {
+        long now = System.nanoTime();
+        List<Sample> samples = new ArrayList<Sample>();
+        for (Iterator<Entry> iter = _entries.iterator(); iter.hasNext(); ) {
+            Entry entry = iter.next();
+            Reactor reactor = entry.get();
+            Reactor.Stats stats = (reactor == null) ? null : reactor.stats();
+            if (stats == null) iter.remove();
+            else samples.add(entry.sample(reactor, stats, now));
+        }
+        Collections.sort(samples, BY_LISTENERS);
+        return (samples.size() > count) ?
+            new ArrayList<Sample>(samples.subList(0, count)) : samples;
+    }
+
+    /**
+     * Uninstalls this monitor, if it is installed. Reactors which were instrumented while it was
+     * installed continue to count their connections, and may still be reported via {@link #top}.
+     */
+    @Override public void close () {
+        if (Reactor.monitor() == this) Reactor.setMonitor(null);
+    }
+
+    // from interface Reactor.Monitor
+    public void instrumented (Reactor reactor) {
+        _entries.add(new Entry(reactor, System.nanoTime()));
+    }
+
+    protected static class Entry extends WeakReference<Reactor> {
+        public Entry (Reactor reactor, long now) {
+            super(reactor);
+            _lastNanos = now;
+        }
+
+        public synchronized Sample sample (Reactor reactor, Reactor.Stats stats, long now) {
+            double secs = Math.max(now - _lastNanos, 1) / 1e9;
+            Sample sample = new Sample(reactor, stats, (stats.connects - _lastConnects) / secs,
+                                       (stats.disconnects - _lastDisconnects) / secs);
+            _lastNanos = now;
+            _lastConnects = stats.connects;
+            _lastDisconnects = stats.disconnects;
+            return sample;
+        }
+
+        protected long _lastNanos, _lastConnects, _lastDisconnects;
+    }
+
+    protected final ConcurrentLinkedQueue<Entry> _entries = new ConcurrentLinkedQueue<Entry>();
+
+    protected static final Comparator<Sample> BY_LISTENERS = new Comparator<Sample>() {
+        public int compare (Sample a, Sample b) {
+            return Integer.compare(b.stats.listeners, a.stats.listeners);
+        }
+    };
+}
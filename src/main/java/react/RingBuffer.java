@@ -0,0 +1,90 @@
+//
+// React - a library for functional-reactive-like programming
+// Copyright (c) 2015, Three Rings Design, Inc. - All rights reserved.
+// http://github.com/threerings/react/blob/master/LICENSE
+
+package react;
+
+import java.util.AbstractQueue;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A fixed capacity queue backed by a circular array. Offers to a full buffer fail. Null elements
+ * are not permitted.
+ */
+class RingBuffer<E> extends AbstractQueue<E>
+{
+    public RingBuffer (int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("Capacity must be > 0: " + capacity);
+        _elems = new Object[capacity];
+    }
+
+    public int capacity () {
+        return _elems.length;
+    }
+
+    public boolean isFull () {
+        return _size == _elems.length;
+    }
+
+    @Override public int size () {
+        return _size;
+    }
+
+    @Override public boolean offer (E elem) {
+        if (elem == null) throw new NullPointerException();
+        if (_size == _elems.length) return false;
+        int tail = _head + _size;
+        if (tail >= _elems.length) tail -= _elems.length;
+        _elems[tail] = elem;
+        _size++;
+        _mods++;
+        return true;
+    }
+
+    @Override public E poll () {
+        if (_size == 0) return null;
+        E elem = elem(_head);
+        _elems[_head] = null;
+        if (++_head == _elems.length) _head = 0;
+        _size--;
+        _mods++;
+        return elem;
+    }
+
+    @Override public E peek () {
+        return (_size == 0) ? null : elem(_head);
+    }
+
+    @Override public void clear () {
+        while (_size > 0) poll();
+    }
+
+    @Override public Iterator<E> iterator () {
+        return new Iterator<E>() {
+            public boolean hasNext () {
+                return _index < _size;
+            }
+            public E next () {
+                if (_mods != _emods) throw new ConcurrentModificationException();
+                if (_index >= _size) throw new NoSuchElementException();
+                int idx = _head + _index++;
+                return elem(idx >= _elems.length ? idx - _elems.length : idx);
+            }
+            public void remove () {
+                throw new UnsupportedOperationException();
+            }
+            protected int _index, _emods = _mods;
+        };
+    }
+
+    protected E elem (int index) {
+        @SuppressWarnings("unchecked") E elem = (E)_elems[index];
+        return elem;
+    }
+
+    protected final Object[] _elems;
+    protected int _head, _size, _mods;
+}
@@ -0,0 +1,92 @@
+//
+// React - a library for functional-reactive-like programming
+// Copyright (c) 2015, Three Rings Design, Inc. - All rights reserved.
+// http://github.com/threerings/react/blob/master/LICENSE
+
+package react;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Shares identical derived views, such as {@link RMap#getView} for a given key, among their
+ * callers, so that N callers add one listener to the underlying reactor rather than N. A view is
+ * shared from when it is first connected to until it loses its last connection, so views which
+ * are never connected to, or which are no longer in use, are not retained. For example:
+ *
+ * <pre>{@code
+ * ValueView<V> view = _views.get(GET, key);
+ * if (view == null) view = new SharedViews.View<V>(_views, GET, key) { ... };
+ * return view;
+ * }</pre>
+ *
+ * <p>Views are identified by a kind, a token which distinguishes the different sorts of view
+ * shared by the same owner, and a key, which must have sensible {@code equals} and {@code
+ * hashCode} methods.</p>
+ */
+final class SharedViews
+{
+    /** A derived view which is shared via its {@link SharedViews} while it has connections. */
+    static abstract class View<T> extends MappedValue<T> {
+        protected View (SharedViews views, Object kind, Object key) {
+            _views = views;
+            _key = new Key(kind, key);
+        }
+
+        @Override protected void connectionAdded () {
+            super.connectionAdded();
+            _views.share(_key, this);
+        }
+
+        @Override protected void connectionRemoved () {
+            super.connectionRemoved();
+            if (!hasConnections()) _views.unshare(_key, this);
+        }
+
+        protected final SharedViews _views;
+        protected final Key _key;
+    }
+
+    /**
+     * Returns the view of kind {@code kind} for {@code key} which is currently shared, or null.
+     */
+    @SuppressWarnings("unchecked")
+    synchronized <V> V get (Object kind, Object key) {
+        return (V)_views.get(new Key(kind, key));
+    }
+
+    /** Returns the number of views currently shared. */
+    synchronized int size () {
+        return _views.size();
+    }
+
+    protected synchronized void share (Key key, View<?> view) {
+        // if another view with the same key beat this one to it, this one goes unshared
+        if (!_views.containsKey(key)) _views.put(key, view);
+    }
+
+    protected synchronized void unshare (Key key, View<?> view) {
+        if (_views.get(key) == view) _views.remove(key);
+    }
+
+    protected static final class Key {
+        public final Object kind, key;
+
+        public Key (Object kind, Object key) {
+            this.kind = kind;
+            this.key = key;
+        }
+
+        @Override public int hashCode () {
+            return 31 * kind.hashCode() + key.hashCode();
+        }
+
+        @Override public boolean equals (Object other) {
+            if (!(other instanceof Key)) return false;
+            Key okey = (Key)other;
+            return kind == okey.kind && key.equals(okey.key);
+        }
+    }
+
+    protected final Map<Key,View<?>> _views = new HashMap<Key,View<?>>();
+}
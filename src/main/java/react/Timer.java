@@ -0,0 +1,21 @@
+//
+// React - a library for functional-reactive-like programming
+// Copyright (c) 2015, Three Rings Design, Inc. - All rights reserved.
+// http://github.com/threerings/react/blob/master/LICENSE
+
+package react;
+
+/**
+ * Schedules actions to be run after a delay. This is used by {@link RFuture#timeout} to fail
+ * futures which do not complete in time. See {@link HashedWheelTimer} for an implementation
+ * suited to large numbers of short-lived timeouts.
+ */
+public interface Timer {
+
+    /**
+     * Schedules {@code action} to be run once, no sooner than {@code delayMillis} milliseconds
+     * from now. The thread on which the action is run depends on the implementation.
+     * @return a handle which, when closed, cancels the action if it has not yet been run.
+     */
+    Closeable schedule (long delayMillis, Runnable action);
+}
@@ -0,0 +1,237 @@
+//
+// React - a library for functional-reactive-like programming in Java
+// Copyright (c) 2011, Three Rings Design, Inc. - All rights reserved.
+// http://github.com/threerings/react/blob/master/LICENSE
+
+package react;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * A list backed by a persistent 32-way vector trie. Every mutation replaces the trie root with a
+ * new root which shares all unmodified structure with the old root, so {@link #snapshot} is O(1)
+ * and the resulting snapshot may be read by any thread without locking while this list continues
+ * to be mutated. {@link #get}, {@link #set} and adding or removing at the end of the list are
+ * O(log<sub>32</sub> n). Adding or removing elsewhere in the list rebuilds the trie, which is O(n),
+ * so this list is not suited to large lists which are frequently edited in the middle.
+ */
+class TrieList<E> extends AbstractList<E> implements RandomAccess
+{
+    /** Creates an empty, mutable list. */
+    public TrieList () {
+        this(EMPTY, true);
+    }
+
+    /**
+     * Returns an immutable snapshot of the current contents of this list. This method may be
+     * called from any thread.
+     */
+    public TrieList<E> snapshot () {
+        return _mutable ? new TrieList<E>(_state, false) : this;
+    }
+
+    @Override public int size () {
+        return _state.size;
+    }
+
+    @Override public E get (int index) {
+        State state = _state;
+        checkIndex(index, state.size);
+        @SuppressWarnings("unchecked") E elem = (E)state.leaf(index)[index & MASK];
+        return elem;
+    }
+
+    @Override public E set (int index, E elem) {
+        checkMutable();
+        State state = _state;
+        checkIndex(index, state.size);
+        @SuppressWarnings("unchecked") E oelem = (E)state.leaf(index)[index & MASK];
+        _state = new State(assoc(state.root, state.shift, index, elem), state.shift, state.size);
+        return oelem;
+    }
+
+    @Override public void add (int index, E elem) {
+        checkMutable();
+        State state = _state;
+        if (index < 0 || index > state.size) throw outOfBounds(index, state.size);
+        if (index == state.size) {
+            Object[] root = state.root;
+            int shift = state.shift;
+            if (state.size == (1 << (shift + BITS))) {
+                // we're full, so add a level
+                root = new Object[WIDTH];
+                root[0] = state.root;
+                shift += BITS;
+            }
+            _state = new State(assoc(root, shift, index, elem), shift, state.size+1);
+        } else {
+            Object[] elems = new Object[state.size+1];
+            state.copyTo(elems, 0, index, 0);
+            elems[index] = elem;
+            state.copyTo(elems, index, state.size-index, index+1);
+            _state = build(elems);
+        }
+        modCount++;
+    }
+
+    @Override public E remove (int index) {
+        checkMutable();
+        State state = _state;
+        checkIndex(index, state.size);
+        @SuppressWarnings("unchecked") E oelem = (E)state.leaf(index)[index & MASK];
+        if (index == 0 && state.size == 1) _state = EMPTY;
+        else if (index == state.size-1) {
+            Object[] root = pop(state.root, state.shift, index);
+            int shift = state.shift;
+            // if the root has only one child, use that as the root
+            if (shift > 0 && root[1] == null) {
+                root = (Object[])root[0];
+                shift -= BITS;
+            }
+            _state = new State(root, shift, index);
+        } else {
+            Object[] elems = new Object[state.size-1];
+            state.copyTo(elems, 0, index, 0);
+            state.copyTo(elems, index+1, state.size-index-1, index);
+            _state = build(elems);
+        }
+        modCount++;
+        return oelem;
+    }
+
+    @Override public void clear () {
+        checkMutable();
+        _state = EMPTY;
+        modCount++;
+    }
+
+    @Override public Object[] toArray () {
+        State state = _state;
+        Object[] elems = new Object[state.size];
+        state.copyTo(elems, 0, state.size, 0);
+        return elems;
+    }
+
+    @Override protected void removeRange (int fromIndex, int toIndex) {
+        checkMutable();
+        State state = _state;
+        // validate up front, as bad indices would otherwise corrupt the trie
+        if (fromIndex < 0 || toIndex > state.size || fromIndex > toIndex) {
+            throw new IndexOutOfBoundsException(
+                "From: " + fromIndex + ", To: " + toIndex + ", Size: " + state.size);
+        }
+        if (fromIndex == toIndex) return;
+        Object[] elems = new Object[state.size - (toIndex-fromIndex)];
+        state.copyTo(elems, 0, fromIndex, 0);
+        state.copyTo(elems, toIndex, state.size-toIndex, fromIndex);
+        _state = build(elems);
+        modCount++;
+    }
+
+    protected TrieList (State state, boolean mutable) {
+        _state = state;
+        _mutable = mutable;
+    }
+
+    protected void checkMutable () {
+        if (!_mutable) throw new UnsupportedOperationException("Snapshots are immutable.");
+    }
+
+    /** An immutable vector trie. Leaf nodes contain elements, interior nodes contain nodes. All
+      * nodes are {@link #WIDTH} elements wide, and are never modified once they're reachable from
+      * a state. */
+    protected static final class State {
+        public final Object[] root;
+        public final int shift;
+        public final int size;
+
+        public State (Object[] root, int shift, int size) {
+            this.root = root;
+            this.shift = shift;
+            this.size = size;
+        }
+
+        /** Returns the leaf node that contains the element at {@code index}. */
+        public Object[] leaf (int index) {
+            Object[] node = root;
+            for (int level = shift; level > 0; level -= BITS) {
+                node = (Object[])node[(index >>> level) & MASK];
+            }
+            return node;
+        }
+
+        /** Copies {@code count} elements starting at {@code index} into {@code dest}. */
+        public void copyTo (Object[] dest, int index, int count, int destIndex) {
+            while (count > 0) {
+                int offset = index & MASK, length = Math.min(count, WIDTH - offset);
+                System.arraycopy(leaf(index), offset, dest, destIndex, length);
+                index += length;
+                destIndex += length;
+                count -= length;
+            }
+        }
+    }
+
+    /** Returns a copy of {@code node} (which may be null) with the element at {@code index} set to
+      * {@code elem}. */
+    protected static Object[] assoc (Object[] node, int level, int index, Object elem) {
+        Object[] nnode = (node == null) ? new Object[WIDTH] : node.clone();
+        if (level == 0) nnode[index & MASK] = elem;
+        else {
+            int idx = (index >>> level) & MASK;
+            nnode[idx] = assoc((Object[])nnode[idx], level - BITS, index, elem);
+        }
+        return nnode;
+    }
+
+    /** Returns a copy of {@code node} with the last element, at {@code index}, removed, or null if
+      * the resulting node would be empty. */
+    protected static Object[] pop (Object[] node, int level, int index) {
+        int idx = (index >>> level) & MASK;
+        Object child = null;
+        if (level > 0) child = pop((Object[])node[idx], level - BITS, index);
+        if (child == null && idx == 0) return null;
+        Object[] nnode = node.clone();
+        nnode[idx] = child;
+        return nnode;
+    }
+
+    /** Builds a state containing {@code elems}. */
+    protected static State build (Object[] elems) {
+        if (elems.length == 0) return EMPTY;
+        Object[][] nodes = new Object[(elems.length + MASK) / WIDTH][];
+        for (int ii = 0; ii < nodes.length; ii++) {
+            nodes[ii] = new Object[WIDTH];
+            int start = ii * WIDTH;
+            System.arraycopy(elems, start, nodes[ii], 0, Math.min(WIDTH, elems.length - start));
+        }
+        int shift = 0;
+        while (nodes.length > 1) {
+            Object[][] parents = new Object[(nodes.length + MASK) / WIDTH][];
+            for (int ii = 0; ii < parents.length; ii++) {
+                parents[ii] = new Object[WIDTH];
+                int start = ii * WIDTH;
+                System.arraycopy(nodes, start, parents[ii], 0,
+                                 Math.min(WIDTH, nodes.length - start));
+            }
+            nodes = parents;
+            shift += BITS;
+        }
+        return new State(nodes[0], shift, elems.length);
+    }
+
+    protected static void checkIndex (int index, int size) {
+        if (index < 0 || index >= size) throw outOfBounds(index, size);
+    }
+
+    protected static IndexOutOfBoundsException outOfBounds (int index, int size) {
+        return new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+
+    protected volatile State _state;
+    protected final boolean _mutable;
+
+    protected static final int BITS = 5, WIDTH = 1 << BITS, MASK = WIDTH - 1;
+    protected static final State EMPTY = new State(new Object[WIDTH], 0, 0);
+}
@@ -0,0 +1,424 @@
+//
+// React - a library for functional-reactive-like programming in Java
+// Copyright (c) 2011, Three Rings Design, Inc. - All rights reserved.
+// http://github.com/threerings/react/blob/master/LICENSE
+
+package react;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A map backed by a persistent hash array mapped trie. Every mutation replaces the trie root with
+ * a new root which shares all unmodified structure with the old root, so {@link #snapshot} is
+ * O(1) and the resulting snapshot may be read by any thread without locking while this map
+ * continues to be mutated. Lookups and updates are O(log<sub>32</sub> n). Iteration order is
+ * unspecified. Null keys and values are supported.
+ */
+class TrieMap<K,V> extends AbstractMap<K,V>
+{
+    /** Creates an empty, mutable map. */
+    public TrieMap () {
+        this(EMPTY, true);
+    }
+
+    /**
+     * Returns an immutable snapshot of the current contents of this map. This method may be
+     * called from any thread.
+     */
+    public TrieMap<K,V> snapshot () {
+        return _mutable ? new TrieMap<K,V>(_root, false) : this;
+    }
+
+    @Override public int size () {
+        return _root.size;
+    }
+
+    @Override public boolean containsKey (Object key) {
+        Node node = _root.node;
+        return node != null && node.find(0, hash(key), mask(key), NOT_FOUND) != NOT_FOUND;
+    }
+
+    @Override public V get (Object key) {
+        Node node = _root.node;
+        Object value = (node == null) ? null : node.find(0, hash(key), mask(key), null);
+        @SuppressWarnings("unchecked") V v = (V)value;
+        return v;
+    }
+
+    @Override public V put (K key, V value) {
+        checkMutable();
+        Root root = _root;
+        Box box = new Box();
+        Object mkey = mask(key);
+        Node node = (root.node == null) ? BitmapNode.EMPTY : root.node;
+        Node nnode = node.put(0, hash(key), mkey, value, box);
+        if (nnode != node) _root = new Root(nnode, box.added ? root.size+1 : root.size);
+        @SuppressWarnings("unchecked") V ovalue = (V)box.value;
+        return ovalue;
+    }
+
+    @Override public V remove (Object key) {
+        checkMutable();
+        Root root = _root;
+        if (root.node == null) return null;
+        Box box = new Box();
+        Node nnode = root.node.remove(0, hash(key), mask(key), box);
+        if (nnode != root.node) _root = (nnode == null) ? EMPTY : new Root(nnode, root.size-1);
+        @SuppressWarnings("unchecked") V ovalue = (V)box.value;
+        return ovalue;
+    }
+
+    @Override public void clear () {
+        checkMutable();
+        _root = EMPTY;
+    }
+
+    @Override public Set<Map.Entry<K,V>> entrySet () {
+        return new AbstractSet<Map.Entry<K,V>>() {
+            @Override public Iterator<Map.Entry<K,V>> iterator () {
+                return new EntryIterator(_root.node);
+            }
+            @Override public int size () {
+                return TrieMap.this.size();
+            }
+            @Override public boolean contains (Object o) {
+                if (!(o instanceof Map.Entry<?,?>)) return false;
+                Map.Entry<?,?> entry = (Map.Entry<?,?>)o;
+                Node node = _root.node;
+                Object key = entry.getKey();
+                Object value = (node == null) ? NOT_FOUND :
+                    node.find(0, hash(key), mask(key), NOT_FOUND);
+                return value != NOT_FOUND && Reactor.areEqual(value, entry.getValue());
+            }
+            @Override public boolean remove (Object o) {
+                if (!contains(o)) return false;
+                TrieMap.this.remove(((Map.Entry<?,?>)o).getKey());
+                return true;
+            }
+            @Override public void clear () {
+                TrieMap.this.clear();
+            }
+        };
+    }
+
+    protected TrieMap (Root root, boolean mutable) {
+        _root = root;
+        _mutable = mutable;
+    }
+
+    protected void checkMutable () {
+        if (!_mutable) throw new UnsupportedOperationException("Snapshots are immutable.");
+    }
+
+    /** Iterates over the entries of a (necessarily immutable) trie. */
+    protected class EntryIterator implements Iterator<Map.Entry<K,V>> {
+        public EntryIterator (Node root) {
+            if (root != null) push(root);
+            advance();
+        }
+
+        public boolean hasNext () {
+            return _next != null;
+        }
+
+        public Map.Entry<K,V> next () {
+            if (_next == null) throw new NoSuchElementException();
+            _last = _next;
+            advance();
+            return _last;
+        }
+
+        public void remove () {
+            if (_last == null) throw new IllegalStateException();
+            TrieMap.this.remove(_last.getKey());
+            _last = null;
+        }
+
+        protected void push (Node node) {
+            if (_depth == _nodes.length) {
+                Object[][] nodes = new Object[_depth*2][];
+                System.arraycopy(_nodes, 0, nodes, 0, _depth);
+                _nodes = nodes;
+                int[] poses = new int[_depth*2];
+                System.arraycopy(_poses, 0, poses, 0, _depth);
+                _poses = poses;
+            }
+            _nodes[_depth] = node.array;
+            _poses[_depth] = 0;
+            _depth++;
+        }
+
+        protected void advance () {
+            _next = null;
+            while (_depth > 0) {
+                Object[] array = _nodes[_depth-1];
+                int pos = _poses[_depth-1];
+                if (pos >= array.length) {
+                    _nodes[--_depth] = null;
+                    continue;
+                }
+                _poses[_depth-1] = pos + 2;
+                Object key = array[pos], value = array[pos+1];
+                if (key == null) push((Node)value);
+                else {
+                    @SuppressWarnings("unchecked") K k = (K)unmask(key);
+                    @SuppressWarnings("unchecked") V v = (V)value;
+                    _next = new Entry(k, v);
+                    return;
+                }
+            }
+        }
+
+        protected Object[][] _nodes = new Object[8][];
+        protected int[] _poses = new int[8];
+        protected int _depth;
+        protected Entry _next, _last;
+    }
+
+    /** An entry returned by our iterator. Updates write through to the map. */
+    protected class Entry implements Map.Entry<K,V> {
+        public Entry (K key, V value) {
+            _key = key;
+            _value = value;
+        }
+
+        public K getKey () {
+            return _key;
+        }
+
+        public V getValue () {
+            return _value;
+        }
+
+        public V setValue (V value) {
+            V ovalue = put(_key, value);
+            _value = value;
+            return ovalue;
+        }
+
+        @Override public boolean equals (Object other) {
+            if (!(other instanceof Map.Entry<?,?>)) return false;
+            Map.Entry<?,?> oentry = (Map.Entry<?,?>)other;
+            return Reactor.areEqual(_key, oentry.getKey()) &&
+                Reactor.areEqual(_value, oentry.getValue());
+        }
+
+        @Override public int hashCode () {
+            return (_key == null ? 0 : _key.hashCode()) ^ (_value == null ? 0 : _value.hashCode());
+        }
+
+        @Override public String toString () {
+            return _key + "=" + _value;
+        }
+
+        protected final K _key;
+        protected V _value;
+    }
+
+    /** The root of a trie, along with the number of mappings it contains. */
+    protected static final class Root {
+        public final Node node; // null if empty
+        public final int size;
+        public Root (Node node, int size) {
+            this.node = node;
+            this.size = size;
+        }
+    }
+
+    /** Used to return auxiliary results from {@link Node#put} and {@link Node#remove}. */
+    protected static final class Box {
+        public Object value;
+        public boolean added;
+    }
+
+    /** A node in the trie. Its array contains key/value pairs, or null/subnode pairs. Nodes are
+      * never modified after they are constructed. */
+    protected static abstract class Node {
+        public final Object[] array;
+
+        public Node (Object[] array) {
+            this.array = array;
+        }
+
+        public abstract Object find (int shift, int hash, Object key, Object notFound);
+        public abstract Node put (int shift, int hash, Object key, Object value, Box box);
+        public abstract Node remove (int shift, int hash, Object key, Box box);
+    }
+
+    /** A node which maps up to 32 hash fragments to entries or subnodes. */
+    protected static final class BitmapNode extends Node {
+        public static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+        public final int bitmap;
+
+        public BitmapNode (int bitmap, Object[] array) {
+            super(array);
+            this.bitmap = bitmap;
+        }
+
+        @Override public Object find (int shift, int hash, Object key, Object notFound) {
+            int bit = bitpos(hash, shift);
+            if ((bitmap & bit) == 0) return notFound;
+            int idx = index(bit);
+            Object k = array[2*idx], v = array[2*idx+1];
+            if (k == null) return ((Node)v).find(shift+5, hash, key, notFound);
+            return Reactor.areEqual(key, k) ? v : notFound;
+        }
+
+        @Override public Node put (int shift, int hash, Object key, Object value, Box box) {
+            int bit = bitpos(hash, shift), idx = index(bit);
+            if ((bitmap & bit) == 0) {
+                box.added = true;
+                int count = Integer.bitCount(bitmap);
+                Object[] narray = new Object[2*(count+1)];
+                System.arraycopy(array, 0, narray, 0, 2*idx);
+                narray[2*idx] = key;
+                narray[2*idx+1] = value;
+                System.arraycopy(array, 2*idx, narray, 2*(idx+1), 2*(count-idx));
+                return new BitmapNode(bitmap | bit, narray);
+            }
+
+            Object k = array[2*idx], v = array[2*idx+1];
+            if (k == null) {
+                Node node = (Node)v, nnode = node.put(shift+5, hash, key, value, box);
+                return (nnode == node) ? this : with(2*idx+1, nnode);
+            }
+            if (Reactor.areEqual(key, k)) {
+                box.value = v;
+                return (v == value) ? this : with(2*idx+1, value);
+            }
+            box.added = true;
+            Node sub = create(shift+5, k, v, hash, key, value);
+            Object[] narray = array.clone();
+            narray[2*idx] = null;
+            narray[2*idx+1] = sub;
+            return new BitmapNode(bitmap, narray);
+        }
+
+        @Override public Node remove (int shift, int hash, Object key, Box box) {
+            int bit = bitpos(hash, shift);
+            if ((bitmap & bit) == 0) return this;
+            int idx = index(bit);
+            Object k = array[2*idx], v = array[2*idx+1];
+            if (k == null) {
+                Node node = (Node)v, nnode = node.remove(shift+5, hash, key, box);
+                if (nnode == node) return this;
+                if (nnode != null) return with(2*idx+1, nnode);
+            } else if (Reactor.areEqual(key, k)) {
+                box.value = v;
+            } else return this;
+
+            // if we get here, we need to remove the entry at idx
+            if (bitmap == bit) return null;
+            int count = Integer.bitCount(bitmap);
+            Object[] narray = new Object[2*(count-1)];
+            System.arraycopy(array, 0, narray, 0, 2*idx);
+            System.arraycopy(array, 2*(idx+1), narray, 2*idx, 2*(count-idx-1));
+            return new BitmapNode(bitmap ^ bit, narray);
+        }
+
+        protected int index (int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        protected BitmapNode with (int idx, Object value) {
+            Object[] narray = array.clone();
+            narray[idx] = value;
+            return new BitmapNode(bitmap, narray);
+        }
+
+        protected static Node create (int shift, Object k1, Object v1,
+                                      int h2, Object k2, Object v2) {
+            int h1 = hash(unmask(k1));
+            if (h1 == h2) return new CollisionNode(h1, new Object[] { k1, v1, k2, v2 });
+            Box box = new Box();
+            return EMPTY.put(shift, h1, k1, v1, box).put(shift, h2, k2, v2, box);
+        }
+    }
+
+    /** A node which contains entries whose keys have identical hash codes. */
+    protected static final class CollisionNode extends Node {
+        public final int hash;
+
+        public CollisionNode (int hash, Object[] array) {
+            super(array);
+            this.hash = hash;
+        }
+
+        @Override public Object find (int shift, int hash, Object key, Object notFound) {
+            int idx = indexOf(key);
+            return (idx < 0) ? notFound : array[idx+1];
+        }
+
+        @Override public Node put (int shift, int hash, Object key, Object value, Box box) {
+            if (hash != this.hash) {
+                // nest ourselves in a bitmap node and add the new entry alongside us
+                return new BitmapNode(bitpos(this.hash, shift), new Object[] { null, this }).
+                    put(shift, hash, key, value, box);
+            }
+            int idx = indexOf(key);
+            if (idx >= 0) {
+                box.value = array[idx+1];
+                if (array[idx+1] == value) return this;
+                Object[] narray = array.clone();
+                narray[idx+1] = value;
+                return new CollisionNode(hash, narray);
+            }
+            box.added = true;
+            Object[] narray = new Object[array.length+2];
+            System.arraycopy(array, 0, narray, 0, array.length);
+            narray[array.length] = key;
+            narray[array.length+1] = value;
+            return new CollisionNode(hash, narray);
+        }
+
+        @Override public Node remove (int shift, int hash, Object key, Box box) {
+            int idx = indexOf(key);
+            if (idx < 0) return this;
+            box.value = array[idx+1];
+            if (array.length == 2) return null;
+            Object[] narray = new Object[array.length-2];
+            System.arraycopy(array, 0, narray, 0, idx);
+            System.arraycopy(array, idx+2, narray, idx, array.length-idx-2);
+            return new CollisionNode(hash, narray);
+        }
+
+        protected int indexOf (Object key) {
+            for (int ii = 0; ii < array.length; ii += 2) {
+                if (Reactor.areEqual(key, array[ii])) return ii;
+            }
+            return -1;
+        }
+    }
+
+    protected static int hash (Object key) {
+        if (key == null) return 0;
+        int hash = key.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+    protected static int bitpos (int hash, int shift) {
+        return 1 << ((hash >>> shift) & 31);
+    }
+
+    // null keys are stored as NULL_KEY, so that a null key slot can indicate a subnode
+    protected static Object mask (Object key) {
+        return (key == null) ? NULL_KEY : key;
+    }
+
+    protected static Object unmask (Object key) {
+        return (key == NULL_KEY) ? null : key;
+    }
+
+    protected volatile Root _root;
+    protected final boolean _mutable;
+
+    protected static final Root EMPTY = new Root(null, 0);
+    protected static final Object NULL_KEY = new Object();
+    protected static final Object NOT_FOUND = new Object();
+}
@@ -0,0 +1,59 @@
+//
+// React - a library for functional-reactive-like programming in Java
+// Copyright (c) 2011, Three Rings Design, Inc. - All rights reserved.
+// http://github.com/threerings/react/blob/master/LICENSE
+
+package react;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+
+/**
+ * A set backed by a {@link TrieMap}, which thus supports O(1) {@link #snapshot}s.
+ */
+class TrieSet<E> extends AbstractSet<E>
+{
+    /** Creates an empty, mutable set. */
+    public TrieSet () {
+        this(new TrieMap<E,Boolean>());
+    }
+
+    /**
+     * Returns an immutable snapshot of the current contents of this set. This method may be
+     * called from any thread.
+     */
+    public TrieSet<E> snapshot () {
+        TrieMap<E,Boolean> snap = _map.snapshot();
+        return (snap == _map) ? this : new TrieSet<E>(snap);
+    }
+
+    @Override public int size () {
+        return _map.size();
+    }
+
+    @Override public boolean contains (Object elem) {
+        return _map.containsKey(elem);
+    }
+
+    @Override public boolean add (E elem) {
+        return _map.put(elem, Boolean.TRUE) == null;
+    }
+
+    @Override public boolean remove (Object elem) {
+        return _map.remove(elem) != null;
+    }
+
+    @Override public void clear () {
+        _map.clear();
+    }
+
+    @Override public Iterator<E> iterator () {
+        return _map.keySet().iterator();
+    }
+
+    protected TrieSet (TrieMap<E,Boolean> map) {
+        _map = map;
+    }
+
+    protected final TrieMap<E,Boolean> _map;
+}
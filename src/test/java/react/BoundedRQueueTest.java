@@ -0,0 +1,164 @@
+//
+// React - a library for functional-reactive-like programming
+// Copyright (c) 2015, Three Rings Design, Inc. - All rights reserved.
+// http://github.com/threerings/react/blob/master/LICENSE
+
+package react;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class BoundedRQueueTest
+{
+    @Test public void testReject () {
+        BoundedRQueue<Integer> queue = BoundedRQueue.create(3);
+        RQueueTest.Counter counter = new RQueueTest.Counter();
+        queue.connect(counter);
+        List<Integer> overflows = new ArrayList<Integer>();
+        queue.overflowed().connect(collect(overflows));
+        ValueView<Boolean> full = queue.fullView();
+        ValueView<Integer> remain = queue.remainingCapacityView();
+
+        for (int ii = 0; ii < 3; ii++) assertTrue(queue.offer(ii));
+        assertTrue(full.get());
+        assertEquals(0, remain.get().intValue());
+        assertFalse(queue.offer(3));
+        assertEquals(3, counter.notifies);
+        assertEquals(list(3), overflows);
+        try {
+            queue.add(4);
+            fail();
+        } catch (IllegalStateException ise) {} // expected
+
+        // wrap around a few times
+        for (int ii = 0; ii < 10; ii++) {
+            assertEquals(ii, queue.poll().intValue());
+            assertFalse(full.get());
+            assertEquals(1, queue.remainingCapacity());
+            assertTrue(queue.offer(ii+3));
+        }
+        assertEquals(list(10, 11, 12), new ArrayList<Integer>(queue));
+        queue.clear();
+        assertEquals(3, remain.get().intValue());
+    }
+
+    @Test public void testDropOldest () {
+        BoundedRQueue<Integer> queue = BoundedRQueue.create(2, BoundedRQueue.Overflow.DROP_OLDEST);
+        final List<Integer> polled = new ArrayList<Integer>();
+        queue.connect(new RQueue.Listener<Integer>() {
+            @Override public void onPoll (Integer elem) { polled.add(elem); }
+        });
+        List<Integer> overflows = new ArrayList<Integer>();
+        queue.overflowed().connect(collect(overflows));
+        for (int ii = 0; ii < 5; ii++) assertTrue(queue.offer(ii));
+        assertEquals(list(3, 4), new ArrayList<Integer>(queue));
+        assertEquals(list(0, 1, 2), overflows);
+        assertEquals(list(0, 1, 2), polled);
+    }
+
+    @Test public void testBlock () throws Exception {
+        final BoundedRQueue<Integer> queue = BoundedRQueue.create(4, BoundedRQueue.Overflow.BLOCK);
+        final int count = 1000;
+        Thread producer = new Thread() {
+            public void run () {
+                for (int ii = 0; ii < count; ii++) queue.add(ii);
+            }
+        };
+        producer.start();
+        List<Integer> got = new ArrayList<Integer>();
+        while (got.size() < count) {
+            Integer elem = queue.poll();
+            if (elem == null) Thread.yield();
+            else {
+                assertTrue(queue.size() <= 4);
+                got.add(elem);
+            }
+        }
+        producer.join();
+        for (int ii = 0; ii < count; ii++) assertEquals(ii, got.get(ii).intValue());
+    }
+
+    @Test public void testNotifyUnlocked () throws Exception {
+        final BoundedRQueue<Integer> queue = BoundedRQueue.create(1, BoundedRQueue.Overflow.BLOCK);
+        final List<String> events = new ArrayList<String>();
+        queue.connect(new RQueue.Listener<Integer>() {
+            @Override public void onOffer (Integer elem) {
+                assertFalse(queue._lock.isHeldByCurrentThread());
+                synchronized (events) { events.add("offer " + elem); }
+            }
+            @Override public void onPoll (Integer elem) {
+                assertFalse(queue._lock.isHeldByCurrentThread());
+                synchronized (events) { events.add("poll " + elem); }
+            }
+        });
+        final Thread consumer = new Thread() {
+            public void run () {
+                assertEquals(1, queue.poll().intValue());
+            }
+        };
+        // the blocked producer emits overflowed without holding the lock, so a listener may wake
+        // a consumer which polls the queue
+        queue.overflowed().connect(new Slot<Integer>() {
+            public void onEmit (Integer elem) {
+                assertFalse(queue._lock.isHeldByCurrentThread());
+                consumer.start();
+            }
+        });
+        queue.offer(1);
+        assertTrue(queue.offer(2));
+        consumer.join();
+        assertEquals(list(2), new ArrayList<Integer>(queue));
+        assertEquals(3, events.size());
+    }
+
+    @Test public void testConcurrentRead () throws Exception {
+        final BoundedRQueue<Integer> queue = BoundedRQueue.create(8, BoundedRQueue.Overflow.BLOCK);
+        final int count = 20000;
+        Thread producer = new Thread() {
+            public void run () {
+                for (int ii = 0; ii < count; ii++) queue.add(ii);
+            }
+        };
+        producer.start();
+        // iterate and read the queue while it's being mutated; every snapshot is in order
+        int polled = 0;
+        while (polled < count) {
+            int last = -1;
+            for (Integer elem : queue) {
+                assertTrue(elem > last);
+                last = elem;
+            }
+            assertTrue(queue.toArray().length <= 8);
+            queue.contains(polled);
+            queue.toString();
+            if (queue.poll() != null) polled++;
+        }
+        producer.join();
+        assertTrue(queue.isEmpty());
+
+        queue.add(1);
+        queue.add(2);
+        final List<Integer> notified = new ArrayList<Integer>();
+        queue.connectNotify(new RQueue.Listener<Integer>() {
+            @Override public void onOffer (Integer elem) { notified.add(elem); }
+        });
+        queue.add(3);
+        assertEquals(list(1, 2, 3), notified);
+        assertEquals("BoundedRQueue([1, 2, 3])", queue.toString());
+    }
+
+    protected static <T> Slot<T> collect (final List<T> into) {
+        return new Slot<T>() {
+            public void onEmit (T value) { into.add(value); }
+        };
+    }
+
+    protected static List<Integer> list (Integer... values) {
+        List<Integer> list = new ArrayList<Integer>();
+        for (Integer value : values) list.add(value);
+        return list;
+    }
+}
@@ -0,0 +1,162 @@
+//
+// React - a library for functional-reactive-like programming in Java
+// Copyright (c) 2011, Three Rings Design, Inc. - All rights reserved.
+// http://github.com/threerings/react/blob/master/LICENSE
+
+package react;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link ChangeEncoder} and {@link ChangeDecoder} classes.
+ */
+public class ChangeCodecTest
+{
+    @Test public void testMirror () throws IOException {
+        RMap<String,Integer> map = RMap.create();
+        RList<String> list = RList.create();
+        RSet<Integer> set = RSet.create();
+        Value<String> value = Value.create("init");
+        map.put("pre", 1);
+        list.add("pre");
+
+        ChangeEncoder enc = new ChangeEncoder().
+            attach(1, map, Codecs.STRING, Codecs.INT).
+            attach(2, list, Codecs.nullable(Codecs.STRING)).
+            attach(3, set, Codecs.INT).
+            attach(4, value, Codecs.STRING);
+        RMap<String,Integer> mmap = RMap.create();
+        RList<String> mlist = RList.create();
+        RSet<Integer> mset = RSet.create();
+        Value<String> mvalue = Value.create(null);
+        ChangeDecoder dec = new ChangeDecoder().
+            attach(1, mmap, Codecs.STRING, Codecs.INT).
+            attach(2, mlist, Codecs.nullable(Codecs.STRING)).
+            attach(3, mset, Codecs.INT).
+            attach(4, mvalue, Codecs.STRING);
+
+        Random rando = new Random(42);
+        for (int batch = 0; batch < 50; batch++) {
+            for (int ii = 0; ii < 40; ii++) {
+                switch (rando.nextInt(8)) {
+                case 0: map.put("k" + rando.nextInt(20), rando.nextInt()); break;
+                case 1: map.remove("k" + rando.nextInt(20)); break;
+                case 2: list.add(rando.nextInt(list.size()+1),
+                                 rando.nextBoolean() ? null : "e" + ii); break;
+                case 3: if (!list.isEmpty()) list.remove(rando.nextInt(list.size())); break;
+                case 4: if (!list.isEmpty()) list.set(rando.nextInt(list.size()), "s" + ii); break;
+                case 5: set.add(rando.nextInt(30)); break;
+                case 6: set.remove(rando.nextInt(30)); break;
+                case 7: value.update("v" + ii); break;
+                }
+            }
+            transfer(enc, dec);
+            assertEquals(map, mmap);
+            assertEquals(list, mlist);
+            assertEquals(set, mset);
+            assertEquals(value.get(), mvalue.get());
+        }
+
+        enc.close();
+        map.put("after", 1);
+        assertFalse(enc.hasChanges());
+    }
+
+    @Test public void testCoalescing () throws IOException {
+        RMap<Integer,Integer> map = RMap.create();
+        RList<Integer> list = RList.create();
+        ChangeEncoder enc = new ChangeEncoder().
+            attach(1, map, Codecs.INT, Codecs.INT).
+            attach(2, list, Codecs.INT);
+        RMap<Integer,Integer> mmap = RMap.create();
+        RList<Integer> mlist = RList.create();
+        ChangeDecoder dec = new ChangeDecoder().
+            attach(1, mmap, Codecs.INT, Codecs.INT).
+            attach(2, mlist, Codecs.INT);
+        RMapTest.Counter counter = new RMapTest.Counter();
+        mmap.connect(counter);
+
+        list.add(0);
+        list.add(1);
+        for (int ii = 0; ii < 100; ii++) {
+            map.put(7, ii);
+            list.set(1, ii);
+        }
+        // two adds, one set and one put
+        assertEquals(4, transfer(enc, dec));
+        assertEquals(1, counter.notifies);
+        assertEquals(99, mmap.get(7).intValue());
+        assertEquals(list, mlist);
+
+        // a put to a key we've seen before uses the dictionary, and so is small
+        map.put(7, 1);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        enc.flush(new DataOutputStream(bytes));
+        assertEquals(6, bytes.size()); // id, count, op, key ref, value, terminator
+    }
+
+    @Test public void testKeyEviction () throws IOException {
+        RMap<String,Integer> map = RMap.create();
+        ChangeEncoder enc = new ChangeEncoder().attach(1, map, Codecs.STRING, Codecs.INT);
+        RMap<String,Integer> mmap = RMap.create();
+        ChangeDecoder dec = new ChangeDecoder().attach(1, mmap, Codecs.STRING, Codecs.INT);
+        map.put("keep", 0);
+        transfer(enc, dec);
+
+        // churn through many more keys than fit in the dictionary, a few live at a time
+        for (int ii = 0; ii < 3*ChangeEncoder.MAX_KEYS; ii++) {
+            map.put("k" + ii, ii);
+            if (ii >= 3) map.remove("k" + (ii-3));
+            if (ii % 100 == 0) {
+                map.put("keep", ii);
+                transfer(enc, dec);
+            }
+        }
+        transfer(enc, dec);
+        assertEquals(map, mmap);
+
+        // the removed keys' indices were freed, so live keys are still referenced compactly
+        ChangeEncoder.MapChannel<?,?> channel = (ChangeEncoder.MapChannel<?,?>)enc._channels.get(1);
+        assertEquals(map.size(), channel._dict.size());
+        map.put("k" + (3*ChangeEncoder.MAX_KEYS - 1), 1);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        enc.flush(new DataOutputStream(bytes));
+        assertEquals(6, bytes.size()); // id, count, op, key ref, value, terminator
+    }
+
+    @Test public void testNullKey () throws IOException {
+        Codec<String> keys = Codecs.nullable(Codecs.STRING);
+        RMap<String,Integer> map = RMap.create();
+        ChangeEncoder enc = new ChangeEncoder().attach(1, map, keys, Codecs.INT);
+        RMap<String,Integer> mmap = RMap.create();
+        ChangeDecoder dec = new ChangeDecoder().attach(1, mmap, keys, Codecs.INT);
+        map.put(null, 1);
+        transfer(enc, dec);
+        map.put(null, 2); // now sent as a key ref
+        transfer(enc, dec);
+        assertEquals(map, mmap);
+        map.remove(null);
+        transfer(enc, dec);
+        assertEquals(map, mmap);
+        map.put(null, 3);
+        transfer(enc, dec);
+        assertEquals(map, mmap);
+    }
+
+    protected static int transfer (ChangeEncoder enc, ChangeDecoder dec) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int count = enc.flush(new DataOutputStream(bytes));
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(count, dec.apply(in));
+        assertEquals(-1, in.read());
+        return count;
+    }
+}
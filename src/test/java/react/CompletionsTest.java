@@ -0,0 +1,96 @@
+//
+// React - a library for functional-reactive-like programming
+// Copyright (c) 2015, Three Rings Design, Inc. - All rights reserved.
+// http://github.com/threerings/react/blob/master/LICENSE
+
+package react;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link Completions} class.
+ */
+public class CompletionsTest
+{
+    @Test public void testCompletionOrder () {
+        RPromise<String> a = RPromise.create(), b = RPromise.create(), c = RPromise.create();
+        List<RFuture<String>> futures = Arrays.<RFuture<String>>asList(
+            a, RFuture.success("done"), b, c);
+        Completions<String> comps = Completions.of(futures);
+        assertEquals(4, comps.total());
+        assertEquals(1, comps.completedView().get().intValue());
+
+        // results which arrive before we connect are held
+        c.succeed("c");
+        final List<String> results = new ArrayList<String>();
+        comps.connect(new Slot<Try<String>>() {
+            public void onEmit (Try<String> result) {
+                results.add(result.isSuccess() ? result.get() : result.getFailure().getMessage());
+            }
+        });
+        assertEquals(Arrays.asList("done", "c"), results);
+
+        final List<Float> progress = new ArrayList<Float>();
+        comps.progress().connect(new Slot<Float>() {
+            public void onEmit (Float value) { progress.add(value); }
+        });
+        a.fail(new Exception("a"));
+        assertFalse(comps.isDone());
+        b.succeed("b");
+        assertTrue(comps.isDone());
+        assertEquals(Arrays.asList("done", "c", "a", "b"), results);
+        assertEquals(Arrays.asList(0.75f, 1f), progress);
+    }
+
+    @Test public void testClose () {
+        RPromise<Integer> a = RPromise.create(), b = RPromise.create();
+        Completions<Integer> comps = Completions.of(Arrays.asList(a, b));
+        final int[] emitted = new int[1];
+        comps.connect(new Slot<Try<Integer>>() {
+            public void onEmit (Try<Integer> result) { emitted[0]++; }
+        });
+        a.succeed(1);
+        comps.close();
+        assertFalse(b.hasConnections());
+        b.succeed(2);
+        assertEquals(1, emitted[0]);
+        assertEquals(1, comps.completedView().get().intValue());
+    }
+
+    @Test public void testNotifyUnlocked () {
+        RPromise<Integer> a = RPromise.create(), b = RPromise.create();
+        final Completions<Integer> comps = Completions.of(
+            Arrays.asList(RFuture.success(0), a, b));
+        a.succeed(1);
+        final List<Integer> results = new ArrayList<Integer>();
+        comps.completedView().connect(new Slot<Integer>() {
+            public void onEmit (Integer completed) {
+                assertFalse(Thread.holdsLock(comps));
+            }
+        });
+        // held results are emitted to the first listener without holding the lock, as are those
+        // which arrive thereafter
+        comps.connect(new Slot<Try<Integer>>() {
+            public void onEmit (Try<Integer> result) {
+                assertFalse(Thread.holdsLock(comps));
+                results.add(result.get());
+            }
+        });
+        assertEquals(Arrays.asList(0, 1), results);
+        b.succeed(2);
+        assertEquals(Arrays.asList(0, 1, 2), results);
+        assertTrue(comps.isDone());
+    }
+
+    @Test public void testEmpty () {
+        Completions<Integer> comps = Completions.of(Collections.<RFuture<Integer>>emptyList());
+        assertTrue(comps.isDone());
+        assertEquals(1f, comps.progress().get(), 0f);
+    }
+}
@@ -0,0 +1,110 @@
+//
+// React - a library for functional-reactive-like programming in Java
+// Copyright (c) 2011, Three Rings Design, Inc. - All rights reserved.
+// http://github.com/threerings/react/blob/master/LICENSE
+
+package react;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests aspects of the {@link ConcurrentRMap} class.
+ */
+public class ConcurrentRMapTest
+{
+    @Test public void testBasicNotify () {
+        ConcurrentRMap<Integer,String> map = ConcurrentRMap.create();
+        RMapTest.Counter counter = new RMapTest.Counter();
+        map.connect(counter);
+
+        map.put(42, "LTUAE");
+        assertEquals(1, counter.notifies);
+        map.put(42, "LTUAE");
+        assertEquals(1, counter.notifies);
+        assertNull(map.putIfAbsent(43, "Bar"));
+        assertEquals(2, counter.notifies);
+        assertEquals("Bar", map.putIfAbsent(43, "Baz"));
+        assertEquals(2, counter.notifies);
+        assertFalse(map.replace(43, "Baz", "Bif"));
+        assertTrue(map.replace(43, "Bar", "Bif"));
+        assertEquals(3, counter.notifies);
+        assertFalse(map.remove(43, "Bar"));
+        assertTrue(map.remove(43, "Bif"));
+        assertEquals(4, counter.notifies);
+        map.remove(42);
+        assertEquals(5, counter.notifies);
+        map.remove(42);
+        assertEquals(5, counter.notifies);
+        assertEquals(0, map.sizeView().get().intValue());
+    }
+
+    @Test public void testReentrantOrdering () {
+        final ConcurrentRMap<String,Integer> map = ConcurrentRMap.create(1);
+        final List<Integer> seen = new ArrayList<Integer>();
+        // the first listener bumps the value, the second records what it sees; the second should
+        // see the original put before the bumped put
+        map.connect(new RMap.Listener<String,Integer>() {
+            @Override public void onPut (String key, Integer value) {
+                if (value < 3) map.put(key, value+1);
+            }
+        });
+        map.connect(new RMap.Listener<String,Integer>() {
+            @Override public void onPut (String key, Integer value) {
+                seen.add(value);
+            }
+        });
+        map.put("a", 1);
+        assertEquals(3, map.get("a").intValue());
+        assertEquals(list(1, 2, 3), seen);
+    }
+
+    @Test public void testConcurrentPerKeyOrdering () throws Exception {
+        final int threads = 8, keys = 16, puts = 2000;
+        final ConcurrentRMap<Integer,Integer> map = ConcurrentRMap.create();
+        final Map<Integer,Integer> lastSeen = new HashMap<Integer,Integer>();
+        final List<String> errors = new ArrayList<String>();
+        map.connect(new RMap.Listener<Integer,Integer>() {
+            @Override public void onPut (Integer key, Integer value, Integer ovalue) {
+                synchronized (lastSeen) {
+                    Integer last = lastSeen.put(key, value);
+                    if (last != ovalue && (last == null || !last.equals(ovalue))) {
+                        errors.add("Out of order put " + key + ": " + last + " != " + ovalue);
+                    }
+                }
+            }
+        });
+
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int tt = 0; tt < threads; tt++) {
+            final int base = tt * puts;
+            Thread worker = new Thread() {
+                public void run () {
+                    try { start.await(); } catch (InterruptedException ie) { return; }
+                    for (int ii = 0; ii < puts; ii++) map.put(ii % keys, base + ii);
+                }
+            };
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker : workers) worker.join();
+
+        assertEquals(new ArrayList<String>(), errors);
+        assertEquals(map, lastSeen);
+        assertEquals(keys, map.sizeView().get().intValue());
+    }
+
+    protected static List<Integer> list (Integer... values) {
+        List<Integer> list = new ArrayList<Integer>();
+        for (Integer value : values) list.add(value);
+        return list;
+    }
+}
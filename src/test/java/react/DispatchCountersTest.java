@@ -0,0 +1,88 @@
+//
+// React - a library for functional-reactive-like programming
+// Copyright (c) 2015, Three Rings Design, Inc. - All rights reserved.
+// http://github.com/threerings/react/blob/master/LICENSE
+
+package react;
+
+import java.util.List;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link DispatchCounters} class and dispatch metrics.
+ */
+public class DispatchCountersTest
+{
+    @Before public void install () {
+        Reactor.setMetrics(_counters);
+    }
+
+    @After public void uninstall () {
+        Reactor.setMetrics(null);
+    }
+
+    @Test public void testCounts () {
+        final Signal<Integer> busy = Signal.create();
+        Signal<Integer> quiet = Signal.create();
+        busy.connect(Slots.NOOP);
+        busy.connect(new Slot<Integer>() {
+            public void onEmit (Integer value) {
+                // these are deferred until the dispatch completes
+                if (value == 0) busy.connect(Slots.NOOP).once();
+                if (value == 1) throw new RuntimeException("Bang");
+            }
+        });
+        quiet.connect(Slots.NOOP);
+
+        busy.emit(0);
+        try {
+            busy.emit(1);
+            fail();
+        } catch (RuntimeException re) {
+            assertEquals("Bang", re.getMessage());
+        }
+        quiet.emit(0);
+
+        assertEquals(3, _counters.dispatches());
+        assertEquals(2 + 3 + 1, _counters.listeners());
+        assertEquals(2, _counters.deferred()); // the connect, and the one-shot disconnect
+        assertEquals(1, _counters.failures());
+        long total = 0;
+        for (long count : _counters.histogram()) total += count;
+        assertEquals(3, total);
+
+        List<DispatchCounters.Tally> top = _counters.top(10);
+        assertEquals(2, top.size());
+        DispatchCounters.Tally tally = (top.get(0).reactor == busy) ? top.get(0) : top.get(1);
+        assertEquals(2, tally.dispatches());
+        assertEquals(5, tally.listeners());
+        assertEquals(1, _counters.top(1).size());
+
+        _counters.reset();
+        assertEquals(0, _counters.dispatches());
+        assertEquals(0, _counters.top(10).size());
+    }
+
+    @Test public void testPromise () {
+        RPromise<String> promise = RPromise.create();
+        promise.onSuccess(Slots.NOOP);
+        promise.onFailure(Slots.NOOP);
+        promise.succeed("Yay!");
+        assertEquals(1, _counters.dispatches());
+        assertEquals(2, _counters.listeners());
+        assertSame(promise, _counters.top(1).get(0).reactor);
+    }
+
+    @Test public void testConcurrentMap () {
+        ConcurrentRMap<String,Integer> map = ConcurrentRMap.create();
+        map.connect(new RMap.Listener<String,Integer>() {});
+        map.put("one", 1);
+        map.put("two", 2);
+        assertEquals(2, _counters.dispatches());
+        assertEquals(2, _counters.listeners());
+    }
+
+    protected final DispatchCounters _counters = new DispatchCounters();
+}
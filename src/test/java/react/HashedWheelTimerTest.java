@@ -0,0 +1,111 @@
+//
+// React - a library for functional-reactive-like programming
+// Copyright (c) 2015, Three Rings Design, Inc. - All rights reserved.
+// http://github.com/threerings/react/blob/master/LICENSE
+
+package react;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link HashedWheelTimer} class.
+ */
+public class HashedWheelTimerTest
+{
+    @Test public void testExpiry () {
+        HashedWheelTimer.VirtualClock clock = new HashedWheelTimer.VirtualClock();
+        HashedWheelTimer timer = new HashedWheelTimer(10, 8, clock);
+        final List<Long> fired = new ArrayList<Long>();
+        // include delays which wrap around the wheel several times
+        long[] delays = { 0, 5, 10, 15, 79, 80, 81, 250, 1000 };
+        for (final long delay : delays) {
+            timer.schedule(delay, new Runnable() {
+                public void run () { fired.add(delay); }
+            });
+        }
+        assertEquals(1, timer.expire());
+
+        for (int now = 0; now <= 1010; now++) {
+            timer.expire();
+            // nothing fires early, and everything fires within a tick of its deadline
+            for (long delay : fired) assertTrue(delay <= now);
+            for (long delay : delays) if (delay + 10 <= now) assertTrue(fired.contains(delay));
+            clock.advance(1);
+        }
+        assertEquals(delays.length, fired.size());
+    }
+
+    @Test public void testCancel () {
+        HashedWheelTimer.VirtualClock clock = new HashedWheelTimer.VirtualClock();
+        HashedWheelTimer timer = new HashedWheelTimer(1, 16, clock);
+        final int[] fired = new int[1];
+        Runnable action = new Runnable() {
+            public void run () { fired[0]++; }
+        };
+        List<Closeable> tasks = new ArrayList<Closeable>();
+        for (int ii = 0; ii < 10000; ii++) tasks.add(timer.schedule(ii % 100, action));
+        // cancel some before they reach the wheel, and some after
+        for (int ii = 0; ii < tasks.size(); ii += 2) tasks.get(ii).close();
+        assertEquals(0, timer.expire());
+        for (int ii = 1; ii < tasks.size(); ii += 4) tasks.get(ii).close();
+
+        clock.advance(200);
+        assertEquals(2500, timer.expire());
+        assertEquals(2500, fired[0]);
+
+        // cancelling an expired task is harmless
+        tasks.get(3).close();
+        assertEquals(0, timer.expire());
+    }
+
+    @Test public void testActionFailure () {
+        HashedWheelTimer.VirtualClock clock = new HashedWheelTimer.VirtualClock();
+        HashedWheelTimer timer = new HashedWheelTimer(1, 16, clock);
+        final int[] fired = new int[1];
+        for (int ii = 0; ii < 3; ii++) {
+            timer.schedule(1, new Runnable() {
+                public void run () {
+                    fired[0]++;
+                    throw new RuntimeException("Bang");
+                }
+            });
+        }
+        clock.advance(1);
+        try {
+            timer.expire();
+            fail();
+        } catch (RuntimeException re) {
+            assertEquals(2, re.getSuppressed().length);
+        }
+        assertEquals(3, fired[0]);
+    }
+
+    @Test public void testThread () throws Exception {
+        HashedWheelTimer timer = new HashedWheelTimer(1, 64, HashedWheelTimer.SYSTEM_CLOCK);
+        timer.start();
+        try {
+            RPromise<String> never = RPromise.create();
+            final Object lock = new Object();
+            final Throwable[] failure = new Throwable[1];
+            never.timeout(5, timer).onFailure(new SignalView.Listener<Throwable>() {
+                public void onEmit (Throwable cause) {
+                    synchronized (lock) {
+                        failure[0] = cause;
+                        lock.notifyAll();
+                    }
+                }
+            });
+            synchronized (lock) {
+                long giveUp = System.currentTimeMillis() + 5000;
+                while (failure[0] == null && System.currentTimeMillis() < giveUp) lock.wait(100);
+            }
+            assertTrue(failure[0] instanceof java.util.concurrent.TimeoutException);
+        } finally {
+            timer.close();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+//
+// React - a library for functional-reactive-like programming in Java
+// Copyright (c) 2011, Three Rings Design, Inc. - All rights reserved.
+// http://github.com/threerings/react/blob/master/LICENSE
+
+package react;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests aspects of the {@link Journal} class.
+ */
+public class JournalTest
+{
+    @Before public void createFile () throws IOException {
+        _file = File.createTempFile("react", ".journal");
+    }
+
+    @After public void deleteFile () {
+        _file.delete();
+    }
+
+    @Test public void testRecordReplay () throws IOException {
+        RMap<String,Integer> map = RMap.create();
+        RList<String> list = RList.create();
+        RSet<Integer> set = RSet.create();
+        // use a tiny chunk size to exercise remapping
+        Journal journal = new Journal(_file, 64);
+        journal.attach(1, map, Codecs.STRING, Codecs.INT);
+        journal.attach(2, list, Codecs.nullable(Codecs.STRING));
+        assertEquals(0, journal.replay());
+        journal.attach(3, set, Codecs.INT);
+
+        for (int ii = 0; ii < 200; ii++) {
+            map.put("k" + (ii % 17), ii);
+            if (ii % 5 == 0) map.remove("k" + (ii % 13));
+            list.add(ii % 3 == 0 ? null : "e" + ii);
+            if (ii % 7 == 0) list.remove(list.size()/2);
+            if (ii % 11 == 0 && !list.isEmpty()) list.set(0, "s" + ii);
+            set.add(ii % 50);
+            if (ii % 3 == 0) set.remove(ii % 40);
+        }
+        journal.close();
+
+        RMap<String,Integer> rmap = RMap.create();
+        RList<String> rlist = RList.create();
+        RSet<Integer> rset = RSet.create();
+        Journal rjournal = new Journal(_file, 64);
+        rjournal.attach(1, rmap, Codecs.STRING, Codecs.INT);
+        rjournal.attach(2, rlist, Codecs.nullable(Codecs.STRING));
+        rjournal.attach(3, rset, Codecs.INT);
+        assertTrue(rjournal.replay() > 0);
+        assertEquals(map, rmap);
+        assertEquals(list, rlist);
+        assertEquals(set, rset);
+
+        // append some more changes and make sure they're replayed after the originals
+        rmap.put("extra", -1);
+        rjournal.close();
+        RMap<String,Integer> rrmap = RMap.create();
+        Journal rrjournal = new Journal(_file);
+        rrjournal.attach(1, rrmap, Codecs.STRING, Codecs.INT);
+        rrjournal.attach(2, RList.<String>create(), Codecs.nullable(Codecs.STRING));
+        rrjournal.attach(3, RSet.<Integer>create(), Codecs.INT);
+        rrjournal.replay();
+        rrjournal.close();
+        assertEquals(rmap, rrmap);
+    }
+
+    @Test public void testCompact () throws IOException {
+        RMap<String,Integer> map = RMap.create();
+        RList<String> list = RList.create();
+        RSet<Integer> set = RSet.create();
+        Journal journal = new Journal(_file, 64);
+        journal.attach(1, map, Codecs.STRING, Codecs.INT);
+        journal.attach(2, list, Codecs.STRING);
+        journal.attach(3, set, Codecs.INT);
+        journal.replay();
+        for (int ii = 0; ii < 1000; ii++) {
+            map.put("k" + (ii % 5), ii);
+            list.add("e" + ii);
+            if (list.size() > 3) list.remove(0);
+            set.add(ii % 7);
+            if (ii % 2 == 0) set.remove(ii % 7);
+        }
+        long before = _file.length();
+        journal.compact();
+        assertTrue(_file.length() < before / 10);
+        // the compacted journal carries on recording
+        map.put("extra", -1);
+        list.add(1, "mid");
+        journal.close();
+        assertFalse(new File(_file.getPath() + ".compact").exists());
+
+        RMap<String,Integer> rmap = RMap.create();
+        RList<String> rlist = RList.create();
+        RSet<Integer> rset = RSet.create();
+        Journal rjournal = new Journal(_file, 64);
+        rjournal.attach(1, rmap, Codecs.STRING, Codecs.INT);
+        rjournal.attach(2, rlist, Codecs.STRING);
+        rjournal.attach(3, rset, Codecs.INT);
+        // one record per map entry, list element and set element, the two later changes included
+        assertEquals(map.size() + list.size() + set.size(), rjournal.replay());
+        rjournal.close();
+        assertEquals(map, rmap);
+        assertEquals(list, rlist);
+        assertEquals(set, rset);
+    }
+
+    @Test public void testTornRecord () throws IOException {
+        RMap<Integer,Long> map = RMap.create();
+        Journal journal = new Journal(_file);
+        journal.attach(1, map, Codecs.INT, Codecs.LONG);
+        journal.replay();
+        map.put(1, 1L);
+        map.put(2, Long.MIN_VALUE);
+        journal.close();
+
+        // simulate a record whose payload was written but not its length
+        RandomAccessFile raf = new RandomAccessFile(_file, "rw");
+        long end = 0;
+        for (int ii = 0; ii < 2; ii++) {
+            raf.seek(end);
+            end += 4 + raf.readInt();
+        }
+        raf.seek(end + 4);
+        raf.write(new byte[] { 1, 1, 6, 6 });
+        raf.close();
+
+        RMap<Integer,Long> rmap = RMap.create();
+        Journal rjournal = new Journal(_file);
+        rjournal.attach(1, rmap, Codecs.INT, Codecs.LONG);
+        assertEquals(2, rjournal.replay());
+        rjournal.close();
+        assertEquals(map, rmap);
+    }
+
+    @Test public void testUnknownChannel () throws IOException {
+        Journal journal = new Journal(_file);
+        RMap<String,Integer> map = RMap.create();
+        RSet<String> set = RSet.create();
+        journal.attach(1, map, Codecs.STRING, Codecs.INT);
+        journal.attach(7, set, Codecs.STRING);
+        journal.replay();
+        map.put("bar", 1);
+        set.add("foo");
+        journal.close();
+
+        // the unknown channel's record follows a known one, which must not be applied
+        RMap<String,Integer> rmap = RMap.create();
+        Journal rjournal = new Journal(_file);
+        rjournal.attach(1, rmap, Codecs.STRING, Codecs.INT);
+        try {
+            rjournal.replay();
+            fail("Replayed a record for an unknown channel");
+        } catch (IOException ioe) {
+            // expected
+        }
+        assertTrue(rmap.isEmpty());
+
+        // once the missing channel is attached, the journal can be replayed
+        RSet<String> rset = RSet.create();
+        rjournal.attach(7, rset, Codecs.STRING);
+        assertEquals(2, rjournal.replay());
+        rjournal.close();
+        assertEquals(map, rmap);
+        assertEquals(set, rset);
+    }
+
+    protected File _file;
+}
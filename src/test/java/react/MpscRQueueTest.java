@@ -0,0 +1,90 @@
+//
+// React - a library for functional-reactive-like programming
+// Copyright (c) 2015, Three Rings Design, Inc. - All rights reserved.
+// http://github.com/threerings/react/blob/master/LICENSE
+
+package react;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class MpscRQueueTest
+{
+    @Test public void testReadyAndDrain () {
+        MpscRQueue<String> queue = MpscRQueue.create();
+        final AtomicInteger readies = new AtomicInteger();
+        final List<List<String>> drains = new ArrayList<List<String>>();
+        queue.connect(new MpscRQueue.Listener<String>() {
+            @Override public void onReady () { readies.incrementAndGet(); }
+            @Override public void onDrain (List<String> elems) {
+                drains.add(new ArrayList<String>(elems));
+            }
+        });
+
+        assertTrue(queue.isEmpty());
+        queue.offer("a");
+        queue.offer("b");
+        queue.offer("c");
+        assertEquals(1, readies.get());
+        assertFalse(queue.isEmpty());
+
+        List<String> batch = new ArrayList<String>();
+        batch.add("old");
+        assertEquals(2, queue.drainTo(batch, 2));
+        assertEquals(2, readies.get()); // more remain, so we're told to drain again
+        assertEquals(1, queue.drainTo(batch));
+        assertEquals(0, queue.drainTo(batch));
+        assertEquals(2, drains.size());
+        assertEquals(list("a", "b"), drains.get(0));
+        assertEquals(list("c"), drains.get(1));
+        assertEquals(list("old", "a", "b", "c"), batch);
+        assertTrue(queue.isEmpty());
+
+        queue.offer("d");
+        assertEquals(3, readies.get());
+    }
+
+    @Test public void testConcurrentProducers () throws Exception {
+        final int producers = 4, count = 20000;
+        final MpscRQueue<int[]> queue = MpscRQueue.create();
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int pp = 0; pp < producers; pp++) {
+            final int id = pp;
+            Thread thread = new Thread() {
+                public void run () {
+                    try { start.await(); } catch (InterruptedException ie) { return; }
+                    for (int ii = 0; ii < count; ii++) queue.offer(new int[] { id, ii });
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+
+        int[] next = new int[producers];
+        List<int[]> batch = new ArrayList<int[]>();
+        int total = 0;
+        while (total < producers * count) {
+            batch.clear();
+            if (queue.drainTo(batch) == 0) Thread.yield();
+            for (int[] elem : batch) {
+                assertEquals(next[elem[0]]++, elem[1]);
+                total++;
+            }
+        }
+        for (Thread thread : threads) thread.join();
+        assertTrue(queue.isEmpty());
+    }
+
+    protected static List<String> list (String... values) {
+        List<String> list = new ArrayList<String>();
+        for (String value : values) list.add(value);
+        return list;
+    }
+}
@@ -0,0 +1,197 @@
+//
+// React - a library for functional-reactive-like programming
+// Copyright (c) 2015, Three Rings Design, Inc. - All rights reserved.
+// http://github.com/threerings/react/blob/master/LICENSE
+
+package react;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link RCache} class.
+ */
+public class RCacheTest
+{
+    /** A loader which completes its loads only when told to. */
+    protected static class Loader implements Function<String,RFuture<Integer>> {
+        public final Map<String,RPromise<Integer>> pending = new HashMap<>();
+        public int loads;
+        public RFuture<Integer> apply (String key) {
+            loads++;
+            RPromise<Integer> promise = RPromise.create();
+            pending.put(key, promise);
+            return promise;
+        }
+        public void finish (String key) {
+            pending.remove(key).succeed(key.length());
+        }
+    }
+
+    @Test public void testDedup () {
+        Loader loader = new Loader();
+        RCache<String,Integer> cache = RCache.create(loader, 10);
+        RFuture<Integer> a1 = cache.get("one"), a2 = cache.get("one");
+        assertEquals(1, loader.loads);
+        assertEquals(1L, cache.misses().get().longValue());
+        assertEquals(1L, cache.hits().get().longValue());
+
+        // cancelling one waiter doesn't affect the other, nor the load
+        assertTrue(a1.cancel());
+        loader.finish("one");
+        assertEquals(3, a2.result().get().intValue());
+        assertEquals(3, cache.get("one").result().get().intValue());
+        assertEquals(1, loader.loads);
+        assertEquals(2L, cache.hits().get().longValue());
+    }
+
+    @Test public void testFailure () {
+        Loader loader = new Loader();
+        RCache<String,Integer> cache = RCache.create(loader, 10);
+        RFuture<Integer> result = cache.get("bad");
+        loader.pending.remove("bad").fail(new Exception("Boo!"));
+        assertEquals("Boo!", result.result().getFailure().getMessage());
+        assertEquals(0, cache.size());
+        cache.get("bad");
+        assertEquals(2, loader.loads);
+    }
+
+    @Test public void testEviction () {
+        Loader loader = new Loader();
+        // weigh values by their length, which is also the length of their key
+        RCache<String,Integer> cache = RCache.create(loader, 10,
+            new RCache.Weigher<String,Integer>() {
+                public int weigh (String key, Integer value) { return value; }
+            });
+        for (String key : new String[] { "aaa", "bbb", "ccc" }) {
+            cache.get(key);
+            loader.finish(key);
+        }
+        assertEquals(9, cache.weight());
+        // touch aaa so that bbb is the least recently used
+        cache.get("aaa");
+        cache.get("dddd");
+        loader.finish("dddd");
+        assertEquals(1L, cache.evictions().get().longValue());
+        assertNull(cache.getIfPresent("bbb"));
+        assertNotNull(cache.getIfPresent("aaa"));
+        assertEquals(10, cache.weight());
+
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.weight());
+    }
+
+    @Test public void testViewAndRefresh () {
+        Loader loader = new Loader();
+        RCache<String,Integer> cache = RCache.create(loader, 10);
+        ValueView<Integer> view = cache.getView("key");
+        assertNull(view.get());
+        assertEquals(0, loader.loads);
+
+        final List<Integer> changes = new ArrayList<Integer>();
+        view.connect(new Slot<Integer>() {
+            public void onEmit (Integer value) { changes.add(value); }
+        });
+        // connecting starts a load
+        assertEquals(1, loader.loads);
+        loader.finish("key");
+        assertEquals(3, view.get().intValue());
+
+        // a refresh keeps the old value until the new one arrives
+        cache.refresh("key");
+        assertEquals(3, cache.get("key").result().get().intValue());
+        loader.pending.remove("key").succeed(42);
+        assertEquals(42, view.get().intValue());
+
+        // a failed refresh retains the old value
+        cache.refresh("key");
+        loader.pending.remove("key").fail(new Exception("Boo!"));
+        assertEquals(42, view.get().intValue());
+
+        // as does an invalidated refresh
+        cache.refresh("key");
+        RPromise<Integer> stale = loader.pending.remove("key");
+        cache.invalidate("key");
+        stale.succeed(99);
+        assertNull(view.get());
+
+        List<Integer> expect = new ArrayList<Integer>();
+        expect.add(3);
+        expect.add(42);
+        expect.add(null);
+        assertEquals(expect, changes);
+    }
+
+    @Test public void testRefreshAfter () {
+        HashedWheelTimer.VirtualClock clock = new HashedWheelTimer.VirtualClock();
+        HashedWheelTimer timer = new HashedWheelTimer(10, 64, clock);
+        Loader loader = new Loader();
+        RCache<String,Integer> cache = RCache.create(loader, 10).refreshAfter(100, timer);
+        cache.get("one");
+        loader.finish("one");
+        cache.get("two");
+        loader.finish("two");
+
+        // a stale value is returned as is, and reloaded in the background
+        clock.advance(110);
+        timer.expire();
+        assertEquals(2, loader.loads);
+        assertEquals(3, cache.get("one").result().get().intValue());
+        assertEquals(3, loader.loads);
+        assertEquals(3, cache.get("one").result().get().intValue());
+        assertEquals(3, loader.loads);
+        loader.pending.remove("one").succeed(11);
+        assertEquals(11, cache.get("one").result().get().intValue());
+
+        // connecting a view to a stale value reloads it
+        ValueView<Integer> view = cache.getView("two");
+        final List<Integer> changes = new ArrayList<Integer>();
+        Connection conn = view.connect(new Slot<Integer>() {
+            public void onEmit (Integer value) { changes.add(value); }
+        });
+        assertEquals(4, loader.loads);
+        loader.pending.remove("two").succeed(22);
+        assertEquals(22, view.get().intValue());
+
+        // and a viewed value is reloaded as soon as it is stale, until it is no longer viewed
+        clock.advance(110);
+        timer.expire();
+        assertEquals(5, loader.loads);
+        loader.pending.remove("two").succeed(23);
+        assertEquals(23, view.get().intValue());
+        assertEquals(Arrays.asList(22, 23), changes);
+        conn.close();
+        clock.advance(110);
+        timer.expire();
+        assertEquals(5, loader.loads);
+    }
+
+    @Test public void testNotifyUnlocked () {
+        Loader loader = new Loader();
+        final RCache<String,Integer> cache = RCache.create(loader, 1);
+        final int[] notifies = new int[1];
+        ValueView.Listener<Object> check = new ValueView.Listener<Object>() {
+            public void onChange (Object value, Object ovalue) {
+                assertFalse(Thread.holdsLock(cache));
+                notifies[0]++;
+            }
+        };
+        cache.misses().connect(check);
+        cache.getView("one").connect(check);
+        cache.hits().connect(check);
+        cache.evictions().connect(check);
+        loader.finish("one");
+        cache.get("one");
+        cache.get("two");
+        loader.finish("two");
+        // two misses, one loaded, a hit, one evicted, and an eviction
+        assertEquals(6, notifies[0]);
+    }
+}
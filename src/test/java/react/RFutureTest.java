@@ -9,6 +9,15 @@ import java.util.List;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.junit.*;
 import static org.junit.Assert.*;
@@ -366,4 +375,444 @@ public class RFutureTest extends TestBase {
         list.add(two);
         return list;
     }
+
+    @Test public void testCompletionOrder () {
+        final List<Integer> order = new ArrayList<Integer>();
+        RPromise<String> promise = RPromise.create();
+        for (int ii = 0; ii < 5; ii++) {
+            final int id = ii;
+            promise.onComplete(new SignalView.Listener<Try<String>>() {
+                public void onEmit (Try<String> result) {
+                    order.add(id);
+                    if (id == 1) throw new RuntimeException("Bang");
+                }
+            });
+        }
+        assertTrue(promise.hasConnections());
+        try {
+            promise.succeed("Yay!");
+            fail();
+        } catch (RuntimeException re) {
+            assertEquals("Bang", re.getMessage());
+        }
+        assertEquals(5, order.size());
+        for (int ii = 0; ii < 5; ii++) assertEquals(ii, order.get(ii).intValue());
+        assertFalse(promise.hasConnections());
+        try {
+            promise.succeed("Again!");
+            fail();
+        } catch (IllegalStateException ise) {} // expected
+    }
+
+    @Test public void testConcurrentCompletion () throws Exception {
+        // register listeners on one thread while completing on another; none should be lost
+        for (int round = 0; round < 200; round++) {
+            final RPromise<Integer> promise = RPromise.create();
+            final int[] notified = new int[1];
+            final SignalView.Listener<Try<Integer>> lner = new SignalView.Listener<Try<Integer>>() {
+                public void onEmit (Try<Integer> result) {
+                    synchronized (notified) { notified[0]++; }
+                }
+            };
+            Thread adder = new Thread() {
+                public void run () {
+                    for (int ii = 0; ii < 100; ii++) promise.onComplete(lner);
+                }
+            };
+            adder.start();
+            promise.succeed(round);
+            adder.join();
+            assertEquals(100, notified[0]);
+        }
+    }
+
+    @Test public void testSweepBuriedWaiters () {
+        // close each listener once another has been added atop it, so that the dead waiters are
+        // always buried below a live one
+        RPromise<Integer> promise = RPromise.create();
+        FutureCounter counter = new FutureCounter();
+        Closeable prev = promise.listen(counter.completes);
+        for (int ii = 0; ii < 10000; ii++) {
+            Closeable next = promise.listen(counter.completes);
+            prev.close();
+            prev = next;
+        }
+        assertEquals(1, promise.listenerCount());
+        int waiters = 0;
+        for (Object w = promise._state.get(); w != null; w = ((RPromise.Waiter<?>)w).next) {
+            waiters++;
+        }
+        assertTrue("Too many waiters: " + waiters, waiters <= RPromise.SWEEP_MIN + 1);
+        promise.succeed(1);
+        counter.check("after success", 0, 0, 1);
+    }
+
+    @Test public void testSequenceMany () {
+        List<RPromise<Integer>> promises = new ArrayList<RPromise<Integer>>();
+        List<RFuture<Integer>> futures = new ArrayList<RFuture<Integer>>();
+        for (int ii = 0; ii < 1000; ii++) {
+            if (ii % 3 == 0) futures.add(RFuture.success(ii));
+            else {
+                RPromise<Integer> promise = RPromise.create();
+                promises.add(promise);
+                futures.add(promise);
+            }
+        }
+        RFuture<List<Integer>> seq = RFuture.sequence(futures);
+        RFuture<Collection<Integer>> coll = RFuture.collect(futures);
+        // complete the promises in reverse order, failing two of them
+        for (int ii = promises.size()-1; ii >= 0; ii--) {
+            int value = 3*(ii/2) + 1 + ii%2;
+            if (value == 500 || value == 10) promises.get(ii).fail(new Exception("" + value));
+            else promises.get(ii).succeed(value);
+        }
+
+        assertTrue(seq.result().isFailure());
+        List<String> failures = new ArrayList<String>();
+        for (Throwable failure : ((MultiFailureException)seq.result().getFailure()).failures()) {
+            failures.add(failure.getMessage());
+        }
+        assertEquals(Arrays.asList("10", "500"), failures);
+
+        List<Integer> expect = new ArrayList<Integer>();
+        for (int ii = 0; ii < 1000; ii++) if (ii != 10 && ii != 500) expect.add(ii);
+        assertEquals(expect, new ArrayList<Integer>(coll.result().get()));
+    }
+
+    @Test public void testCancel () {
+        FutureCounter counter = new FutureCounter();
+        RPromise<String> promise = RPromise.create();
+        counter.bind(promise);
+        assertTrue(promise.cancel());
+        counter.check("after cancel", 0, 1, 1);
+        assertTrue(promise.isCancelled());
+        assertTrue(promise.result().getFailure() instanceof CancellationException);
+        assertFalse(promise.cancel());
+        // the producer's eventual result is ignored
+        promise.succeed("Late!");
+        counter.check("after late success", 0, 1, 1);
+
+        assertFalse(RFuture.success("Yay!").cancel());
+        RPromise<String> done = RPromise.create();
+        done.succeed("Yay!");
+        assertFalse(done.cancel());
+        assertFalse(done.isCancelled());
+    }
+
+    @SuppressWarnings("deprecation")
+    @Test public void testLegacyResult () {
+        // subclasses which read the result field directly still see it
+        RPromise<String> promise = new RPromise<String>() {
+            @Override public String toString () { return String.valueOf(_result); }
+        };
+        assertEquals("null", promise.toString());
+        promise.succeed("Yay!");
+        assertEquals(Try.success("Yay!").toString(), promise.toString());
+    }
+
+    @Test public void testCancelChain () {
+        RPromise<String> root = RPromise.create();
+        RFuture<Integer> length = root.map(new Function<String,Integer>() {
+            public Integer apply (String value) { return value.length(); }
+        });
+        final RPromise<Integer> inner = RPromise.create();
+        RFuture<Integer> chained = length.flatMap(new Function<Integer,RFuture<Integer>>() {
+            public RFuture<Integer> apply (Integer value) { return inner; }
+        });
+        RFuture<Integer> doubled = chained.map(new Function<Integer,Integer>() {
+            public Integer apply (Integer value) { return value * 2; }
+        });
+        FutureCounter counter = new FutureCounter();
+        counter.bind(doubled);
+        assertTrue(root.hasConnections());
+
+        // cancelling the end of the chain cancels the derived futures which thereby lose their
+        // last listener, and disconnects the chain from its root, which is not cancelled
+        assertTrue(doubled.cancel());
+        counter.check("after cancel", 0, 1, 1);
+        assertTrue(chained.isCancelled());
+        assertTrue(length.isCancelled());
+        assertFalse(root.hasConnections());
+        assertFalse(root.isCompleteNow());
+        root.succeed("Hello");
+        assertFalse(inner.hasConnections());
+        assertTrue(doubled.isCancelled());
+
+        // once the chain reaches the inner future, cancellation disconnects from that instead
+        RPromise<String> root2 = RPromise.create();
+        final RPromise<Integer> inner2 = RPromise.create();
+        RFuture<Integer> chained2 = root2.flatMap(new Function<String,RFuture<Integer>>() {
+            public RFuture<Integer> apply (String value) { return inner2; }
+        });
+        root2.succeed("Hello");
+        assertTrue(inner2.hasConnections());
+        assertTrue(chained2.cancel());
+        assertFalse(inner2.hasConnections());
+        inner2.succeed(5);
+        assertTrue(chained2.isCancelled());
+    }
+
+    @Test public void testCancelReleasesChain () {
+        // cancelling the tail of a chain releases the whole chain from the future at its head
+        RPromise<String> rpc = RPromise.create();
+        FutureCounter counter = new FutureCounter();
+        counter.bind(rpc);
+        RFuture<String> tail = rpc.map(new Function<String,Integer>() {
+            public Integer apply (String value) { return value.length(); }
+        }).map(new Function<Integer,Integer>() {
+            public Integer apply (Integer value) { return value * 2; }
+        }).map(new Function<Integer,String>() {
+            public String apply (Integer value) { return "#" + value; }
+        });
+        int bound = rpc.listenerCount() - 1;
+        assertTrue(tail.cancel());
+        // the head keeps its other listeners, and is not cancelled
+        assertEquals(bound, rpc.listenerCount());
+        assertFalse(rpc.isCompleteNow());
+        rpc.clearConnections();
+
+        RFuture<Integer> doubled = rpc.map(new Function<String,Integer>() {
+            public Integer apply (String value) { return value.length(); }
+        }).map(new Function<Integer,Integer>() {
+            public Integer apply (Integer value) { return value * 2; }
+        });
+        RFuture<Integer> timed = doubled.timeout(100, new HashedWheelTimer(
+            10, 64, new HashedWheelTimer.VirtualClock()));
+        assertTrue(rpc.hasConnections());
+        assertTrue(timed.cancel());
+        assertFalse(rpc.hasConnections());
+
+        // closing the last listener of a derived future likewise releases its chain
+        Closeable conn = rpc.map(new Function<String,Integer>() {
+            public Integer apply (String value) { return value.length(); }
+        }).listen(new Slot<Try<Integer>>() {
+            public void onEmit (Try<Integer> result) { fail(); }
+        });
+        assertTrue(rpc.hasConnections());
+        conn.close();
+        assertFalse(rpc.hasConnections());
+        rpc.succeed("Hello");
+    }
+
+    @Test public void testCancelSequence () {
+        RPromise<String> a = RPromise.create(), b = RPromise.create();
+        RFuture<String> c = RFuture.success("c");
+        RFuture<List<String>> seq = RFuture.sequence(Arrays.<RFuture<String>>asList(a, b, c));
+        a.succeed("a");
+        assertTrue(b.hasConnections());
+        assertTrue(seq.cancel());
+        assertFalse(b.hasConnections());
+        b.succeed("b");
+        assertTrue(seq.isCancelled());
+
+        // cancelling a traversal disconnects from the inputs it has started
+        final List<RPromise<Integer>> started = new ArrayList<RPromise<Integer>>();
+        RFuture<List<Integer>> trav = RFuture.traverse(Arrays.asList(1, 2, 3, 4),
+            new Function<Integer,RFuture<Integer>>() {
+                public RFuture<Integer> apply (Integer value) {
+                    RPromise<Integer> promise = RPromise.create();
+                    started.add(promise);
+                    return promise;
+                }
+            }, 2);
+        assertEquals(2, started.size());
+        assertTrue(trav.cancel());
+        for (RPromise<Integer> promise : started) assertFalse(promise.hasConnections());
+    }
+
+    @Test public void testSettleReleasesSource () {
+        // a derived future releases its source even if one of its listeners throws
+        RPromise<String> root = RPromise.create();
+        RFuture<Integer> length = root.map(new Function<String,Integer>() {
+            public Integer apply (String value) { return value.length(); }
+        });
+        length.onSuccess(new Slot<Integer>() {
+            public void onEmit (Integer value) { throw new RuntimeException("Bang"); }
+        });
+        try {
+            root.succeed("Hello");
+            fail();
+        } catch (RuntimeException re) {
+            assertEquals("Bang", re.getMessage());
+        }
+        RFuture.Derived<?> derived = (RFuture.Derived<?>)length;
+        assertNull(derived._source);
+        assertNull(derived._upstream);
+    }
+
+    @Test public void testCancelShared () {
+        // a derived future with other listeners is not cancelled along with one of its dependents
+        RPromise<String> root = RPromise.create();
+        RFuture<String> upper = root.map(new Function<String,String>() {
+            public String apply (String value) { return value.toUpperCase(); }
+        });
+        RFuture<Integer> a = upper.map(new Function<String,Integer>() {
+            public Integer apply (String value) { return value.length(); }
+        });
+        RFuture<String> b = upper.map(new Function<String,String>() {
+            public String apply (String value) { return value + "!"; }
+        });
+        assertTrue(a.cancel());
+        assertFalse(upper.isCompleteNow());
+        root.succeed("hi");
+        assertEquals("HI!", b.result().get());
+        assertTrue(a.isCancelled());
+    }
+
+    @Test public void testTimeout () {
+        HashedWheelTimer.VirtualClock clock = new HashedWheelTimer.VirtualClock();
+        HashedWheelTimer timer = new HashedWheelTimer(10, 64, clock);
+        FutureCounter counter = new FutureCounter();
+
+        RPromise<String> slow = RPromise.create();
+        RFuture<String> timed = slow.timeout(100, timer);
+        counter.bind(timed);
+        clock.advance(50);
+        timer.expire();
+        counter.check("before timeout", 0, 0, 0);
+        clock.advance(60);
+        assertEquals(1, timer.expire());
+        counter.check("after timeout", 0, 1, 1);
+        assertTrue(timed.result().getFailure() instanceof TimeoutException);
+        assertFalse(slow.hasConnections());
+        slow.succeed("Too late");
+        counter.check("after late success", 0, 1, 1);
+
+        RPromise<String> fast = RPromise.create();
+        timed = fast.timeout(100, timer);
+        counter.bind(timed);
+        fast.succeed("Yay!");
+        counter.check("after success", 1, 0, 1);
+        clock.advance(200);
+        assertEquals(0, timer.expire());
+        counter.check("after deadline", 1, 0, 1);
+
+        // cancelling a timed future cancels its timer task
+        RPromise<String> dropped = RPromise.create();
+        dropped.timeout(100, timer).cancel();
+        assertFalse(dropped.hasConnections());
+        clock.advance(200);
+        assertEquals(0, timer.expire());
+    }
+
+    /** An executor which queues tasks until they are run manually. */
+    protected static class QueueExecutor implements Executor {
+        public final LinkedList<Runnable> tasks = new LinkedList<Runnable>();
+        public void execute (Runnable task) { tasks.add(task); }
+        public int runAll () {
+            int count = 0;
+            for (; !tasks.isEmpty(); count++) tasks.removeFirst().run();
+            return count;
+        }
+    }
+
+    @Test public void testMapAsync () {
+        QueueExecutor exec = new QueueExecutor();
+        FutureCounter counter = new FutureCounter();
+        RPromise<String> promise = RPromise.create();
+        RFuture<Integer> length = promise.mapAsync(new Function<String,Integer>() {
+            public Integer apply (String value) { return value.length(); }
+        }, exec);
+        counter.bind(length);
+        promise.succeed("Hello");
+        // the function doesn't run on the completing thread
+        counter.check("before run", 0, 0, 0);
+        assertEquals(1, exec.runAll());
+        counter.check("after run", 1, 0, 1);
+        assertEquals(5, length.result().get().intValue());
+
+        // failures skip the executor
+        RPromise<String> failing = RPromise.create();
+        RFuture<Integer> failed = failing.mapAsync(new Function<String,Integer>() {
+            public Integer apply (String value) { return value.length(); }
+        }, exec);
+        failing.fail(new Exception("Boo!"));
+        assertEquals(0, exec.runAll());
+        assertEquals("Boo!", failed.result().getFailure().getMessage());
+
+        // cancelling before the function runs means it is never run
+        final boolean[] ran = new boolean[1];
+        RFuture<Integer> cancelled = RFuture.success("Hi").mapAsync(new Function<String,Integer>() {
+            public Integer apply (String value) { ran[0] = true; return 0; }
+        }, exec);
+        assertTrue(cancelled.cancel());
+        exec.runAll();
+        assertFalse(ran[0]);
+    }
+
+    @Test public void testFlatMapAsync () {
+        QueueExecutor exec = new QueueExecutor();
+        final RPromise<Integer> inner = RPromise.create();
+        RFuture<Integer> mapped = RFuture.success("Hi").flatMapAsync(
+            new Function<String,RFuture<Integer>>() {
+                public RFuture<Integer> apply (String value) { return inner; }
+            }, exec);
+        assertFalse(inner.hasConnections());
+        exec.runAll();
+        assertTrue(inner.hasConnections());
+        inner.succeed(7);
+        assertEquals(7, mapped.result().get().intValue());
+    }
+
+    @Test public void testTraverse () {
+        final List<RPromise<Integer>> started = new ArrayList<RPromise<Integer>>();
+        List<Integer> inputs = new ArrayList<Integer>();
+        for (int ii = 0; ii < 10; ii++) inputs.add(ii);
+        Function<Integer,RFuture<Integer>> start = new Function<Integer,RFuture<Integer>>() {
+            public RFuture<Integer> apply (Integer value) {
+                // odd inputs complete immediately
+                if (value % 2 == 1) return RFuture.success(value * 10);
+                RPromise<Integer> promise = RPromise.create();
+                started.add(promise);
+                return promise;
+            }
+        };
+        RFuture<List<Integer>> all = RFuture.traverse(inputs, start, 3);
+        // the first three even inputs are started, along with the odd inputs between them
+        assertEquals(3, started.size());
+        for (int ii = 0; ii < 5; ii++) started.get(ii).succeed(ii * 20);
+        assertEquals(5, started.size());
+        List<Integer> expect = new ArrayList<Integer>();
+        for (int ii = 0; ii < 10; ii++) expect.add(ii * 10);
+        assertEquals(expect, all.result().get());
+
+        // lots of immediate completions don't blow the stack
+        List<Integer> many = new ArrayList<Integer>();
+        for (int ii = 0; ii < 100000; ii++) many.add(ii);
+        Function<Integer,RFuture<Integer>> now = new Function<Integer,RFuture<Integer>>() {
+            public RFuture<Integer> apply (Integer value) { return RFuture.success(value); }
+        };
+        RFuture<List<Integer>> manyAll = RFuture.traverse(many, now, 1);
+        assertEquals(many, manyAll.result().get());
+    }
+
+    @Test public void testTraverseExecutor () throws Exception {
+        final int max = 3;
+        final int[] active = new int[2]; // current, peak
+        List<Integer> inputs = new ArrayList<Integer>();
+        for (int ii = 0; ii < 50; ii++) inputs.add(ii);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            RFuture<List<Integer>> all = RFuture.traverse(inputs, new Function<Integer,Integer>() {
+                public Integer apply (Integer value) {
+                    synchronized (active) {
+                        active[1] = Math.max(active[1], ++active[0]);
+                    }
+                    try { Thread.sleep(1); } catch (InterruptedException ie) {}
+                    synchronized (active) { active[0]--; }
+                    return value + 1;
+                }
+            }, max, pool);
+            final CountDownLatch done = new CountDownLatch(1);
+            all.onComplete(new SignalView.Listener<Try<List<Integer>>>() {
+                public void onEmit (Try<List<Integer>> result) { done.countDown(); }
+            });
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertEquals(50, all.result().get().size());
+            assertEquals(50, all.result().get().get(49).intValue());
+            assertTrue(active[1] <= max);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
 }
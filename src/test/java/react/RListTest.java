@@ -5,7 +5,10 @@
 
 package react;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.ListIterator;
+import java.util.Random;
 
 import react.RList;
 
@@ -129,6 +132,92 @@ public class RListTest
         assertEquals(3, counter.notifies);
     }
 
+    @Test public void testSetAll () {
+        RList<Integer> list = RList.create();
+        List<Integer> elems = new ArrayList<Integer>();
+        for (int ii = 0; ii < 5000; ii++) elems.add(ii);
+        list.addAll(elems);
+
+        Counter counter = new Counter();
+        list.connect(counter);
+        List<Integer> mirror = new ArrayList<Integer>(list);
+        list.connect(mirror(mirror));
+
+        // changing, removing and adding a single element should result in three notifications
+        elems.set(10, -10);
+        elems.remove(2000);
+        elems.add(4000, -4000);
+        list.setAll(elems);
+        assertEquals(elems, list);
+        assertEquals(elems, mirror);
+        assertEquals(3, counter.notifies);
+
+        // setting the same contents should result in no notifications
+        list.setAll(new ArrayList<Integer>(elems));
+        assertEquals(3, counter.notifies);
+    }
+
+    @Test public void testSetAllRandom () {
+        Random rando = new Random(42);
+        for (int tt = 0; tt < 200; tt++) {
+            RList<Integer> list = RList.create();
+            list.addAll(randomList(rando));
+            List<Integer> mirror = new ArrayList<Integer>(list);
+            list.connect(mirror(mirror));
+            List<Integer> target = randomList(rando);
+            list.setAll(target);
+            assertEquals(target, list);
+            assertEquals(target, mirror);
+        }
+
+        // lists which differ too much to diff are reconciled element by element
+        RList<Integer> list = RList.create();
+        for (int ii = 0; ii < 2000; ii++) list.add(ii);
+        List<Integer> mirror = new ArrayList<Integer>(list);
+        list.connect(mirror(mirror));
+        List<Integer> target = new ArrayList<Integer>();
+        for (int ii = 0; ii < 1500; ii++) target.add(-ii);
+        list.setAll(target);
+        assertEquals(target, list);
+        assertEquals(target, mirror);
+    }
+
+    @Test public void testSetAllIdentity () {
+        RList<String> list = RList.create();
+        list.add("one");
+        list.add(new String("two"));
+        Counter counter = new Counter();
+        list.connect(counter);
+        List<String> elems = new ArrayList<String>();
+        elems.add("one");
+        elems.add(new String("two"));
+        list.setAll(elems);
+        assertEquals(0, counter.notifies);
+        list.setAll(elems, true);
+        assertEquals(1, counter.notifies);
+        assertSame(elems.get(1), list.get(1));
+    }
+
+    protected static List<Integer> randomList (Random rando) {
+        List<Integer> list = new ArrayList<Integer>();
+        for (int ii = 0, ll = rando.nextInt(30); ii < ll; ii++) list.add(rando.nextInt(8));
+        return list;
+    }
+
+    protected static <T> RList.Listener<T> mirror (final List<T> mirror) {
+        return new RList.Listener<T>() {
+            public void onAdd (int index, T elem) {
+                mirror.add(index, elem);
+            }
+            public void onSet (int index, T newElem, T oldElem) {
+                assertEquals(oldElem, mirror.set(index, newElem));
+            }
+            public void onRemove (int index, T elem) {
+                assertEquals(elem, mirror.remove(index));
+            }
+        };
+    }
+
     protected static <T> RList.Listener<T> requireAdd (final T reqElem) {
         return new RList.Listener<T>() {
             public void onAdd (T elem) {
@@ -5,9 +5,11 @@
 
 package react;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -300,6 +302,44 @@ public class RMapTest
         assertEquals(3, counter.notifies);
     }
 
+    @Test public void testSharedViews () {
+        RMap<Integer,String> map = RMap.create(new HashMap<Integer,String>());
+        map.put(1, "one");
+
+        // views are not shared until they're connected to
+        ValueView<String> oneView = map.getView(1);
+        assertNotSame(oneView, map.getView(1));
+        SignalTest.Counter counter = new SignalTest.Counter();
+        Connection conn = oneView.connect(counter);
+        assertSame(oneView, map.getView(1));
+        assertNotSame(oneView, map.getView(2));
+        assertNotSame(oneView, map.containsKeyView(1));
+
+        // N callers of a shared view add one listener to the map
+        List<Connection> conns = new ArrayList<Connection>();
+        conns.add(conn);
+        for (int ii = 0; ii < 10; ii++) conns.add(map.getView(1).connect(counter));
+        assertEquals(1, map.listenerCount());
+        assertEquals(11, ((Reactor)oneView).listenerCount());
+        map.put(1, "uno");
+        assertEquals(11, counter.notifies);
+
+        // once a shared view loses its connections, it's no longer shared
+        for (Connection c : conns) c.close();
+        assertEquals(0, map.listenerCount());
+        assertEquals(0, map.sharedViews().size());
+        assertNotSame(oneView, map.getView(1));
+
+        // the empty and non-empty views are shared regardless
+        assertSame(map.isEmptyView(), map.isEmptyView());
+        assertSame(map.isNonEmptyView(), map.isNonEmptyView());
+        for (int ii = 0; ii < 10; ii++) map.isEmptyView().connect(counter);
+        assertEquals(1, ((Reactor)map.sizeView()).listenerCount());
+        assertFalse(map.isEmptyView().get());
+        map.remove(1);
+        assertTrue(map.isEmptyView().get());
+    }
+
     @Test public void testEntrySetIteratorEdgeCase () {
         RMap<Integer,String> map = RMap.create(new HashMap<Integer,String>());
         map.put(1, "one");
@@ -0,0 +1,75 @@
+//
+// React - a library for functional-reactive-like programming
+// Copyright (c) 2015, Three Rings Design, Inc. - All rights reserved.
+// http://github.com/threerings/react/blob/master/LICENSE
+
+package react;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link ReactorGraph} class.
+ */
+public class ReactorGraphTest
+{
+    @Test public void testWalk () {
+        Value<Integer> a = Value.create(1), b = Value.create(2);
+        Signal<String> sig = Signal.create();
+        ValueView<Integer> doubled = a.map(Functions.<Integer>identity());
+        ValueView<Values.T2<Integer,Integer>> joined = Values.join(doubled, b);
+        SignalView<Integer> lengths = sig.map(new Function<String,Integer>() {
+            public Integer apply (String s) { return s.length(); }
+        });
+        // nothing is derived until it's connected to
+        assertEquals(0, ReactorGraph.walk(a, b, sig).edges().size());
+
+        Connection jc = joined.connect(Slots.NOOP);
+        lengths.connect(Slots.NOOP);
+        a.connect(Slots.NOOP);
+
+        ReactorGraph graph = ReactorGraph.walk(a, b, sig);
+        assertEquals(6, graph.nodes().size());
+        assertEquals(4, graph.edges().size());
+        assertEquals(2, graph.node(a).listeners);
+        assertEquals(1, graph.node(joined).listeners);
+        assertEquals(graph.node(doubled), graph.edges().get(0).to);
+        assertNotNull(graph.node(lengths));
+
+        String dot = graph.toDot();
+        assertTrue(dot.startsWith("digraph reactors {"));
+        assertTrue(dot.contains("n0 -> n3;"));
+        String json = graph.toJson();
+        assertTrue(json.startsWith("{\"nodes\":[{\"id\":0,\"reactor\":\"react.Value@"));
+        assertTrue(json.contains("\"edges\":[{\"from\":0,\"to\":3}"));
+
+        // derived reactors disconnect from their sources once they are unused
+        jc.close();
+        assertEquals(1, ReactorGraph.walk(a, b, sig).edges().size());
+    }
+
+    @Test public void testFlatMapAndCounts () {
+        final Value<Integer> inner = Value.create(1);
+        Value<Boolean> outer = Value.create(true);
+        ValueView<Integer> flat = outer.flatMap(new Function<Boolean,ValueView<Integer>>() {
+            public ValueView<Integer> apply (Boolean b) { return inner; }
+        });
+        flat.connect(Slots.NOOP);
+
+        DispatchCounters counters = new DispatchCounters();
+        Reactor.setMetrics(counters);
+        try {
+            inner.update(2);
+            inner.update(3);
+        } finally {
+            Reactor.setMetrics(null);
+        }
+        ReactorGraph graph = ReactorGraph.walk(java.util.Arrays.asList(outer, inner), counters);
+        // outer -> outer.map(func) -> flat, and inner -> flat
+        assertEquals(4, graph.nodes().size());
+        assertEquals(3, graph.edges().size());
+        assertEquals(2, graph.node(inner).emits);
+        assertEquals(2, graph.node(flat).emits);
+        assertTrue(graph.node(inner).emitRate > 0);
+    }
+}
@@ -0,0 +1,101 @@
+//
+// React - a library for functional-reactive-like programming
+// Copyright (c) 2015, Three Rings Design, Inc. - All rights reserved.
+// http://github.com/threerings/react/blob/master/LICENSE
+
+package react;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link ReactorMonitor} class and reactor instrumentation.
+ */
+public class ReactorMonitorTest
+{
+    @After public void uninstall () {
+        Reactor.setMonitor(null);
+    }
+
+    @Test public void testListenerCount () {
+        final Signal<Integer> signal = Signal.create();
+        assertEquals(0, signal.listenerCount());
+        Connection a = signal.connect(Slots.NOOP), b = signal.connect(Slots.NOOP);
+        assertEquals(2, signal.listenerCount());
+        assertNull(signal.stats());
+
+        // changes made while dispatching are counted once the dispatch completes
+        final Connection[] c = new Connection[1];
+        signal.connect(new Slot<Integer>() {
+            public void onEmit (Integer value) {
+                c[0] = signal.connect(Slots.NOOP);
+                assertEquals(3, signal.listenerCount());
+            }
+        }).once();
+        signal.emit(1);
+        assertEquals(3, signal.listenerCount());
+
+        a.close();
+        a.close();
+        assertEquals(2, signal.listenerCount());
+        b.close();
+        c[0].close();
+        assertEquals(0, signal.listenerCount());
+
+        RPromise<Integer> promise = RPromise.create();
+        Closeable conn = promise.listen(Slots.NOOP);
+        promise.onFailure(Slots.NOOP);
+        assertEquals(2, promise.listenerCount());
+        conn.close();
+        assertEquals(1, promise.listenerCount());
+        promise.succeed(1);
+        assertEquals(0, promise.listenerCount());
+    }
+
+    @Test public void testStats () {
+        ReactorMonitor monitor = ReactorMonitor.install();
+        Value<Integer> value = Value.create(0);
+        List<Connection> conns = new ArrayList<Connection>();
+        for (int ii = 0; ii < 5; ii++) conns.add(value.connect(Slots.NOOP));
+        for (int ii = 0; ii < 3; ii++) conns.get(ii).close();
+        conns.add(value.connect(Slots.NOOP));
+
+        Reactor.Stats stats = value.stats();
+        assertEquals(3, stats.listeners);
+        assertEquals(5, stats.highWater);
+        assertEquals(6, stats.connects);
+        assertEquals(3, stats.disconnects);
+
+        value.clearConnections();
+        assertEquals(0, value.stats().listeners);
+        assertEquals(6, value.stats().disconnects);
+
+        // once uninstalled, no further reactors are instrumented
+        monitor.close();
+        assertNull(Reactor.monitor());
+        Value<Integer> other = Value.create(0);
+        other.connect(Slots.NOOP);
+        assertNull(other.stats());
+        assertEquals(1, monitor.size());
+    }
+
+    @Test public void testTop () {
+        ReactorMonitor monitor = ReactorMonitor.install();
+        Signal<Integer> small = Signal.create(), big = Signal.create(), mid = Signal.create();
+        for (int ii = 0; ii < 1; ii++) small.connect(Slots.NOOP);
+        for (int ii = 0; ii < 100; ii++) big.connect(Slots.NOOP);
+        for (int ii = 0; ii < 10; ii++) mid.connect(Slots.NOOP);
+
+        List<ReactorMonitor.Sample> top = monitor.top(2);
+        assertEquals(2, top.size());
+        assertSame(big, top.get(0).reactor);
+        assertSame(mid, top.get(1).reactor);
+        assertEquals(100, top.get(0).stats.listeners);
+        assertTrue(top.get(0).connectRate > 0);
+        assertEquals(3, monitor.top(10).size());
+        monitor.close();
+    }
+}
@@ -79,6 +79,181 @@ public class SignalTest
         assertEquals(4, slot4.order);
     }
 
+    @Test public void testSlotPriorityModel () {
+        // check our listener order against a simple model: higher priorities first, and within a
+        // priority, listeners in the order they were connected (or last changed priority)
+        final List<Integer> order = new ArrayList<Integer>();
+        List<int[]> model = new ArrayList<int[]>(); // { id, prio }
+        List<Connection> conns = new ArrayList<Connection>();
+        UnitSignal signal = new UnitSignal();
+        java.util.Random rando = new java.util.Random(42);
+        for (int ii = 0; ii < 2000; ii++) {
+            int op = rando.nextInt(10), prio = (rando.nextInt(3) == 0) ? rando.nextInt(7) - 3 : 0;
+            if (op < 6 || model.isEmpty()) {
+                final int id = conns.size();
+                conns.add(signal.connect(new UnitSlot() {
+                    public void onEmit () { order.add(id); }
+                }).atPrio(prio));
+                insert(model, new int[] { id, prio });
+            } else {
+                int[] entry = model.remove(rando.nextInt(model.size()));
+                if (op < 8) conns.get(entry[0]).close();
+                else {
+                    conns.get(entry[0]).atPrio(prio);
+                    insert(model, new int[] { entry[0], prio });
+                }
+            }
+            if (ii % 100 == 0) {
+                order.clear();
+                signal.emit();
+                List<Integer> expect = new ArrayList<Integer>();
+                for (int[] entry : model) expect.add(entry[0]);
+                assertEquals(expect, order);
+                assertEquals(model.size(), signal.listenerCount());
+            }
+        }
+    }
+
+    @Test public void testDisconnectByListener () {
+        final List<Integer> order = new ArrayList<Integer>();
+        final Signal<Integer> signal = Signal.create();
+        final List<Slot<Integer>> slots = new ArrayList<Slot<Integer>>();
+        for (int ii = 0; ii < 50; ii++) {
+            final int id = ii;
+            slots.add(new Slot<Integer>() {
+                public void onEmit (Integer value) { order.add(id); }
+            });
+        }
+        // connect some twice, some weakly, and close some before disconnecting by listener
+        List<Connection> conns = new ArrayList<Connection>();
+        for (Slot<Integer> slot : slots) conns.add(signal.connect(slot));
+        signal.connect(slots.get(3));
+        signal.connect(slots.get(5)).holdWeakly();
+        conns.get(7).holdWeakly();
+        conns.get(9).close();
+        assertEquals(51, signal.listenerCount());
+
+        for (int ii : new int[] { 3, 5, 7, 9, 11 }) signal.disconnect(slots.get(ii));
+        assertEquals(45, signal.listenerCount());
+        order.clear();
+        signal.emit(0);
+        assertEquals(45, order.size());
+        for (int ii : new int[] { 3, 5, 7, 9, 11 }) assertFalse(order.contains(ii));
+
+        // disconnecting during dispatch takes effect once the dispatch completes
+        signal.connect(new Slot<Integer>() {
+            public void onEmit (Integer value) {
+                for (int ii = 0; ii < 10; ii++) signal.disconnect(slots.get(ii));
+            }
+        }).atPrio(1);
+        order.clear();
+        signal.emit(1);
+        assertEquals(45, order.size());
+        order.clear();
+        signal.emit(2);
+        assertEquals(39, order.size()); // 3, 5, 7 and 9 were already gone
+
+        // closing a connection after disconnecting its listener is harmless
+        conns.get(20).close();
+        conns.get(0).close();
+        conns.get(0).close();
+        assertEquals(39, signal.listenerCount()); // 38 slots, and our disconnector
+        signal.clearConnections();
+        conns.get(30).close();
+        assertEquals(0, signal.listenerCount());
+        signal.connect(slots.get(30));
+        order.clear();
+        signal.emit(3);
+        assertEquals(Arrays.asList(30), order);
+    }
+
+    @Test public void testCloseableSet () {
+        final Signal<Integer> a = Signal.create(), b = Signal.create();
+        final int[] removals = new int[1];
+        Value<Integer> c = new Value<Integer>(0) {
+            @Override protected void connectionRemoved () {
+                super.connectionRemoved();
+                removals[0]++;
+            }
+        };
+        Counter counter = new Counter();
+        Closeable.Set set = new Closeable.Set();
+        for (int ii = 0; ii < 1000; ii++) {
+            set.add(a.connect(counter));
+            set.add(c.connect(counter));
+        }
+        Connection kept = set.add(b.connect(counter));
+        set.remove(kept);
+        set.add(Connection.join(a.connect(counter), b.connect(counter)));
+        final boolean[] closed = new boolean[1];
+        set.add(new Closeable() {
+            public void close () { closed[0] = true; }
+        });
+        set.add(new Closeable() {
+            public void close () { throw new RuntimeException("Bang"); }
+        });
+        // a connection that is closed before the set is closed is skipped
+        set.add(c.connect(counter)).close();
+        assertEquals(1001, a.listenerCount());
+        assertEquals(1000, c.listenerCount());
+        assertEquals(2, b.listenerCount());
+
+        try {
+            set.close();
+            fail();
+        } catch (MultiFailureException mfe) {
+            assertEquals("Bang", mfe.getSuppressed()[0].getMessage());
+        }
+        assertTrue(closed[0]);
+        assertEquals(0, a.listenerCount());
+        assertEquals(0, c.listenerCount());
+        assertEquals(1, b.listenerCount());
+        // the value's thousand connections were removed in one batch
+        assertEquals(2, removals[0]);
+
+        // a closed set is empty, and may be reused
+        set.close();
+        set.add(a.connect(counter));
+        a.emit(1);
+        assertEquals(1, counter.notifies);
+        set.close();
+        a.emit(2);
+        assertEquals(1, counter.notifies);
+    }
+
+    @Test public void testCloseableSetDedupes () {
+        final int[] closes = new int[1];
+        class Res implements Closeable {
+            public final int id;
+            public Res (int id) { this.id = id; }
+            public void close () { closes[0]++; }
+            @Override public boolean equals (Object other) {
+                return (other instanceof Res) && ((Res)other).id == id;
+            }
+            @Override public int hashCode () { return id; }
+        }
+        // exercise both the small, searched set and the large, indexed set
+        for (int count : new int[] { 3, 100 }) {
+            Closeable.Set set = new Closeable.Set();
+            for (int ii = 0; ii < count; ii++) {
+                set.add(new Res(ii));
+                set.add(new Res(ii));
+            }
+            // removal is by equality, and removes the only copy
+            set.remove(new Res(0));
+            set.remove(new Res(0));
+            closes[0] = 0;
+            set.close();
+            assertEquals(count-1, closes[0]);
+        }
+    }
+
+    protected static void insert (List<int[]> model, int[] entry) {
+        int idx = 0;
+        while (idx < model.size() && model.get(idx)[1] >= entry[1]) idx++;
+        model.add(idx, entry);
+    }
+
     @Test public void testAddDuringDispatch () {
         final Signal<Integer> signal = Signal.create();
         final AccSlot<Integer> toAdd = new AccSlot<Integer>();
@@ -226,6 +401,30 @@ public class SignalTest
         assertFalse(signal.hasConnections());
     }
 
+    @Test public void testClearConnections () {
+        Signal<Integer> signal = Signal.create();
+        SignalView<String> mapped = signal.map(Functions.TO_STRING);
+        Counter counter = new Counter();
+        Connection conn = mapped.connect(counter);
+        assertTrue(signal.hasConnections());
+
+        // clearing a mapped signal's connections doesn't call connectionRemoved, so it remains
+        // connected to its source
+        ((Reactor)mapped).clearConnections();
+        assertEquals(0, ((Reactor)mapped).listenerCount());
+        assertTrue(signal.hasConnections());
+        signal.emit(1);
+        assertEquals(0, counter.notifies);
+
+        // closing a cleared connection is harmless, and the signal may be connected to anew
+        conn.close();
+        assertTrue(signal.hasConnections());
+        mapped.connect(counter);
+        signal.emit(2);
+        assertEquals(1, counter.notifies);
+        assertEquals(1, signal.listenerCount());
+    }
+
     @Test public void testFilter () {
         final int[] triggered = new int[1];
         Slot<String> onString = new Slot<String>() {
@@ -262,6 +461,121 @@ public class SignalTest
         assertEquals(1, triggered[0]);
     }
 
+    @Test public void testFusedChain () {
+        Function<Integer,Integer> inc = new Function<Integer,Integer>() {
+            public Integer apply (Integer n) { return n + 1; }
+        };
+        Function<Integer,Boolean> even = new Function<Integer,Boolean>() {
+            public Boolean apply (Integer n) { return n % 2 == 0; }
+        };
+        Function<Integer,String> small = new Function<Integer,String>() {
+            public String apply (Integer n) { return (n < 10) ? ("#" + n) : null; }
+        };
+
+        Signal<Integer> sig = Signal.create();
+        SignalView<Integer> inced = sig.map(inc), evens = inced.filter(even);
+        SignalView<String> strs = evens.map(inc).collect(small).map(Functions.TO_STRING);
+        AccSlot<String> slot = new AccSlot<String>();
+        Connection conn = strs.connect(slot);
+
+        // the whole chain is applied by a single listener on the source
+        assertEquals(1, sig.listenerCount());
+        assertFalse(((Reactor)inced).hasConnections());
+        assertFalse(((Reactor)evens).hasConnections());
+        for (int ii = 0; ii < 12; ii++) sig.emit(ii);
+        assertEquals(Arrays.asList("#3", "#5", "#7", "#9"), slot.events);
+
+        // a signal in the chain which gains a listener of its own is no longer fused through
+        AccSlot<Integer> evenSlot = new AccSlot<Integer>();
+        evens.connect(evenSlot);
+        AccSlot<Integer> branchSlot = new AccSlot<Integer>();
+        evens.map(inc).connect(branchSlot);
+        assertEquals(1, sig.listenerCount());
+        assertEquals(3, ((Reactor)evens).listenerCount());
+        sig.emit(3);
+        assertEquals(Arrays.asList(4), evenSlot.events);
+        assertEquals(Arrays.asList(5), branchSlot.events);
+        assertEquals(Arrays.asList("#3", "#5", "#7", "#9", "#5"), slot.events);
+
+        conn.close();
+        assertEquals(1, sig.listenerCount());
+        assertEquals(2, ((Reactor)evens).listenerCount());
+    }
+
+    @Test public void testFusedBranches () {
+        final int[] calls = new int[1];
+        Function<Integer,Integer> inc = new Function<Integer,Integer>() {
+            public Integer apply (Integer n) { calls[0]++; return n + 1; }
+        };
+        Signal<Integer> sig = Signal.create();
+        SignalView<Integer> inced = sig.map(inc);
+        AccSlot<Integer> evens = new AccSlot<Integer>(), odds = new AccSlot<Integer>();
+        inced.filter(new Function<Integer,Boolean>() {
+            public Boolean apply (Integer n) { return n % 2 == 0; }
+        }).connect(evens);
+        sig.emit(1);
+        assertEquals(1, calls[0]);
+
+        // once a signal has two branches, each is connected to it, and it is mapped once per emit
+        inced.filter(new Function<Integer,Boolean>() {
+            public Boolean apply (Integer n) { return n % 2 != 0; }
+        }).connect(odds);
+        assertEquals(1, sig.listenerCount());
+        assertEquals(2, ((Reactor)inced).listenerCount());
+        for (int ii = 2; ii < 6; ii++) sig.emit(ii);
+        assertEquals(5, calls[0]);
+        assertEquals(Arrays.asList(2, 4, 6), evens.events);
+        assertEquals(Arrays.asList(3, 5), odds.events);
+
+        // a branch which is created before either is connected is not fused through either
+        calls[0] = 0;
+        Signal<Integer> src = Signal.create();
+        SignalView<Integer> dubbed = src.map(inc);
+        SignalView<Integer> a = dubbed.map(inc), b = dubbed.map(inc);
+        a.connect(Slots.NOOP);
+        b.connect(Slots.NOOP);
+        assertEquals(1, src.listenerCount());
+        src.emit(0);
+        assertEquals(3, calls[0]);
+    }
+
+    @Test public void testFusedTemporaryBranch () {
+        Function<Integer,Integer> inc = new Function<Integer,Integer>() {
+            public Integer apply (Integer n) { return n + 1; }
+        };
+        Signal<Integer> sig = Signal.create();
+        SignalView<Integer> inced = sig.map(inc);
+        // branches which are never connected, or are connected and then closed, don't stop
+        // later branches from being fused through the signal they were derived from
+        inced.map(inc);
+        AccSlot<Integer> tmpSlot = new AccSlot<Integer>();
+        inced.map(inc).connect(tmpSlot).close();
+        AccSlot<Integer> slot = new AccSlot<Integer>();
+        Connection conn = inced.map(inc).connect(slot);
+        assertEquals(1, sig.listenerCount());
+        assertFalse(((Reactor)inced).hasConnections());
+        sig.emit(1);
+        assertEquals(Arrays.asList(3), slot.events);
+        assertEquals(0, tmpSlot.events.size());
+
+        // a second live branch still stops fusion, and once it's closed, fusion resumes
+        AccSlot<Integer> otherSlot = new AccSlot<Integer>();
+        Connection other = inced.connect(otherSlot);
+        assertEquals(2, ((Reactor)inced).listenerCount());
+        sig.emit(5);
+        assertEquals(Arrays.asList(3, 7), slot.events);
+        assertEquals(Arrays.asList(6), otherSlot.events);
+        other.close();
+        conn.close();
+        assertFalse(((Reactor)sig).hasConnections());
+        inced.map(inc).connect(slot);
+        assertEquals(1, sig.listenerCount());
+        assertFalse(((Reactor)inced).hasConnections());
+        sig.emit(2);
+        assertEquals(Arrays.asList(3, 7, 4), slot.events);
+        assertEquals(Arrays.asList(6), otherSlot.events);
+    }
+
     @Test public void testFiltered () {
         final int[] triggered = new int[1];
         Slot<String> onString = new Slot<String>() {
@@ -0,0 +1,171 @@
+//
+// React - a library for functional-reactive-like programming in Java
+// Copyright (c) 2011, Three Rings Design, Inc. - All rights reserved.
+// http://github.com/threerings/react/blob/master/LICENSE
+
+package react;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the persistent {@link TrieMap}, {@link TrieSet} and {@link TrieList}, and the snapshots of
+ * reactive collections backed by them.
+ */
+public class TrieTest
+{
+    /** A key with a terrible hash code, to exercise collision handling. */
+    public static class Key {
+        public final int id;
+        public Key (int id) { this.id = id; }
+        @Override public int hashCode () { return id % 7; }
+        @Override public boolean equals (Object other) {
+            return (other instanceof Key) && ((Key)other).id == id;
+        }
+        @Override public String toString () { return "Key" + id; }
+    }
+
+    @Test public void testMapMatchesHashMap () {
+        Random rando = new Random(42);
+        TrieMap<Object,Integer> trie = new TrieMap<Object,Integer>();
+        Map<Object,Integer> expect = new HashMap<Object,Integer>();
+        for (int ii = 0; ii < 20000; ii++) {
+            int id = rando.nextInt(2000);
+            Object key = (id == 0) ? null : (id % 3 == 0) ? new Key(id) : Integer.valueOf(id);
+            if (rando.nextInt(3) == 0) assertEquals(expect.remove(key), trie.remove(key));
+            else assertEquals(expect.put(key, ii), trie.put(key, ii));
+            assertEquals(expect.size(), trie.size());
+        }
+        assertEquals(expect, trie);
+        assertEquals(trie, expect);
+        for (Object key : expect.keySet()) assertTrue(trie.containsKey(key));
+        assertFalse(trie.containsKey(new Key(2001)));
+
+        // remove everything via the iterator
+        for (Iterator<Object> iter = trie.keySet().iterator(); iter.hasNext(); ) {
+            iter.next();
+            iter.remove();
+        }
+        assertTrue(trie.isEmpty());
+    }
+
+    @Test public void testMapSnapshot () {
+        TrieMap<Integer,String> trie = new TrieMap<Integer,String>();
+        for (int ii = 0; ii < 1000; ii++) trie.put(ii, "v" + ii);
+        TrieMap<Integer,String> snap = trie.snapshot();
+        Map<Integer,String> copy = new HashMap<Integer,String>(trie);
+        for (int ii = 0; ii < 1000; ii += 2) trie.remove(ii);
+        for (int ii = 1; ii < 1000; ii += 2) trie.put(ii, "w" + ii);
+        assertEquals(copy, snap);
+        assertEquals(500, trie.size());
+        assertEquals("w1", trie.get(1));
+        try {
+            snap.put(1, "nope");
+            fail();
+        } catch (UnsupportedOperationException uoe) {} // expected
+    }
+
+    @Test public void testListMatchesArrayList () {
+        Random rando = new Random(42);
+        TrieList<Integer> trie = new TrieList<Integer>();
+        List<Integer> expect = new ArrayList<Integer>();
+        for (int ii = 0; ii < 5000; ii++) {
+            int op = rando.nextInt(10), size = expect.size();
+            if (op < 5 || size == 0) {
+                expect.add(ii);
+                trie.add(ii);
+            } else if (op < 6) {
+                int index = rando.nextInt(size+1);
+                expect.add(index, ii);
+                trie.add(index, ii);
+            } else if (op < 8) {
+                int index = rando.nextInt(size);
+                assertEquals(expect.set(index, ii), trie.set(index, ii));
+            } else if (op < 9) {
+                assertEquals(expect.remove(size-1), trie.remove(size-1));
+            } else {
+                int index = rando.nextInt(size);
+                assertEquals(expect.remove(index), trie.remove(index));
+            }
+            assertEquals(expect.size(), trie.size());
+        }
+        assertEquals(expect, trie);
+        assertArrayEquals(expect.toArray(), trie.toArray());
+
+        // drain from the end through a few level changes
+        while (!expect.isEmpty()) {
+            assertEquals(expect.remove(expect.size()-1), trie.remove(trie.size()-1));
+        }
+        assertTrue(trie.isEmpty());
+        trie.add(1);
+        assertEquals(1, trie.get(0).intValue());
+    }
+
+    @Test public void testListRemoveRange () {
+        TrieList<Integer> trie = new TrieList<Integer>();
+        for (int ii = 0; ii < 100; ii++) trie.add(ii);
+        trie.subList(10, 90).clear();
+        assertEquals(20, trie.size());
+        assertEquals(90, trie.get(10).intValue());
+
+        // bad ranges throw, and leave the trie intact
+        int[][] bad = { { -1, 5 }, { 5, 21 }, { 6, 5 } };
+        for (int[] range : bad) {
+            try {
+                trie.removeRange(range[0], range[1]);
+                fail();
+            } catch (IndexOutOfBoundsException ioobe) {} // expected
+        }
+        trie.removeRange(5, 5);
+        assertEquals(20, trie.size());
+        assertEquals(9, trie.get(9).intValue());
+        assertEquals(99, trie.get(19).intValue());
+    }
+
+    @Test public void testReactiveSnapshots () {
+        RMap<String,Integer> map = RMap.createPersistent();
+        RSet<String> set = RSet.createPersistent();
+        RList<String> list = RList.createPersistent();
+        RMapTest.Counter counter = new RMapTest.Counter();
+        map.connect(counter);
+        for (int ii = 0; ii < 100; ii++) {
+            map.put("k" + ii, ii);
+            set.add("k" + ii);
+            list.add("k" + ii);
+        }
+        assertEquals(100, counter.notifies);
+
+        Map<String,Integer> msnap = map.snapshot();
+        Set<String> ssnap = set.snapshot();
+        List<String> lsnap = list.snapshot();
+        Map<String,Integer> mcopy = new HashMap<String,Integer>(map);
+        Set<String> scopy = new HashSet<String>(set);
+        List<String> lcopy = new ArrayList<String>(list);
+
+        map.clear();
+        set.remove("k5");
+        list.set(3, "x");
+        list.remove(0);
+        assertEquals(mcopy, msnap);
+        assertEquals(scopy, ssnap);
+        assertEquals(lcopy, lsnap);
+        assertEquals(99, list.size());
+        assertEquals("x", list.get(2));
+
+        // non-persistent collections provide a copy
+        RList<String> plain = RList.create();
+        plain.add("a");
+        List<String> psnap = plain.snapshot();
+        plain.add("b");
+        assertEquals(1, psnap.size());
+    }
+}
@@ -7,6 +7,8 @@ package react;
 
 import org.junit.*;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
@@ -250,6 +252,31 @@ public class ValueTest
         assertFalse(value.hasConnections());
     }
 
+    @Test public void testWeakListenerSweep () {
+        // a value which never changes should nonetheless shed its collected weak listeners
+        final Value<Integer> config = Value.create(42);
+        List<Cons> conns = new ArrayList<Cons>();
+        for (int ii = 0; ii < 100; ii++) {
+            conns.add((Cons)config.connect(new ValueView.Listener<Integer>() {
+                @Override public void onChange (Integer value, Integer oldValue) {}
+            }).holdWeakly());
+        }
+        assertEquals(100, config.listenerCount());
+
+        // the collected listeners are swept up when the value is next connected to
+        for (int ii = 0; ii < 60; ii++) conns.get(ii).simulateCollection();
+        assertEquals(100, config.listenerCount());
+        config.connect(Slots.NOOP);
+        assertEquals(41, config.listenerCount());
+        for (int ii = 0; ii < 60; ii++) assertFalse(conns.get(ii).isOpen());
+        for (int ii = 60; ii < 100; ii++) assertTrue(conns.get(ii).isOpen());
+
+        // connections to other reactors leave ours alone
+        for (int ii = 60; ii < 100; ii++) conns.get(ii).simulateCollection();
+        Value.create(0).connect(Slots.NOOP);
+        assertEquals(41, config.listenerCount());
+    }
+
     @Test public void testJoinedValue () {
         Value<Integer> number = Value.create(1);
         Value<String> string = Value.create("foo");
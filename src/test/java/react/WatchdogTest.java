@@ -0,0 +1,110 @@
+//
+// React - a library for functional-reactive-like programming
+// Copyright (c) 2015, Three Rings Design, Inc. - All rights reserved.
+// http://github.com/threerings/react/blob/master/LICENSE
+
+package react;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link Reactor.Watchdog} mechanism.
+ */
+public class WatchdogTest
+{
+    /** A watchdog whose clock advances only when told to. */
+    public static class TestWatchdog extends Reactor.Watchdog {
+        public long now;
+        public final List<String> reports = new ArrayList<String>();
+
+        public TestWatchdog (long budget) { super(budget); }
+
+        @Override public long now () { return now; }
+
+        @Override public void onSlowListener (Reactor reactor, Object listener, int priority,
+                                              long elapsed) {
+            reports.add(listener.getClass().getSimpleName() + ":" + priority + ":" + elapsed);
+            _reactors.add(reactor);
+        }
+
+        public final List<Reactor> _reactors = new ArrayList<Reactor>();
+    }
+
+    /** A slot which takes a specified time to handle events. */
+    public static class SlowSlot extends Slot<Object> {
+        public SlowSlot (TestWatchdog watchdog, long time) {
+            _watchdog = watchdog;
+            _time = time;
+        }
+        @Override public void onEmit (Object value) {
+            _watchdog.now += _time;
+        }
+        protected final TestWatchdog _watchdog;
+        protected final long _time;
+    }
+
+    @After public void uninstall () {
+        Reactor.setWatchdog(null);
+    }
+
+    @Test public void testSignal () {
+        TestWatchdog watchdog = new TestWatchdog(10);
+        Reactor.setWatchdog(watchdog);
+        Signal<Integer> signal = Signal.create();
+        signal.connect(new SlowSlot(watchdog, 5));
+        signal.connect(new SlowSlot(watchdog, 20)).atPrio(3);
+        signal.connect(new SlowSlot(watchdog, 10));
+        signal.connect(new Slot<Integer>() {
+            public void onEmit (Integer value) {
+                TestWatchdog dog = (TestWatchdog)Reactor.watchdog();
+                dog.now += 50;
+                throw new RuntimeException("Bang");
+            }
+        }).atPrio(-1);
+
+        try {
+            signal.emit(1);
+            fail();
+        } catch (RuntimeException re) {
+            assertEquals("Bang", re.getMessage());
+        }
+        assertEquals(2, watchdog.reports.size());
+        assertEquals("SlowSlot:3:20", watchdog.reports.get(0));
+        assertTrue(watchdog.reports.get(1).endsWith(":-1:50"));
+        assertSame(signal, watchdog._reactors.get(0));
+
+        // once uninstalled, nothing is timed
+        Reactor.setWatchdog(null);
+        signal.connect(Slots.NOOP); // so that we don't throw
+        watchdog.reports.clear();
+        try {
+            signal.emit(2);
+        } catch (RuntimeException re) {} // expected
+        assertEquals(0, watchdog.reports.size());
+    }
+
+    @Test public void testPromiseAndMap () {
+        TestWatchdog watchdog = new TestWatchdog(10);
+        Reactor.setWatchdog(watchdog);
+        RPromise<Object> promise = RPromise.create();
+        promise.onSuccess(new SlowSlot(watchdog, 11));
+        promise.onSuccess(new SlowSlot(watchdog, 1));
+        promise.succeed("Yay!");
+        assertEquals(1, watchdog.reports.size());
+        assertSame(promise, watchdog._reactors.get(0));
+
+        final TestWatchdog dog = watchdog;
+        ConcurrentRMap<String,Integer> map = ConcurrentRMap.create();
+        map.connect(new RMap.Listener<String,Integer>() {
+            @Override public void onPut (String key, Integer value) { dog.now += 30; }
+        }).atPrio(2);
+        watchdog.reports.clear();
+        map.put("one", 1);
+        assertEquals(1, watchdog.reports.size());
+        assertTrue(watchdog.reports.get(0).endsWith(":2:30"));
+    }
+}